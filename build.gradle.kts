@@ -4,6 +4,7 @@ plugins {
     `maven-publish`
     signing
     alias(libs.plugins.nmcp)
+    alias(libs.plugins.jmh)
 }
 
 group = "dev.hollowcube"
@@ -33,6 +34,14 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// Benchmarks live in src/jmh, run with `./gradlew jmh` (or `-Pjmh.includes=<regex>` to select a subset).
+jmh {
+    jmhVersion = "1.37"
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    (findProperty("jmh.includes") as String?)?.let { includes = listOf(it) }
+}
+
 nmcpAggregation {
     centralPortal {
         username = System.getenv("SONATYPE_USERNAME")
@@ -1 +1,3 @@
-rootProject.name = "molang"
\ No newline at end of file
+rootProject.name = "molang"
+
+include("vector")
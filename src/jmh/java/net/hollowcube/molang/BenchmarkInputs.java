@@ -0,0 +1,32 @@
+package net.hollowcube.molang;
+
+import java.util.Map;
+
+/// Sources shared by the benchmarks, modelled on what entity animation and render controllers typically contain.
+public final class BenchmarkInputs {
+
+    public static final Map<String, String> ANIMATION = Map.of(
+            "constant", "1 + 2 * 3",
+            "sin", "math.sin(q.anim_time * 90) * 10",
+            "ternary", "q.is_on_ground ? math.lerp(0, 1, q.anim_time) : -5",
+            "clamp_cos", "math.clamp(q.modified_move_speed * 2, 0, 1) * math.cos(q.life_time * 360)",
+            "variables", "v.speed * 2 + (v.missing ?? 1)",
+            "repeated", "math.sin(q.anim_time * 90) * 10 + math.cos(q.anim_time * 90) * math.sin(q.anim_time * 90)"
+    );
+
+    public static final String SHORT = ANIMATION.get("clamp_cos");
+
+    /// A multiline block of roughly `statements` statements.
+    public static String large(int statements) {
+        final StringBuilder builder = new StringBuilder("{\n");
+        for (int i = 0; i < statements; i += 3) {
+            builder.append("  math.sin(q.anim_time * ").append(i).append(") * v.speed;\n");
+            builder.append("  q.is_on_ground ? math.lerp(0, 1, q.anim_time) : -").append(i).append(";\n");
+            builder.append("  loop(4, { q.a > 2 ? break : continue; });\n");
+        }
+        return builder.append("}").toString();
+    }
+
+    private BenchmarkInputs() {
+    }
+}
@@ -0,0 +1,48 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.MolangBulkParser.Source;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/// Parses a pack of sources in which, as in real content, most expressions appear many times.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkParseBenchmark {
+
+    @Param({"20000"})
+    public int sources;
+
+    @Param({"2000"})
+    public int distinct;
+
+    private List<Source> pack;
+
+    @Setup
+    public void setup() {
+        final List<String> expressions = new ArrayList<>(BenchmarkInputs.ANIMATION.values());
+        pack = new ArrayList<>(sources);
+        for (int i = 0; i < sources; i++) {
+            final int id = i % distinct;
+            pack.add(Source.of(expressions.get(id % expressions.size()) + " + " + id));
+        }
+    }
+
+    @Benchmark
+    public void sequential(Blackhole blackhole) {
+        for (Source source : pack)
+            blackhole.consume(MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow(source.source())));
+    }
+
+    @Benchmark
+    public List<MolangBulkParser.Result> bulk() {
+        return MolangBulkParser.parseAll(pack);
+    }
+}
@@ -0,0 +1,33 @@
+package net.hollowcube.molang;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"short", "large"})
+    public String input;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = input.equals("short") ? BenchmarkInputs.SHORT : BenchmarkInputs.large(300);
+    }
+
+    @Benchmark
+    public void next(Blackhole blackhole) {
+        final MolangLexer lexer = new MolangLexer(source);
+        MolangLexer.Tok tok;
+        while ((tok = lexer.next()) != null)
+            blackhole.consume(tok);
+    }
+}
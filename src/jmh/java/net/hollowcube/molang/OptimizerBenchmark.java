@@ -0,0 +1,31 @@
+package net.hollowcube.molang;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+
+    @Param({"constant", "sin", "ternary", "clamp_cos", "variables", "large"})
+    public String input;
+
+    private MolangExpr expr;
+
+    @Setup
+    public void setup() {
+        expr = input.equals("large")
+                ? MolangExpr.parseOrThrow(BenchmarkInputs.large(300), true)
+                : MolangExpr.parseOrThrow(BenchmarkInputs.ANIMATION.get(input));
+    }
+
+    @Benchmark
+    public MolangExpr optimizeAst() {
+        return MolangOptimizer.optimizeAst(expr);
+    }
+}
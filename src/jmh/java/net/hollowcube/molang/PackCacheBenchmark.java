@@ -0,0 +1,68 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.MolangBulkParser.Source;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/// Compares a cold start, parsing and optimizing every source of a pack, with loading the pack from its cache file.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackCacheBenchmark {
+
+    @Param({"20000"})
+    public int sources;
+
+    private List<Source> pack;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        final List<String> expressions = new ArrayList<>(BenchmarkInputs.ANIMATION.values());
+        pack = new ArrayList<>(sources);
+        for (int i = 0; i < sources; i++)
+            pack.add(Source.of(expressions.get(i % expressions.size()) + " + " + i));
+        pack.add(new Source(BenchmarkInputs.large(300), true));
+
+        file = Files.createTempFile("molang", ".bin");
+        file.toFile().deleteOnExit();
+        MolangPackCache.write(file, MolangBulkParser.parseAll(pack));
+    }
+
+    @Benchmark
+    public void coldParse(Blackhole blackhole) {
+        for (Source source : pack) {
+            final MolangExpr expr = MolangExpr.parseOrThrow(source.source(), source.multiline());
+            blackhole.consume(MolangOptimizer.optimizeAst(expr));
+        }
+    }
+
+    @Benchmark
+    public List<MolangBulkParser.Result> coldBulkParse() {
+        return MolangBulkParser.parseAll(pack);
+    }
+
+    /// Opening alone, which checks the hash of the sources and decodes nothing.
+    @Benchmark
+    public MolangPackCache cacheOpen() throws IOException {
+        return Objects.requireNonNull(MolangPackCache.open(file, pack));
+    }
+
+    @Benchmark
+    public void cacheLoad(Blackhole blackhole) throws IOException {
+        final MolangPackCache cache = Objects.requireNonNull(MolangPackCache.open(file, pack));
+        for (int i = 0; i < cache.size(); i++)
+            blackhole.consume(cache.get(i));
+    }
+}
@@ -0,0 +1,31 @@
+package net.hollowcube.molang;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"short", "large"})
+    public String input;
+
+    private String source;
+    private boolean multiline;
+
+    @Setup
+    public void setup() {
+        multiline = input.equals("large");
+        source = multiline ? BenchmarkInputs.large(300) : BenchmarkInputs.SHORT;
+    }
+
+    @Benchmark
+    public MolangExpr parse() {
+        return new MolangParser(source, multiline).parse();
+    }
+}
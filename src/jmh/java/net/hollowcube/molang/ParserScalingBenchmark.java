@@ -0,0 +1,31 @@
+package net.hollowcube.molang;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/// Parses multiline scripts of growing size. Lexing reads each character once and the parser only looks ahead in the
+/// token arrays, so the time per statement (the score divided by `statements`) should stay flat as scripts grow.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserScalingBenchmark {
+
+    @Param({"30", "300", "3000", "30000"})
+    public int statements;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = BenchmarkInputs.large(statements);
+    }
+
+    @Benchmark
+    public MolangExpr parse() {
+        return new MolangParser(source, true).parse();
+    }
+}
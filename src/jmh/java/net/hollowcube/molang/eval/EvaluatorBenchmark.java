@@ -0,0 +1,59 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.BenchmarkInputs;
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+    private static final MolangValue QUERY = MolangValue.Holder.holder(Map.of(
+            "anim_time", new MolangValue.Num(2.5),
+            "life_time", new MolangValue.Num(12.25),
+            "is_on_ground", new MolangValue.Num(1),
+            "modified_move_speed", new MolangValue.Num(0.3)
+    ));
+
+    @Param({"constant", "sin", "ternary", "clamp_cos", "variables", "repeated"})
+    public String input;
+
+    private MolangExpr expr;
+    private MolangExpr shared;
+    private CompiledMolang compiled;
+    private MolangEvaluator evaluator;
+
+    @Setup
+    public void setup() {
+        expr = MolangExpr.parseOrThrow(BenchmarkInputs.ANIMATION.get(input));
+        shared = MolangOptimizer.shareCommonSubexpressions(expr);
+        compiled = MolangBackend.BYTECODE.compile(expr);
+        evaluator = new MolangEvaluator(Map.of("query", QUERY, "q", QUERY));
+        evaluator.setVariable("speed", new MolangValue.Num(4));
+    }
+
+    @Benchmark
+    public double eval() {
+        return evaluator.eval(expr);
+    }
+
+    @Benchmark
+    public double evalShared() {
+        return evaluator.eval(shared);
+    }
+
+    /// Every tick marks the time queries as changed, the others only change occasionally.
+    @Benchmark
+    public double evalIncremental() {
+        evaluator.markQueryChanged("anim_time");
+        evaluator.markQueryChanged("life_time");
+        return compiled.evalIncremental(evaluator);
+    }
+}
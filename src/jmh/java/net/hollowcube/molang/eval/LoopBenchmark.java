@@ -0,0 +1,59 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/// Loops which exit early through `break`, `continue` or `return`, the case control flow signalling targets, and a
+/// constant loop which the optimizer unrolls.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopBenchmark {
+
+    @Param({
+            "loop(100, {break;})",
+            "loop(100, {q.tick(1) > 3 ? break : continue;})",
+            "loop(10, {loop(10, {q.tick(1); continue;}); q.tick(1) > 50 ? break : 0;})",
+            "loop(100, {q.tick(1) > 3 ? return : 0;})",
+            "loop(16, {q.tick(1) * math.sin(v.x * 90);})"
+    })
+    public String input;
+
+    @Param({"false", "true"})
+    public boolean optimized;
+
+    @Param({"INTERPRETER", "CLOSURE", "BYTECODE"})
+    public MolangBackend backend;
+
+    private CompiledMolang compiled;
+    private MolangEvaluator evaluator;
+    private int ticks;
+
+    @Setup
+    public void setup() {
+        final MolangValue query = MolangValue.Holder.holder(Map.of(
+                "tick", (MolangValue.Function) args -> new MolangValue.Num(++ticks)));
+        MolangExpr expr = MolangExpr.parseOrThrow(input);
+        if (optimized) {
+            // `q.tick` counts its calls, so it must not be shared.
+            expr = MolangOptimizer.optimizeAst(expr);
+            expr = MolangOptimizer.shareCommonSubexpressions(expr, ModuleRegistry.DEFAULT, false);
+        }
+        compiled = backend.compile(expr);
+        evaluator = new MolangEvaluator(Map.of("query", query, "q", query));
+    }
+
+    @Benchmark
+    public double eval() {
+        ticks = 0;
+        return compiled.eval(evaluator);
+    }
+}
@@ -0,0 +1,55 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/// Nested numeric ternaries, whose classification used to be walked again at every level. The expression is compiled
+/// against the runtime's layout, so the variable is read from its slot without boxing and the gc profiler should
+/// report a `gc.alloc.rate.norm` of 0 B/op at every depth, for every backend.
+///
+/// `interpretAlternating` (which ignores the backend) interprets two expressions in turn, as a frame evaluating an
+/// entity's animations does. It should not allocate either, as their classifications are cached by the runtime.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumericEvalBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int depth;
+
+    @Param({"INTERPRETER", "CLOSURE", "BYTECODE"})
+    public MolangBackend backend;
+
+    private CompiledMolang compiled;
+    private MolangExpr expr;
+    private MolangExpr other;
+    private MolangEvaluator evaluator;
+
+    @Setup
+    public void setup() {
+        String source = "v.x";
+        for (int i = 0; i < depth; i++)
+            source = "(v.x > " + i + " ? " + source + " + 1 : " + i + ")";
+        expr = MolangExpr.parseOrThrow(source);
+        other = MolangExpr.parseOrThrow(source.replace("+ 1", "- 1"));
+        evaluator = new MolangEvaluator(Map.of());
+        evaluator.setVariable("x", new MolangValue.Num(depth));
+        compiled = backend.compile(expr, evaluator.runtime());
+    }
+
+    @Benchmark
+    public double eval() {
+        return compiled.eval(evaluator);
+    }
+
+    @Benchmark
+    public double interpretAlternating() {
+        return evaluator.eval(expr) + evaluator.eval(other);
+    }
+}
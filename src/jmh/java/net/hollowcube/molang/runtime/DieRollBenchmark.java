@@ -0,0 +1,42 @@
+package net.hollowcube.molang.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/// Measures `math.die_roll` and `math.die_roll_integer` by number of dice, against a seeded and the default generator.
+/// `die_roll` rolls two dice per draw and `die_roll_integer` rolls up to 24 six sided dice per draw.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DieRollBenchmark {
+
+    @Param({"2", "16", "24", "25", "100"})
+    public double dice;
+
+    @Param({"false", "true"})
+    public boolean seeded;
+
+    private RandomGenerator random;
+
+    @Setup
+    public void setup() {
+        random = seeded ? new SplittableRandom(42) : ThreadLocalRandom.current();
+    }
+
+    @Benchmark
+    public double dieRoll() {
+        return MolangMath.dieRoll(random, dice, 0, 1);
+    }
+
+    @Benchmark
+    public double dieRollInteger() {
+        return MolangMath.dieRollInteger(random, dice, 1, 6);
+    }
+}
@@ -0,0 +1,47 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.eval.MolangValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/// Compares the exact easing functions of [MolangMath#MODULE] with the approximated ones of
+/// [MolangMath#module(boolean, boolean)] over a sweep of inputs, as an animation would sample them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EasingBenchmark {
+    private static final int SAMPLES = 1000;
+
+    @Param({
+            "ease_in_sine", "ease_out_sine", "ease_in_out_sine", "ease_in_expo", "ease_out_expo", "ease_in_out_expo",
+            "ease_in_elastic", "ease_out_elastic", "ease_in_out_elastic", "ease_out_cubic", "ease_out_quint",
+            "ease_in_out_quart", "ease_out_back", "ease_in_out_circ"
+    })
+    public String function;
+
+    @Param({"false", "true"})
+    public boolean approximate;
+
+    private MolangValue.Function3 func;
+
+    @Setup
+    public void setup() {
+        final MolangModule module = MolangMath.module(approximate, false);
+        if (!(module.get(function) instanceof MolangValue.Function3 f))
+            throw new IllegalArgumentException("not an easing function: " + function);
+        func = f;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double sweep() {
+        double sum = 0;
+        for (int i = 0; i < SAMPLES; i++)
+            sum += func.applyAsDouble(0, 1, i / (double) SAMPLES);
+        return sum;
+    }
+}
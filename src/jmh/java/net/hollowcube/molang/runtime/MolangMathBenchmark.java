@@ -0,0 +1,69 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.eval.MolangValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/// Measures each math builtin through the generic `Function.apply(List)` path and the fixed arity `applyAsDouble`
+/// path the evaluator uses when the argument count matches.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MolangMathBenchmark {
+
+    @Param({
+            "abs", "acos", "asin", "atan", "atan2", "ceil", "clamp", "copy_sign", "cos",
+            "die_roll", "die_roll_integer",
+            "ease_in_back", "ease_in_bounce", "ease_in_circ", "ease_in_cubic", "ease_in_elastic", "ease_in_expo",
+            "ease_in_back_out", "ease_in_out_bounce", "ease_in_out_circ", "ease_in_out_cubic", "ease_in_out_elastic",
+            "ease_in_out_expo", "ease_in_out_quad", "ease_in_out_quart", "ease_in_out_quint", "ease_in_out_sine",
+            "ease_in_quad", "ease_in_quart", "ease_in_quint", "ease_in_sine",
+            "ease_out_back", "ease_out_bounce", "ease_out_circ", "ease_out_elastic", "ease_out_expo",
+            "ease_out_quad", "ease_out_quart", "ease_out_quint", "ease_out_sine",
+            "exp", "floor", "hermite_blend", "inverse_lerp", "lerp", "lerprotate", "ln", "max", "min", "min_angle",
+            "mod", "pi", "pow", "random", "random_integer", "round", "sign", "sin", "sqrt", "trunc"
+    })
+    public String function;
+
+    private MolangValue.NumericFunction func;
+    private List<MolangValue> args;
+    private double a, b, c;
+
+    @Setup
+    public void setup() {
+        if (!(MolangMath.MODULE.get(function) instanceof MolangValue.NumericFunction f))
+            throw new IllegalArgumentException("not a math function: " + function);
+        func = f;
+
+        // Values which are in range for every function taking that many arguments (eg asin, random, easings).
+        final double[] values = function.startsWith("die_roll") ? new double[]{2, 0, 1} : new double[]{0.25, 1, 0.75};
+        a = values[0];
+        b = values[1];
+        c = values[2];
+        args = new ArrayList<>();
+        for (int i = 0; i < func.arity(); i++)
+            args.add(new MolangValue.Num(values[i]));
+    }
+
+    @Benchmark
+    public MolangValue apply() {
+        return func.apply(args);
+    }
+
+    @Benchmark
+    public double applyAsDouble() {
+        return switch (func) {
+            case MolangValue.Function0 f -> f.applyAsDouble();
+            case MolangValue.Function1 f -> f.applyAsDouble(a);
+            case MolangValue.Function2 f -> f.applyAsDouble(a, b);
+            case MolangValue.Function3 f -> f.applyAsDouble(a, b, c);
+            case MolangValue.Function4 f -> f.applyAsDouble(a, b, c, 0);
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.eval.MolangValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/// Compares the exact trigonometric functions of [MolangMath#MODULE] with the approximated ones of
+/// [MolangMath#module(boolean, boolean)] over a sweep of inputs in their usual range, such as bone rotations.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrigonometryBenchmark {
+    private static final int SAMPLES = 1000;
+
+    @Param({"sin", "cos", "atan", "atan2", "asin", "acos"})
+    public String function;
+
+    @Param({"false", "true"})
+    public boolean approximate;
+
+    private MolangValue.NumericFunction func;
+    private final double[] inputs = new double[SAMPLES];
+
+    @Setup
+    public void setup() {
+        func = (MolangValue.NumericFunction) MolangMath.module(false, approximate).get(function);
+        for (int i = 0; i < SAMPLES; i++) {
+            final double t = i / (double) SAMPLES;
+            inputs[i] = switch (function) {
+                case "sin", "cos" -> t * 720 - 360;
+                case "asin", "acos" -> t * 2 - 1;
+                default -> t * 20 - 10;
+            };
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double sweep() {
+        double sum = 0;
+        if (func instanceof MolangValue.Function2 f) {
+            for (int i = 0; i < SAMPLES; i++)
+                sum += f.applyAsDouble(inputs[i], inputs[SAMPLES - 1 - i]);
+        } else {
+            final MolangValue.Function1 f = (MolangValue.Function1) func;
+            for (int i = 0; i < SAMPLES; i++)
+                sum += f.applyAsDouble(inputs[i]);
+        }
+        return sum;
+    }
+}
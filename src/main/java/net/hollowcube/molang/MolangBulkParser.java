@@ -0,0 +1,114 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/// Parses and optimizes many sources at once, eg every expression of a resource pack at startup.
+///
+/// Identical sources are parsed once, and the distinct ones are split across the threads of a [ForkJoinPool]. A
+/// source which fails to parse only fails its own entries, the failure is returned in its [Result] instead of being
+/// thrown. This includes sources nested too deeply for the recursive parser or optimizer, which fail with an
+/// [IllegalStateException] caused by the [StackOverflowError].
+public final class MolangBulkParser {
+    // Sources parsed by one task before it stops splitting, small enough to balance uneven sizes.
+    private static final int SPLIT_THRESHOLD = 32;
+
+    public record Source(String source, boolean multiline) {
+
+        public static Source of(String source) {
+            return new Source(source, false);
+        }
+    }
+
+    /// The outcome of parsing a [Source], holding either its optimized expression or the exception it failed with.
+    public record Result(Source source, @Nullable MolangExpr expr, @Nullable RuntimeException failure) {
+
+        public boolean failed() {
+            return failure != null;
+        }
+
+        /// Returns the expression, or rethrows the original exception if the source failed to parse.
+        public MolangExpr exprOrThrow() {
+            if (failure != null) throw failure;
+            return Objects.requireNonNull(expr);
+        }
+    }
+
+    public static List<Result> parseAll(Collection<Source> sources) {
+        return parseAll(sources, ModuleRegistry.DEFAULT, ForkJoinPool.commonPool());
+    }
+
+    /// Parses and optimizes every source for the given registry on the given pool, returning one result per source in
+    /// the order of the collection. Entries with the same source and multiline flag share the same result.
+    public static List<Result> parseAll(Collection<Source> sources, ModuleRegistry modules, ForkJoinPool pool) {
+        final Map<Source, Integer> indices = new HashMap<>();
+        final List<Source> distinct = new ArrayList<>();
+        final int[] entries = new int[sources.size()];
+        int i = 0;
+        for (Source source : sources) {
+            entries[i++] = indices.computeIfAbsent(source, key -> {
+                distinct.add(source);
+                return distinct.size() - 1;
+            });
+        }
+
+        final Result[] results = new Result[distinct.size()];
+        if (results.length > 0)
+            pool.invoke(new ParseTask(distinct, results, modules, 0, results.length));
+        return Arrays.stream(entries).mapToObj(index -> results[index]).toList();
+    }
+
+    private static Result parse(Source source, ModuleRegistry modules) {
+        try {
+            final MolangExpr expr = MolangExpr.parseOrThrow(source.source(), source.multiline());
+            return new Result(source, MolangOptimizer.optimizeAst(expr, modules), null);
+        } catch (RuntimeException e) {
+            return new Result(source, null, e);
+        } catch (StackOverflowError e) {
+            // The parser and optimizer recurse per level of nesting, a pathological source must only fail its entries.
+            return new Result(source, null, new IllegalStateException("expression is nested too deeply", e));
+        }
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private final List<Source> sources;
+        private final Result[] results;
+        private final ModuleRegistry modules;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<Source> sources, Result[] results, ModuleRegistry modules, int from, int to) {
+            this.sources = sources;
+            this.results = results;
+            this.modules = modules;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    results[i] = parse(sources.get(i), modules);
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask(sources, results, modules, from, middle),
+                    new ParseTask(sources, results, modules, middle, to));
+        }
+    }
+
+    private MolangBulkParser() {
+    }
+}
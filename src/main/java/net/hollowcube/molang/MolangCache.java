@@ -0,0 +1,265 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.eval.CompiledMolang;
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangRuntime;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/// A bounded cache of parsed, optimized and optionally compiled expressions keyed by their source.
+///
+/// The cache is split into independently locked segments, each evicting its least recently used entries once
+/// it holds more than its share of the maximum weight. Lookups from many threads only contend when they hash
+/// to the same segment. Parse failures are cached as well, the same exception is rethrown on every lookup of
+/// that source.
+///
+/// Sources parsed in multiline mode are cached separately from the same source in single line mode.
+///
+/// Variants specialized with [MolangOptimizer#specialize(MolangExpr, Map)] are cached along with their source, keyed by
+/// the values of the bindings the source actually references. Many entity types sharing an expression therefore share
+/// its variants, as long as they agree on the values it reads.
+public final class MolangCache {
+    private static final int MAX_SEGMENTS = 64;
+
+    public record Stats(long hits, long misses, long evictions, long failures) {
+    }
+
+    private record Key(String source, boolean multiline, Map<String, MolangValue> bindings) {
+    }
+
+    private static final class Entry {
+        private final @Nullable MolangExpr expr;
+        private final @Nullable RuntimeException failure;
+        private final int weight;
+        private volatile @Nullable CompiledMolang compiled;
+
+        Entry(@Nullable MolangExpr expr, @Nullable RuntimeException failure, int weight) {
+            this.expr = expr;
+            this.failure = failure;
+            this.weight = weight;
+        }
+
+        MolangExpr expr() {
+            if (failure != null) throw failure;
+            return Objects.requireNonNull(expr);
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Key, Entry> {
+        private final long maximumWeight;
+        private long weight = 0;
+
+        Segment(long maximumWeight) {
+            super(16, 0.75f, true);
+            this.maximumWeight = maximumWeight;
+        }
+
+        synchronized @Nullable Entry find(Key key) {
+            return get(key);
+        }
+
+        /// Inserts the entry unless another thread loaded the same key first, returning the winning entry.
+        synchronized Entry insert(Key key, Entry entry) {
+            final Entry existing = putIfAbsent(key, entry);
+            if (existing != null) return existing;
+
+            weight += entry.weight;
+            final Iterator<Entry> iter = values().iterator();
+            while (weight > maximumWeight && iter.hasNext()) {
+                weight -= iter.next().weight;
+                iter.remove();
+                evictions.increment();
+            }
+            return entry;
+        }
+
+        synchronized void invalidateAll() {
+            clear();
+            weight = 0;
+        }
+
+        synchronized int count() {
+            return size();
+        }
+    }
+
+    private final ToIntFunction<String> weigher;
+    private final @Nullable MolangBackend backend;
+    private final @Nullable MolangRuntime runtime;
+    private final ModuleRegistry modules;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /// Creates a parse-only cache holding at most `maximumSize` expressions.
+    public MolangCache(int maximumSize) {
+        this(maximumSize, source -> 1, null);
+    }
+
+    /// Creates a cache holding entries up to a total weight of `maximumWeight`.
+    ///
+    /// The weigher is applied to the source of each entry (eg `String::length`). If a backend is given,
+    /// [#compile(String, boolean)] compiles each expression with it the first time it is requested.
+    public MolangCache(long maximumWeight, ToIntFunction<String> weigher, @Nullable MolangBackend backend) {
+        this(maximumWeight, weigher, backend, null);
+    }
+
+    /// Same as [#MolangCache(long, ToIntFunction, MolangBackend)], but optimizes expressions against the modules of
+    /// the runtime and compiles them against the runtime. Compiled expressions may then only be evaluated by its
+    /// frames.
+    public MolangCache(long maximumWeight, ToIntFunction<String> weigher, @Nullable MolangBackend backend,
+                       @Nullable MolangRuntime runtime) {
+        if (maximumWeight <= 0) throw new IllegalArgumentException("maximumWeight must be positive");
+        this.weigher = weigher;
+        this.backend = backend;
+        this.runtime = runtime;
+        this.modules = runtime != null ? runtime.modules() : ModuleRegistry.DEFAULT;
+
+        // Enough segments to make contention unlikely, but never so many that one cannot hold an entry.
+        int count = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors() * 4, MAX_SEGMENTS));
+        while (count > 1 && maximumWeight / count < 1) count >>= 1;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(maximumWeight / count + (i < maximumWeight % count ? 1 : 0));
+    }
+
+    public MolangExpr parse(String source) {
+        return parse(source, false);
+    }
+
+    /// Returns the parsed and optimized expression for the source, parsing it on a miss.
+    ///
+    /// Rethrows the original exception if the source failed to parse.
+    public MolangExpr parse(String source, boolean multiline) {
+        return entry(source, multiline).expr();
+    }
+
+    public MolangExpr parse(String source, Map<String, MolangValue> bindings) {
+        return parse(source, false, bindings);
+    }
+
+    /// Returns the expression for the source specialized with the given bindings, specializing it on a miss.
+    ///
+    /// Rethrows the original exception if the source failed to parse.
+    public MolangExpr parse(String source, boolean multiline, Map<String, MolangValue> bindings) {
+        return entry(source, multiline, bindings).expr();
+    }
+
+    public CompiledMolang compile(String source) {
+        return compile(source, false);
+    }
+
+    /// Returns the compiled expression for the source, parsing and compiling it on a miss.
+    ///
+    /// Rethrows the original exception if the source failed to parse.
+    public CompiledMolang compile(String source, boolean multiline) {
+        return compile(entry(source, multiline));
+    }
+
+    public CompiledMolang compile(String source, Map<String, MolangValue> bindings) {
+        return compile(source, false, bindings);
+    }
+
+    /// Returns the compiled expression for the source specialized with the given bindings, compiling it on a miss.
+    ///
+    /// Rethrows the original exception if the source failed to parse.
+    public CompiledMolang compile(String source, boolean multiline, Map<String, MolangValue> bindings) {
+        return compile(entry(source, multiline, bindings));
+    }
+
+    private CompiledMolang compile(Entry entry) {
+        if (backend == null) throw new IllegalStateException("cache was created without a backend");
+        CompiledMolang compiled = entry.compiled;
+        if (compiled == null) {
+            // Racing threads may both compile, compiled expressions are stateless so either result is fine.
+            entry.compiled = compiled = runtime != null
+                    ? backend.compile(entry.expr(), runtime) : backend.compile(entry.expr());
+        }
+        return compiled;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), failures.sum());
+    }
+
+    /// Returns the number of cached entries, which may be stale if the cache is being modified.
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.count();
+        return size;
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments)
+            segment.invalidateAll();
+    }
+
+    private Entry entry(String source, boolean multiline) {
+        final Key key = new Key(source, multiline, Map.of());
+        return entry(key, () -> parseAndOptimize(source, multiline));
+    }
+
+    /// Counts a single hit or miss per request, for the variant or for the source itself if none of the bindings are
+    /// relevant. Looking up the source a variant is specialized from is not counted.
+    private Entry entry(String source, boolean multiline, Map<String, MolangValue> bindings) {
+        final Key key = new Key(source, multiline, Map.of());
+        final Segment segment = segment(key);
+        final Entry cached = segment.find(key);
+        final Entry base = cached != null ? cached : load(segment, key, () -> parseAndOptimize(source, multiline));
+
+        final Map<String, MolangValue> relevant = base.failure == null
+                ? MolangOptimizer.relevantBindings(base.expr(), bindings) : Map.of();
+        if (relevant.isEmpty()) {
+            (cached != null ? hits : misses).increment();
+            return base;
+        }
+        return entry(new Key(source, multiline, relevant),
+                () -> MolangOptimizer.specialize(base.expr(), relevant, modules));
+    }
+
+    private MolangExpr parseAndOptimize(String source, boolean multiline) {
+        return MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow(source, multiline), modules);
+    }
+
+    private Entry entry(Key key, Supplier<MolangExpr> loader) {
+        final Segment segment = segment(key);
+        final Entry cached = segment.find(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return load(segment, key, loader);
+    }
+
+    private Segment segment(Key key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private Entry load(Segment segment, Key key, Supplier<MolangExpr> loader) {
+        // Parse outside the segment lock so a slow parse does not block unrelated lookups.
+        final int weight = weigher.applyAsInt(key.source());
+        Entry entry;
+        try {
+            entry = new Entry(loader.get(), null, weight);
+        } catch (RuntimeException e) {
+            failures.increment();
+            entry = new Entry(null, e, weight);
+        }
+        return segment.insert(key, entry);
+    }
+}
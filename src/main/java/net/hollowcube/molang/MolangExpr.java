@@ -112,5 +112,31 @@ public sealed interface MolangExpr {
         }
     }
 
+    /// A subexpression which occurs several times in an expression, evaluated at most once per evaluation and kept in
+    /// slot `index` of the evaluator. Every occurrence is the same instance.
+    ///
+    /// Shared subexpressions are introduced by [MolangOptimizer#shareCommonSubexpressions(MolangExpr)], never by the
+    /// parser.
+    record Shared(int index, MolangExpr expr) implements MolangExpr {
+
+        @Override
+        public String toString() {
+            return expr.toString();
+        }
+    }
+
+    /// A `loop` with a constant count whose body was repeated ahead of time by the optimizer.
+    ///
+    /// `body` holds one or more copies of the loop body and runs `times` times, `iterations` iterations in total. All
+    /// iterations are taken from the loop limit at once. If fewer remain, `loop` runs instead, so the limit is reached
+    /// at the very same iteration.
+    record Unrolled(Call loop, int iterations, int times, Block body) implements MolangExpr {
+
+        @Override
+        public String toString() {
+            return loop.toString();
+        }
+    }
+
 }
 
@@ -2,6 +2,14 @@ package net.hollowcube.molang;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
+
+/// Splits a source into tokens up front, kept as parallel arrays of kind, start and end offset. Token text is never
+/// copied: numbers are parsed straight from the source and identifiers are interned by [MolangSymbols], so parsing
+/// only creates strings for names it has not seen recently.
+///
+/// Each character is read once. The value of a number and the hash of an identifier are computed while scanning
+/// them, and looking ahead only reads the token arrays.
 final class MolangLexer {
     public enum Tok {
         PLUS, MINUS, STAR, SLASH,
@@ -12,46 +20,51 @@ final class MolangLexer {
         NUMBER, IDENT;
     }
 
+    private static final Tok[] TOKS = Tok.values();
+    // Integers and decimals with at most 22 fraction digits below this are parsed exactly by a single division.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
     private final String source;
 
+    // The tokens, kinds are Tok ordinals and ends are exclusive. Values hold the bits of numbers and the hash of
+    // identifiers.
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private long[] values;
+    private int count = 0;
+    private int index = 0; // The token next() returns
+
     private int start = 0;
     private int cursor = 0;
 
+    /// @throws IllegalStateException if there is an unexpected token anywhere in the source.
     public MolangLexer(String source) {
         this.source = source;
+        final int capacity = source.length() / 4 + 8;
+        this.kinds = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.values = new long[capacity];
+        tokenize();
     }
 
-    /**
-     * Returns the next token in the input, or null if the end of file was reached.
-     *
-     * @throws IllegalStateException if there is an unexpected token.
-     */
+    /// Returns the next token in the input, or null if the end of file was reached.
     public @Nullable Tok next() {
-        start = cursor;
-
-        if (atEnd()) return null;
-
-        consumeWhitespace();
-
-        char c = advance();
-        if (isAlpha(c))
-            return ident();
-        if (isDigit(c))
-            return number();
-
-        return symbol(c);
+        return index < count ? TOKS[kinds[index++]] : null;
     }
 
-    /**
-     * Returns the next token <i>without</i> stepping to the next token in the input,
-     * or null if the end of file was reached.
-     *
-     * @throws IllegalStateException if there is an unexpected token.
-     */
+    /// Returns the next token _without_ stepping to the next token in the input, or null if the end of file was
+    /// reached.
     public @Nullable Tok peek() {
-        var result = next();
-        cursor = start; // Reset to where it was before the call to next.
-        return result;
+        return index < count ? TOKS[kinds[index]] : null;
     }
 
     public void expect(Tok type) {
@@ -60,8 +73,55 @@ final class MolangLexer {
             throw new IllegalStateException("Expected " + type + " but got " + next);
     }
 
-    public String span() {
-        return source.substring(start, cursor).strip();
+    /// The value of the [Tok#NUMBER] last returned by [#next()].
+    public double number() {
+        return Double.longBitsToDouble(values[index - 1]);
+    }
+
+    /// The name of the [Tok#IDENT] last returned by [#next()].
+    public String ident() {
+        return MolangSymbols.intern(source, starts[index - 1], ends[index - 1], (int) values[index - 1]);
+    }
+
+    /// The number of tokens in the source.
+    int size() {
+        return count;
+    }
+
+    int start(int token) {
+        return starts[token];
+    }
+
+    int end(int token) {
+        return ends[token];
+    }
+
+    private void tokenize() {
+        while (true) {
+            consumeWhitespace();
+            if (atEnd()) return;
+            start = cursor;
+
+            char c = advance();
+            if (isAlpha(c)) scanIdent(c);
+            else if (isDigit(c)) scanNumber(c);
+            else add(symbol(c), 0);
+        }
+    }
+
+    private void add(Tok tok, long value) {
+        if (count == kinds.length) {
+            final int capacity = count * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[count] = tok.ordinal();
+        starts[count] = start;
+        ends[count] = cursor;
+        values[count] = value;
+        count++;
     }
 
     private void consumeWhitespace() {
@@ -75,26 +135,41 @@ final class MolangLexer {
         }
     }
 
-    private Tok ident() {
+    private void scanIdent(char first) {
+        int hash = first; // As String#hashCode
         while (isAlpha(peek0()) || isDigit(peek0())) {
-            advance();
+            hash = 31 * hash + advance();
         }
 
-        return Tok.IDENT;
+        add(Tok.IDENT, hash);
     }
 
-    private Tok number() {
+    private void scanNumber(char first) {
+        long mantissa = first - '0';
+        int fractionDigits = 0;
+
         // Pre decimal
         while (isDigit(peek0()))
-            advance();
+            mantissa = digit(mantissa, advance());
 
         // Decimal, if present
         if (match('.')) {
-            while (isDigit(peek0()))
-                advance();
+            while (isDigit(peek0())) {
+                mantissa = digit(mantissa, advance());
+                fractionDigits++;
+            }
         }
 
-        return Tok.NUMBER;
+        // Mantissas which are too large to be exact (or wrapped) are rare enough to parse again.
+        final double value = mantissa < MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length
+                ? mantissa / POWERS_OF_TEN[fractionDigits]
+                : Double.parseDouble(source.substring(start, cursor));
+        add(Tok.NUMBER, Double.doubleToRawLongBits(value));
+    }
+
+    private static long digit(long mantissa, char c) {
+        // Saturates rather than overflowing, the number is parsed again anyway.
+        return mantissa < MAX_EXACT_MANTISSA ? mantissa * 10 + (c - '0') : mantissa;
     }
 
     private Tok symbol(char c) {
@@ -156,4 +231,3 @@ final class MolangLexer {
         throw new IllegalStateException(String.format("unexpected token '%s' at %d.", c, cursor));
     }
 }
-
@@ -1,37 +1,384 @@
 package net.hollowcube.molang;
 
+import net.hollowcube.molang.eval.MolangEvaluator;
 import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.eval.SlotLayout;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.ModuleRegistry;
 import net.hollowcube.molang.runtime.MolangMath;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
-// Implements some (very basic) optimizations for a Molang AST.
+/// Optimizes Molang ASTs with a pipeline of [Pass]es.
+///
+/// Each pass rewrites the tree bottom up and returns the very same node when it has nothing to change, so the pipeline
+/// repeats the enabled passes until none of them changes the tree. Unless noted otherwise, a pass preserves both the
+/// result and the number of errors reported by the interpreter.
 public final class MolangOptimizer {
+    /// The version of the passes, bumped whenever one of them rewrites a tree differently. Files storing optimized trees
+    /// (see [MolangPackCache]) record it, and are not used by another version.
+    public static final int VERSION = 2;
+
+    private static final Set<String> KEYWORDS = Set.of("break", "continue", "return", "loop", "for_each", "this");
+    // A body containing any of these cannot be unrolled, it either signals its loop or takes from the loop limit itself.
+    private static final Set<String> LOOP_IDENTS = Set.of("break", "continue", "loop");
+    private static final ModuleFunction POW = Objects.requireNonNull(MolangMath.MODULE.function("pow"));
+    // Passes enable each other, but in practice the tree settles after two or three rounds.
+    private static final int MAX_ROUNDS = 16;
+    // The number of nodes an unrolled loop body may grow to.
+    private static final int MAX_UNROLLED_SIZE = 64;
+
+    public enum Pass {
+        /// Folds operators with constant operands, ternaries with a constant condition and calls of foldable module
+        /// functions with constant arguments.
+        CONSTANT_FOLDING,
+        /// Removes identities (`x + 0`, `x - 0`, `x * 1`, `x / 1`, `--x`, and `!!x` for a boolean `x`) and folds
+        /// `x * 0` when `x` is finite and evaluating it has no effect. `x + 0` does not preserve the sign of a negative
+        /// zero.
+        ALGEBRAIC_SIMPLIFICATION,
+        /// Combines the constants of nested sums and products, eg `(x + 1) + 2` becomes `x + 3`. This may change the
+        /// rounding of the result, so it is not one of the [#DEFAULT_PASSES].
+        REASSOCIATION,
+        /// Replaces operations with cheaper equivalents: division by a power of two becomes a multiplication and `x * -1`
+        /// becomes `-x`.
+        STRENGTH_REDUCTION,
+        /// Replaces `math.pow(v.x, 2)` with `v.x * v.x` for variable and temp reads. The variable is read twice, so if
+        /// it does not hold a number the errors reported differ (and a function it holds is called twice), which is why
+        /// this is not one of the [#DEFAULT_PASSES]. Only use it for packs whose variables always hold numbers.
+        POW_EXPANSION,
+        /// Removes statements which have no effect from blocks, along with any statement following a `return`.
+        DEAD_STATEMENT_ELIMINATION,
+        /// Turns `loop` calls with a constant count into [MolangExpr.Unrolled] loops, repeating small bodies ahead of
+        /// time, which compiled backends evaluate without the interpreter. Bodies which contain `loop`, `break` or
+        /// `continue` are left as is.
+        LOOP_UNROLLING
+    }
+
+    /// Every pass which preserves the result of the expression exactly, along with the errors it reports.
+    public static final Set<Pass> DEFAULT_PASSES = Collections.unmodifiableSet(
+            EnumSet.complementOf(EnumSet.of(Pass.REASSOCIATION, Pass.POW_EXPANSION)));
 
     public static MolangExpr optimizeAst(MolangExpr expr) {
+        return optimizeAst(expr, ModuleRegistry.DEFAULT);
+    }
+
+    /// Optimizes the expression, folding calls of any foldable function of the registry which has constant arguments.
+    /// The result must only be evaluated by runtimes created with the same registry.
+    public static MolangExpr optimizeAst(MolangExpr expr, ModuleRegistry modules) {
+        return optimizeAst(expr, modules, DEFAULT_PASSES);
+    }
+
+    /// Optimizes the expression with only the given passes, returning the same instance if none of them applies.
+    public static MolangExpr optimizeAst(MolangExpr expr, ModuleRegistry modules, Set<Pass> passes) {
+        final List<UnaryOperator<MolangExpr>> rules = new ArrayList<>();
+        for (Pass pass : Pass.values()) {
+            if (!passes.contains(pass)) continue;
+            rules.add(switch (pass) {
+                case CONSTANT_FOLDING -> node -> fold(node, modules);
+                case ALGEBRAIC_SIMPLIFICATION -> MolangOptimizer::simplify;
+                case REASSOCIATION -> MolangOptimizer::reassociate;
+                case STRENGTH_REDUCTION -> MolangOptimizer::reduce;
+                case POW_EXPANSION -> node -> expandPow(node, modules);
+                case DEAD_STATEMENT_ELIMINATION -> MolangOptimizer::eliminateDeadStatements;
+                case LOOP_UNROLLING -> MolangOptimizer::unroll;
+            });
+        }
+
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            MolangExpr result = expr;
+            for (UnaryOperator<MolangExpr> rule : rules)
+                result = rewrite(result, rule);
+            if (result == expr) break;
+            expr = result;
+        }
+        return expr;
+    }
+
+    public static MolangExpr shareCommonSubexpressions(MolangExpr expr) {
+        return shareCommonSubexpressions(expr, ModuleRegistry.DEFAULT, true);
+    }
+
+    /// Replaces subexpressions which occur more than once with a [MolangExpr.Shared], so that the interpreter and the
+    /// compiled backends evaluate each of them at most once per evaluation. Errors in a shared subexpression are
+    /// therefore reported once. This is meant to run after [#optimizeAst(MolangExpr, ModuleRegistry)].
+    ///
+    /// Only subexpressions without effects are shared: operators, variable reads and calls of pure and deterministic
+    /// module functions. Any other access or call is a query, which is only shared if `pureQueries` is set, ie if
+    /// reading a query several times during one evaluation always gives the same result.
+    ///
+    /// As Molang has no assignments, such subexpressions are also invariant in loops. Those in a loop body are shared
+    /// even if they occur once, which hoists them out of the loop.
+    public static MolangExpr shareCommonSubexpressions(MolangExpr expr, ModuleRegistry modules, boolean pureQueries) {
+        return new SubexpressionSharing(modules, pureQueries).share(expr);
+    }
+
+    public static MolangExpr specialize(MolangExpr expr, Map<String, MolangValue> bindings) {
+        return specialize(expr, bindings, ModuleRegistry.DEFAULT);
+    }
+
+    /// Partially evaluates the expression for known values of query fields and variables (eg fixed per entity type or
+    /// by the server config), then optimizes it with the [#DEFAULT_PASSES] so that ternaries on those values are
+    /// pruned and arithmetic on them is folded. The residual expression must only be evaluated where the bindings hold.
+    ///
+    /// Bindings are keyed by the access they replace, such as `q.variant`. Query namespaces must be bound under each
+    /// alias the expression uses, `v.x` and `variable.x` are the same binding. Calls of query functions are never
+    /// replaced. Only numbers and strings may be bound, temps cannot be as they are reset by every evaluation.
+    public static MolangExpr specialize(MolangExpr expr, Map<String, MolangValue> bindings, ModuleRegistry modules) {
+        final Map<String, MolangExpr> constants = new HashMap<>();
+        for (var binding : bindings.entrySet()) {
+            if (constants.put(bindingKey(binding.getKey()), constant(binding.getKey(), binding.getValue())) != null)
+                throw new IllegalArgumentException("bound twice: " + binding.getKey());
+        }
+        final MolangExpr bound = rewrite(expr, node -> node instanceof MolangExpr.Access access
+                && bindingKey(access) instanceof String key ? constants.getOrDefault(key, node) : node);
+        return optimizeAst(bound, modules);
+    }
+
+    /// Returns the bindings [#specialize] would substitute into the expression. Specializing with only these gives
+    /// the same result, so they identify the specialized variant.
+    static Map<String, MolangValue> relevantBindings(MolangExpr expr, Map<String, MolangValue> bindings) {
+        final Set<String> keys = new HashSet<>();
+        collectBindingKeys(expr, keys);
+        final Map<String, MolangValue> relevant = new HashMap<>();
+        for (var binding : bindings.entrySet()) {
+            constant(binding.getKey(), binding.getValue()); // Reject invalid bindings even if unused
+            if (keys.contains(bindingKey(binding.getKey())))
+                relevant.put(binding.getKey(), binding.getValue());
+        }
+        return Map.copyOf(relevant);
+    }
+
+    /// Applies the rule to every node bottom up, keeping each node whose children and rule result are unchanged.
+    private static MolangExpr rewrite(MolangExpr expr, UnaryOperator<MolangExpr> rule) {
+        return rule.apply(mapChildren(expr, child -> rewrite(child, rule)));
+    }
+
+    /// Returns the node with the function applied to each of its children, or the node itself if none changed.
+    private static MolangExpr mapChildren(MolangExpr expr, UnaryOperator<MolangExpr> function) {
         return switch (expr) {
             case MolangExpr.Num num -> num;
             case MolangExpr.Str str -> str;
             case MolangExpr.Ident ident -> ident;
             case MolangExpr.Unary unary -> {
-                final MolangExpr rhs = optimizeAst(unary.rhs());
-                if (rhs instanceof MolangExpr.Num(double value)) {
-                    yield new MolangExpr.Num(switch (unary.op()) {
-                        case NEGATE -> -value;
-                        case NOT -> value == 0 ? 1.0 : 0.0;
-                    });
-                }
-                yield new MolangExpr.Unary(unary.op(), rhs);
+                final MolangExpr rhs = function.apply(unary.rhs());
+                yield rhs == unary.rhs() ? unary : new MolangExpr.Unary(unary.op(), rhs);
             }
             case MolangExpr.Binary binary -> {
-                final MolangExpr lhs = optimizeAst(binary.lhs());
-                final MolangExpr rhs = optimizeAst(binary.rhs());
-                if (lhs instanceof MolangExpr.Num(double leftValue) && rhs instanceof MolangExpr.Num(
-                        double rightValue
-                )) {
-                    yield new MolangExpr.Num(switch (binary.op()) {
+                final MolangExpr lhs = function.apply(binary.lhs());
+                final MolangExpr rhs = function.apply(binary.rhs());
+                yield lhs == binary.lhs() && rhs == binary.rhs() ? binary : new MolangExpr.Binary(binary.op(), lhs, rhs);
+            }
+            case MolangExpr.Ternary ternary -> {
+                final MolangExpr cond = function.apply(ternary.cond());
+                final MolangExpr thenExpr = function.apply(ternary.thenExpr());
+                final MolangExpr elseExpr = function.apply(ternary.elseExpr());
+                yield cond == ternary.cond() && thenExpr == ternary.thenExpr() && elseExpr == ternary.elseExpr()
+                        ? ternary : new MolangExpr.Ternary(cond, thenExpr, elseExpr);
+            }
+            case MolangExpr.Access access -> {
+                final MolangExpr lhs = function.apply(access.lhs());
+                yield lhs == access.lhs() ? access : new MolangExpr.Access(lhs, access.field());
+            }
+            case MolangExpr.Call call -> {
+                // The callee must not be treated as if it were accessed without a call.
+                final MolangExpr lhs;
+                if (call.lhs() instanceof MolangExpr.Access access) {
+                    final MolangExpr target = function.apply(access.lhs());
+                    lhs = target == access.lhs() ? access : new MolangExpr.Access(target, access.field());
+                } else {
+                    lhs = function.apply(call.lhs());
+                }
+                final List<MolangExpr> args = mapAll(call.args(), function);
+                yield lhs == call.lhs() && args == call.args() ? call : new MolangExpr.Call(lhs, args);
+            }
+            case MolangExpr.Block block -> {
+                final List<MolangExpr> exprs = mapAll(block.exprs(), function);
+                yield exprs == block.exprs() ? block : new MolangExpr.Block(exprs);
+            }
+            case MolangExpr.Shared shared -> {
+                final MolangExpr inner = function.apply(shared.expr());
+                yield inner == shared.expr() ? shared : new MolangExpr.Shared(shared.index(), inner);
+            }
+            case MolangExpr.Unrolled unrolled -> {
+                // The loop and body are only mapped in place, the loop must not be unrolled again.
+                final MolangExpr loop = mapChildren(unrolled.loop(), function);
+                final MolangExpr body = mapChildren(unrolled.body(), function);
+                yield loop == unrolled.loop() && body == unrolled.body() ? unrolled : new MolangExpr.Unrolled(
+                        (MolangExpr.Call) loop, unrolled.iterations(), unrolled.times(), (MolangExpr.Block) body);
+            }
+        };
+    }
+
+    private static List<MolangExpr> children(MolangExpr expr) {
+        final List<MolangExpr> children = new ArrayList<>();
+        mapChildren(expr, child -> {
+            children.add(child);
+            return child;
+        });
+        return children;
+    }
+
+    private static List<MolangExpr> mapAll(List<MolangExpr> exprs, UnaryOperator<MolangExpr> function) {
+        List<MolangExpr> result = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            final MolangExpr expr = function.apply(exprs.get(i));
+            if (expr != exprs.get(i) && result == null) result = new ArrayList<>(exprs.subList(0, i));
+            if (result != null) result.add(expr);
+        }
+        return result != null ? List.copyOf(result) : exprs;
+    }
+
+    // Common subexpression elimination
+
+    private static final class SubexpressionSharing {
+        private final ModuleRegistry modules;
+        private final boolean pureQueries;
+        // How often each subexpression without effects occurs, then how often it would be evaluated once shared.
+        private final Map<MolangExpr, Integer> occurrences = new HashMap<>();
+        private final Map<MolangExpr, Integer> evaluations = new HashMap<>();
+        private final Map<MolangExpr, MolangExpr.Shared> shared = new HashMap<>();
+        private int nextIndex = 0;
+        private int loops = 0; // The number of loop bodies enclosing the current subexpression
+
+        SubexpressionSharing(ModuleRegistry modules, boolean pureQueries) {
+            this.modules = modules;
+            this.pureQueries = pureQueries;
+        }
+
+        MolangExpr share(MolangExpr expr) {
+            count(expr);
+            countEvaluations(expr);
+            return replace(expr);
+        }
+
+        /// Counts the occurrences of every subexpression, returning whether evaluating the expression has no effect.
+        private boolean count(MolangExpr expr) {
+            final boolean pure = switch (expr) {
+                case MolangExpr.Num num -> true;
+                case MolangExpr.Str str -> true;
+                case MolangExpr.Ident(String ident) -> !KEYWORDS.contains(ident);
+                case MolangExpr.Unary unary -> count(unary.rhs());
+                case MolangExpr.Binary binary -> count(binary.lhs()) & count(binary.rhs());
+                case MolangExpr.Ternary ternary -> count(ternary.cond())
+                        & count(ternary.thenExpr()) & count(ternary.elseExpr());
+                case MolangExpr.Access access -> isPure(access);
+                case MolangExpr.Call call -> {
+                    boolean args = true;
+                    for (MolangExpr arg : call.args()) args &= count(call, arg);
+                    if (call.lhs() instanceof MolangExpr.Access callee) yield isPure(callee) && args;
+                    // Anything else is control flow (eg `loop`), which is never shared.
+                    count(call.lhs());
+                    yield false;
+                }
+                case MolangExpr.Block block -> {
+                    for (MolangExpr subExpr : block.exprs()) count(subExpr);
+                    yield false;
+                }
+                case MolangExpr.Shared existing -> {
+                    // Already shared, so only new indices must not collide with it.
+                    nextIndex = Math.max(nextIndex, existing.index() + 1);
+                    yield count(existing.expr());
+                }
+                case MolangExpr.Unrolled unrolled -> {
+                    for (MolangExpr child : children(unrolled)) count(unrolled, child);
+                    yield false;
+                }
+            };
+            if (pure && !isTrivial(expr)) occurrences.merge(expr, weight(), Integer::sum);
+            return pure;
+        }
+
+        /// Whether reading the access (or calling it, the arguments aside) has no effect.
+        private boolean isPure(MolangExpr.Access access) {
+            final ModuleFunction function = modules.function(access);
+            if (function != null) return function.pure() && function.deterministic();
+            return count(access.lhs()) && (isVariableRead(access) || pureQueries);
+        }
+
+        private void countEvaluations(MolangExpr expr) {
+            final int enclosingLoops = loops;
+            if (occurrences.getOrDefault(expr, 0) > 1) {
+                final boolean evaluated = evaluations.containsKey(expr);
+                evaluations.merge(expr, weight(), Integer::sum);
+                // Once shared, the children are only evaluated the first time, even in a loop.
+                if (evaluated) return;
+                loops = 0;
+            }
+            for (MolangExpr child : children(expr)) {
+                if (repeats(expr, child)) loops++;
+                countEvaluations(child);
+                if (repeats(expr, child)) loops--;
+            }
+            loops = enclosingLoops;
+        }
+
+        private boolean count(MolangExpr parent, MolangExpr child) {
+            if (!repeats(parent, child)) return count(child);
+            loops++;
+            final boolean pure = count(child);
+            loops--;
+            return pure;
+        }
+
+        /// Subexpressions in a loop body count as repeated, even if the loop runs only once.
+        private int weight() {
+            return loops > 0 ? 2 : 1;
+        }
+
+        /// Whether the child is a loop body, so may be evaluated several times per evaluation of its parent.
+        private static boolean repeats(MolangExpr parent, MolangExpr child) {
+            return switch (parent) {
+                case MolangExpr.Call(MolangExpr.Ident(String callee), var args) when callee.equals("loop") ->
+                        args.size() > 1 && child == args.get(1);
+                case MolangExpr.Unrolled unrolled -> unrolled.times() > 1;
+                default -> false;
+            };
+        }
+
+        private MolangExpr replace(MolangExpr expr) {
+            if (evaluations.getOrDefault(expr, 0) < 2)
+                return mapChildren(expr, this::replace);
+            MolangExpr.Shared result = shared.get(expr);
+            if (result == null) {
+                final int index = nextIndex++;
+                result = new MolangExpr.Shared(index, mapChildren(expr, this::replace));
+                shared.put(expr, result);
+            }
+            return result;
+        }
+
+        /// Whether the expression is as cheap to evaluate again as it is to read once shared.
+        private static boolean isTrivial(MolangExpr expr) {
+            return switch (expr) {
+                case MolangExpr.Num num -> true;
+                case MolangExpr.Str str -> true;
+                case MolangExpr.Ident ident -> true;
+                case MolangExpr.Shared shared -> true;
+                default -> isVariableRead(expr);
+            };
+        }
+    }
+
+    // Constant folding
+
+    private static MolangExpr fold(MolangExpr expr, ModuleRegistry modules) {
+        return switch (expr) {
+            case MolangExpr.Unary(var op, MolangExpr.Num(double value)) -> new MolangExpr.Num(switch (op) {
+                case NEGATE -> -value;
+                case NOT -> value == 0 ? 1.0 : 0.0;
+            });
+            case MolangExpr.Binary(var op, MolangExpr.Num(double leftValue), MolangExpr.Num(double rightValue)) ->
+                    new MolangExpr.Num(switch (op) {
                         case PLUS -> leftValue + rightValue;
                         case MINUS -> leftValue - rightValue;
                         case MUL -> leftValue * rightValue;
@@ -46,84 +393,333 @@ public final class MolangOptimizer {
                         case AND -> leftValue != 0 && rightValue != 0 ? 1.0 : 0.0;
                         case OR -> leftValue != 0 || rightValue != 0 ? 1.0 : 0.0;
                     });
-                }
-                if (lhs instanceof MolangExpr.Str(String leftValue) && rhs instanceof MolangExpr.Str(
-                        String rightValue
-                )) {
-                    if (binary.op() == MolangExpr.Binary.Op.EQ)
-                        yield new MolangExpr.Num(leftValue.equals(rightValue) ? 1.0 : 0.0);
-                    if (binary.op() == MolangExpr.Binary.Op.NEQ)
-                        yield new MolangExpr.Num(!leftValue.equals(rightValue) ? 1.0 : 0.0);
-                }
-                yield new MolangExpr.Binary(binary.op(), lhs, rhs);
-            }
-            case MolangExpr.Ternary ternary -> {
-                final MolangExpr cond = optimizeAst(ternary.cond());
-                final MolangExpr thenExpr = optimizeAst(ternary.thenExpr());
-                final MolangExpr elseExpr = optimizeAst(ternary.elseExpr());
-                if (cond instanceof MolangExpr.Num(double value))
-                    yield value != 0 ? thenExpr : elseExpr;
-                yield new MolangExpr.Ternary(cond, thenExpr, elseExpr);
-            }
+            case MolangExpr.Binary(var op, MolangExpr.Str(String leftValue), MolangExpr.Str(String rightValue))
+                    when op == MolangExpr.Binary.Op.EQ || op == MolangExpr.Binary.Op.NEQ ->
+                    new MolangExpr.Num((op == MolangExpr.Binary.Op.EQ) == leftValue.equals(rightValue) ? 1.0 : 0.0);
+            case MolangExpr.Ternary(MolangExpr.Num(double value), var thenExpr, var elseExpr) ->
+                    value != 0 ? thenExpr : elseExpr;
             case MolangExpr.Access access -> {
-                final MolangExpr lhs = optimizeAst(access.lhs());
-                // Math functions can be optimized specifically
-                if (lhs instanceof MolangExpr.Ident(var ident) && ("math".equals(ident) || "m".equals(ident))) {
-                    final MolangExpr result = optimizeMathCall(access.field(), List.of());
-                    if (result != null) yield result;
-                }
-                yield new MolangExpr.Access(lhs, access.field());
+                // Module functions accessed without a call are called with zero args
+                final ModuleFunction function = modules.function(access);
+                final MolangExpr result = function != null ? foldCall(function, List.of()) : null;
+                yield result != null ? result : access;
             }
-            case MolangExpr.Call call -> {
-                final MolangExpr lhs = optimizeAst(call.lhs());
-                final List<MolangExpr> args = new ArrayList<>();
-                for (MolangExpr arg : call.args()) args.add(optimizeAst(arg));
-                // Math functions can be optimized specifically
-                if (lhs instanceof MolangExpr.Access(var accessLhs, var field) &&
-                        accessLhs instanceof MolangExpr.Ident(var ident) &&
-                        ("math".equals(ident) || "m".equals(ident))) {
-                    final MolangExpr result = optimizeMathCall(field, args);
-                    if (result != null) yield result;
+            case MolangExpr.Call(MolangExpr.Access access, var args) -> {
+                final ModuleFunction function = modules.function(access);
+                final MolangExpr result = function != null ? foldCall(function, args) : null;
+                yield result != null ? result : expr;
+            }
+            default -> expr;
+        };
+    }
+
+    private static @Nullable MolangExpr foldCall(ModuleFunction function, List<MolangExpr> args) {
+        // Wrong argument count, let it error at runtime properly.
+        if (!function.foldable() || !function.accepts(args.size())) return null;
+
+        // All the args must be constant numbers, then we will just call the function.
+        final double[] values = new double[args.size()];
+        for (int i = 0; i < values.length; i++) {
+            // If any argument is not a number, we cannot optimize this call.
+            if (!(args.get(i) instanceof MolangExpr.Num(double value))) return null;
+            values[i] = value;
+        }
+
+        try {
+            final MolangValue result = switch (function.function()) {
+                case MolangValue.Function0 f -> new MolangValue.Num(f.applyAsDouble());
+                case MolangValue.Function1 f -> new MolangValue.Num(f.applyAsDouble(values[0]));
+                case MolangValue.Function2 f -> new MolangValue.Num(f.applyAsDouble(values[0], values[1]));
+                case MolangValue.Function3 f -> new MolangValue.Num(f.applyAsDouble(values[0], values[1], values[2]));
+                case MolangValue.Function4 f -> new MolangValue.Num(f.applyAsDouble(values[0], values[1], values[2], values[3]));
+                case MolangValue.Function f -> {
+                    final List<MolangValue> argValues = new ArrayList<>();
+                    for (double value : values) argValues.add(new MolangValue.Num(value));
+                    yield f.apply(List.copyOf(argValues));
                 }
-                yield new MolangExpr.Call(lhs, List.copyOf(args));
+            };
+            return result instanceof MolangValue.Num(double value) ? new MolangExpr.Num(value) : null;
+        } catch (Exception ignored) {
+            return null; // Let it error at runtime properly
+        }
+    }
+
+    // Algebraic simplification
+
+    private static MolangExpr simplify(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Unary(var op, MolangExpr.Unary(var innerOp, MolangExpr operand))
+                    when op == innerOp && op == MolangExpr.Unary.Op.NEGATE && isNumeric(operand) -> operand;
+            case MolangExpr.Unary(var op, MolangExpr.Unary(var innerOp, MolangExpr operand))
+                    when op == innerOp && op == MolangExpr.Unary.Op.NOT && isBoolean(operand) -> operand;
+            case MolangExpr.Unary unary -> {
+                // The operand is unwrapped as a number anyway, so identities may be removed whatever they contain.
+                final MolangExpr rhs = identityOperand(unary.rhs(), true);
+                yield rhs == unary.rhs() ? unary : new MolangExpr.Unary(unary.op(), rhs);
             }
-            case MolangExpr.Block block -> {
-                var optimizedExprs = new ArrayList<MolangExpr>();
-                for (MolangExpr subExpr : block.exprs())
-                    optimizedExprs.add(optimizeAst(subExpr));
-                yield new MolangExpr.Block(List.copyOf(optimizedExprs));
+            case MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr.Num(double value))
+                    when op == MolangExpr.Binary.Op.MUL && value == 0 && isFinite(lhs) && isInert(lhs) ->
+                    new MolangExpr.Num(0);
+            case MolangExpr.Binary(var op, MolangExpr.Num(double value), MolangExpr rhs)
+                    when op == MolangExpr.Binary.Op.MUL && value == 0 && isFinite(rhs) && isInert(rhs) ->
+                    new MolangExpr.Num(0);
+            case MolangExpr.Binary binary -> {
+                final MolangExpr identity = identityOperand(binary, false);
+                if (identity != binary) yield identity;
+                final MolangExpr lhs = identityOperand(binary.lhs(), unwrapsOperand(binary.op(), true));
+                final MolangExpr rhs = identityOperand(binary.rhs(), unwrapsOperand(binary.op(), false));
+                yield lhs == binary.lhs() && rhs == binary.rhs() ? binary : new MolangExpr.Binary(binary.op(), lhs, rhs);
             }
+            default -> expr;
         };
     }
 
-    private static @Nullable MolangExpr optimizeMathCall(String function, List<MolangExpr> args) {
-        if (MolangMath.IMPURE_METHODS.contains(function)) return null;
+    /// Returns `x` if the expression is an identity such as `x * 1`, otherwise the expression itself.
+    ///
+    /// Outside a numeric context `x` must be numeric, as an identity turns a string or nil `x` into a number. Inside
+    /// one, `x` is unwrapped the same way the identity would have unwrapped it, so an invalid `x` is reported by the
+    /// enclosing operator instead.
+    private static MolangExpr identityOperand(MolangExpr expr, boolean numericContext) {
+        if (!(expr instanceof MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr rhs))) return expr;
+        final MolangExpr operand = switch (op) {
+            case PLUS -> isConstant(rhs, 0) ? lhs : isConstant(lhs, 0) ? rhs : null;
+            case MINUS -> isConstant(rhs, 0) ? lhs : null;
+            case MUL -> isConstant(rhs, 1) ? lhs : isConstant(lhs, 1) ? rhs : null;
+            case DIV -> isConstant(rhs, 1) ? lhs : null;
+            default -> null;
+        };
+        return operand != null && (numericContext || isNumeric(operand)) ? operand : expr;
+    }
 
-        // All the args must be constant numbers, then we will just call the relevant math function.
-        var argNumbers = new ArrayList<MolangValue>();
-        for (MolangExpr arg : args) {
-            if (arg instanceof MolangExpr.Num(double value)) {
-                argNumbers.add(new MolangValue.Num(value));
-                continue;
-            }
+    // Reassociation
 
-            // If any argument is not a number, we cannot optimize this call.
-            return null;
+    private static MolangExpr reassociate(MolangExpr expr) {
+        if (!(expr instanceof MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr rhs))) return expr;
+        // Move the outer constant to the right, `c + (x + c)` is `(x + c) + c`.
+        if ((op == MolangExpr.Binary.Op.PLUS || op == MolangExpr.Binary.Op.MUL) && lhs instanceof MolangExpr.Num) {
+            final MolangExpr swap = lhs;
+            lhs = rhs;
+            rhs = swap;
         }
+        if (!(rhs instanceof MolangExpr.Num(double outer))
+                || !(lhs instanceof MolangExpr.Binary(var innerOp, MolangExpr a, MolangExpr b)))
+            return expr;
 
-        final var func = MolangMath.MODULE.get(function);
-        if (func == MolangValue.NIL) {
-            // Function not found, cannot optimize.
-            return null;
+        // Split the inner operation into a non constant operand and a constant.
+        final MolangExpr operand;
+        final double inner;
+        if (b instanceof MolangExpr.Num(double value)) {
+            operand = a;
+            inner = value;
+        } else if (a instanceof MolangExpr.Num(double value)
+                && (innerOp == MolangExpr.Binary.Op.PLUS || innerOp == MolangExpr.Binary.Op.MUL)) {
+            operand = b;
+            inner = value;
+        } else {
+            return expr;
         }
 
-        // Call the math function with the optimized arguments.
-        try {
-            final MolangValue result = ((MolangValue.Function) func).apply(argNumbers);
-            return result instanceof MolangValue.Num(double value)
-                    ? new MolangExpr.Num(value) : null;
-        } catch (Exception ignored) {
-            return null; // Let it error at runtime properly
+        if (op == MolangExpr.Binary.Op.MUL && innerOp == MolangExpr.Binary.Op.MUL)
+            return new MolangExpr.Binary(MolangExpr.Binary.Op.MUL, operand, new MolangExpr.Num(inner * outer));
+        if (!isAdditive(op) || !isAdditive(innerOp)) return expr;
+        // Both are sums, so `(x ± inner) ± outer` is `x + (±inner ± outer)`.
+        final double signedInner = innerOp == MolangExpr.Binary.Op.PLUS ? inner : -inner;
+        final double signedOuter = op == MolangExpr.Binary.Op.PLUS ? outer : -outer;
+        return new MolangExpr.Binary(MolangExpr.Binary.Op.PLUS, operand, new MolangExpr.Num(signedInner + signedOuter));
+    }
+
+    private static boolean isAdditive(MolangExpr.Binary.Op op) {
+        return op == MolangExpr.Binary.Op.PLUS || op == MolangExpr.Binary.Op.MINUS;
+    }
+
+    // Strength reduction
+
+    private static MolangExpr reduce(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr.Num(double value))
+                    when op == MolangExpr.Binary.Op.DIV && isPowerOfTwo(value) ->
+                    new MolangExpr.Binary(MolangExpr.Binary.Op.MUL, lhs, new MolangExpr.Num(1 / value));
+            case MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr rhs)
+                    when op == MolangExpr.Binary.Op.MUL && isConstant(rhs, -1) && isNumeric(lhs) ->
+                    new MolangExpr.Unary(MolangExpr.Unary.Op.NEGATE, lhs);
+            case MolangExpr.Binary(var op, MolangExpr lhs, MolangExpr rhs)
+                    when op == MolangExpr.Binary.Op.MUL && isConstant(lhs, -1) && isNumeric(rhs) ->
+                    new MolangExpr.Unary(MolangExpr.Unary.Op.NEGATE, rhs);
+            default -> expr;
+        };
+    }
+
+    /// Whether `1 / value` is exact, so that dividing by the value is the same as multiplying by its reciprocal.
+    private static boolean isPowerOfTwo(double value) {
+        final int exponent = Math.getExponent(value);
+        return exponent >= Double.MIN_EXPONENT && exponent <= Double.MAX_EXPONENT
+                && (Double.doubleToRawLongBits(value) & 0x000FFFFFFFFFFFFFL) == 0;
+    }
+
+    // Pow expansion
+
+    private static MolangExpr expandPow(MolangExpr expr, ModuleRegistry modules) {
+        if (expr instanceof MolangExpr.Call(MolangExpr.Access callee, var args)
+                && args.size() == 2 && isConstant(args.get(1), 2) && isVariableRead(args.getFirst())
+                && modules.function(callee) == POW)
+            return new MolangExpr.Binary(MolangExpr.Binary.Op.MUL, args.getFirst(), args.getFirst());
+        return expr;
+    }
+
+    private static boolean isVariableRead(MolangExpr expr) {
+        return expr instanceof MolangExpr.Access(MolangExpr.Ident(String target), String ignored)
+                && (target.equals("variable") || target.equals("v") || target.equals("temp") || target.equals("t"));
+    }
+
+    // Dead statement elimination
+
+    private static MolangExpr eliminateDeadStatements(MolangExpr expr) {
+        if (!(expr instanceof MolangExpr.Block block)) return expr;
+        final List<MolangExpr> exprs = new ArrayList<>();
+        for (MolangExpr statement : block.exprs()) {
+            if (isInert(statement)) continue;
+            exprs.add(statement);
+            // Nothing after a return is evaluated.
+            if (statement instanceof MolangExpr.Ident(String ident) && ident.equals("return")) break;
         }
+        return exprs.size() == block.exprs().size() ? block : new MolangExpr.Block(List.copyOf(exprs));
+    }
+
+    // Loop unrolling
+
+    private static MolangExpr unroll(MolangExpr expr) {
+        if (!(expr instanceof MolangExpr.Call(MolangExpr.Ident(String callee), var args)) || !callee.equals("loop")
+                || args.size() != 2 || !(args.getFirst() instanceof MolangExpr.Num(double count))
+                || !(args.getLast() instanceof MolangExpr.Block body))
+            return expr;
+        final int iterations = (int) count;
+        // A loop which never runs does nothing, not even take from the loop limit.
+        if (iterations <= 0) return new MolangExpr.Block(List.of());
+        // A loop which always reaches the limit is left to the interpreter.
+        if (iterations > MolangEvaluator.MAX_LOOP_COUNTER || containsIdent(body, LOOP_IDENTS)) return expr;
+
+        // Repeat the body as often as fits, but only by a factor of the iterations so every copy runs each time.
+        int copies = Math.max(1, Math.min(iterations, MAX_UNROLLED_SIZE / size(body)));
+        while (iterations % copies != 0) copies--;
+        final List<MolangExpr> statements = new ArrayList<>();
+        for (int i = 0; i < copies; i++) statements.addAll(body.exprs());
+        return new MolangExpr.Unrolled((MolangExpr.Call) expr, iterations, iterations / copies,
+                new MolangExpr.Block(List.copyOf(statements)));
+    }
+
+    private static boolean containsIdent(MolangExpr expr, Set<String> idents) {
+        if (expr instanceof MolangExpr.Ident(String ident)) return idents.contains(ident);
+        return children(expr).stream().anyMatch(child -> containsIdent(child, idents));
+    }
+
+    private static int size(MolangExpr expr) {
+        int size = 1;
+        for (MolangExpr child : children(expr)) size += size(child);
+        return size;
+    }
+
+    // Specialization
+
+    private static MolangExpr constant(String key, MolangValue value) {
+        return switch (value) {
+            case MolangValue.Num(double number) -> new MolangExpr.Num(number);
+            case MolangValue.Str(String string) -> new MolangExpr.Str(string);
+            default -> throw new IllegalArgumentException("only numbers and strings can be bound: " + key);
+        };
+    }
+
+    /// Normalizes a binding key, so that the variable aliases are the same key.
+    private static String bindingKey(String key) {
+        final int dot = key.indexOf('.');
+        if (dot <= 0 || dot == key.length() - 1)
+            throw new IllegalArgumentException("invalid binding: " + key);
+        final String namespace = key.substring(0, dot);
+        if (SlotLayout.Scope.of(namespace) == SlotLayout.Scope.TEMP)
+            throw new IllegalArgumentException("temps cannot be bound: " + key);
+        return bindingKey(namespace, key.substring(dot + 1));
+    }
+
+    private static @Nullable String bindingKey(MolangExpr.Access access) {
+        if (!(access.lhs() instanceof MolangExpr.Ident(String namespace))) return null;
+        return SlotLayout.Scope.of(namespace) == SlotLayout.Scope.TEMP ? null : bindingKey(namespace, access.field());
+    }
+
+    private static String bindingKey(String namespace, String field) {
+        return (SlotLayout.Scope.of(namespace) == SlotLayout.Scope.VARIABLE ? "variable" : namespace) + "." + field;
+    }
+
+    private static void collectBindingKeys(MolangExpr expr, Set<String> keys) {
+        if (expr instanceof MolangExpr.Access access && bindingKey(access) instanceof String key) keys.add(key);
+        for (MolangExpr child : children(expr)) collectBindingKeys(child, keys);
+    }
+
+    // Helpers
+
+    private static boolean isConstant(MolangExpr expr, double value) {
+        return expr instanceof MolangExpr.Num(double constant) && constant == value;
+    }
+
+    /// Mirrors the evaluator: whether the expression always results in a number.
+    private static boolean isNumeric(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> true;
+            case MolangExpr.Unary unary -> true;
+            case MolangExpr.Binary binary -> binary.op() != MolangExpr.Binary.Op.NULL_COALESCE || isNumeric(binary.lhs());
+            case MolangExpr.Ternary ternary -> isNumeric(ternary.thenExpr()) && isNumeric(ternary.elseExpr());
+            case MolangExpr.Shared shared -> isNumeric(shared.expr());
+            default -> false;
+        };
+    }
+
+    /// Whether the expression always results in 0 or 1.
+    private static boolean isBoolean(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Unary unary -> unary.op() == MolangExpr.Unary.Op.NOT;
+            case MolangExpr.Binary binary -> switch (binary.op()) {
+                case GTE, GT, LTE, LT, EQ, NEQ, AND, OR -> true;
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    private static boolean isFinite(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num(double value) -> Double.isFinite(value);
+            case MolangExpr.Ternary ternary -> isFinite(ternary.thenExpr()) && isFinite(ternary.elseExpr());
+            default -> isBoolean(expr);
+        };
+    }
+
+    /// Whether the binary operator always unwraps the operand as a number, reporting an error for any other value.
+    private static boolean unwrapsOperand(MolangExpr.Binary.Op op, boolean lhs) {
+        return switch (op) {
+            case PLUS, MINUS, MUL, GTE, GT, LTE, LT -> true;
+            // The lhs is skipped when dividing by zero, the rhs when the lhs decides the result.
+            case DIV -> !lhs;
+            case AND, OR -> lhs;
+            case NULL_COALESCE, EQ, NEQ -> false;
+        };
+    }
+
+    /// Whether evaluating the expression can neither report an error, raise a signal nor call a function.
+    private static boolean isInert(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> true;
+            case MolangExpr.Str str -> true;
+            case MolangExpr.Ident(String ident) -> !KEYWORDS.contains(ident);
+            case MolangExpr.Block block -> block.exprs().stream().allMatch(MolangOptimizer::isInert);
+            case MolangExpr.Unary unary -> isInertNumber(unary.rhs());
+            case MolangExpr.Binary binary -> binary.op() != MolangExpr.Binary.Op.DIV
+                    && binary.op() != MolangExpr.Binary.Op.NULL_COALESCE
+                    && isInertNumber(binary.lhs()) && isInertNumber(binary.rhs());
+            case MolangExpr.Ternary ternary -> isInertNumber(ternary.cond())
+                    && isInert(ternary.thenExpr()) && isInert(ternary.elseExpr());
+            default -> false;
+        };
+    }
+
+    private static boolean isInertNumber(MolangExpr expr) {
+        return isNumeric(expr) && isInert(expr);
     }
 }
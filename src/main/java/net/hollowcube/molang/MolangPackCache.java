@@ -0,0 +1,408 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.MolangBulkParser.Result;
+import net.hollowcube.molang.MolangBulkParser.Source;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/// The parsed and optimized expressions of a whole pack, stored in one file so that later startups skip parsing.
+///
+/// The file is memory-mapped when opened and each expression is decoded the first time it is requested. It records a
+/// hash of the sources it was written for and of the [ModuleRegistry] they were optimized for, and is only opened for
+/// exactly the same sources in the same order, optimized for an equivalent registry by the same
+/// [MolangOptimizer#VERSION]. Trees folded with the functions of one registry (eg an approximated `math.sin`) are wrong
+/// for runtimes using another.
+///
+/// Registries are compared by their namespaces, module names, and the name, metadata and implementing class of every
+/// function. A function whose implementation changes without changing its class (eg a lambda) is not detected.
+///
+/// The file starts with a header (magic, [#VERSION], the SHA-256 of the sources, the registry and the optimizer
+/// version, the number of entries and strings, and the offsets of the string and tree sections), followed by the offset
+/// of the tree of every entry (`-1` if the source failed to parse), the offset of every string, the strings as UTF-8
+/// and finally the trees. Every name and string literal of the pack is stored once and referenced by its index.
+public final class MolangPackCache {
+    /// The version of the encoding, bumped whenever the layout, the node tags or the order of an operator enum change.
+    public static final int VERSION = 2;
+
+    private static final int MAGIC = 0x4d4f4c47; // MOLG
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4 + 4 + 4;
+
+    private static final byte NUM = 0, STR = 1, IDENT = 2, UNARY = 3, BINARY = 4, TERNARY = 5, ACCESS = 6, CALL = 7,
+            BLOCK = 8, SHARED = 9, SHARED_REF = 10, UNROLLED = 11;
+
+    private static final MolangExpr.Unary.Op[] UNARY_OPS = MolangExpr.Unary.Op.values();
+    private static final MolangExpr.Binary.Op[] BINARY_OPS = MolangExpr.Binary.Op.values();
+
+    private final List<Source> sources;
+    private final ByteBuffer buffer;
+    private final int stringsStart;
+    private final int treesStart;
+
+    // Decoded on first use. Racing threads may both decode an entry, the results are equal so either is fine.
+    private final MolangExpr[] exprs;
+    private final String[] strings;
+
+    private MolangPackCache(List<Source> sources, ByteBuffer buffer) {
+        this.sources = sources;
+        this.buffer = buffer;
+        this.stringsStart = buffer.getInt(4 + 4 + HASH_LENGTH + 8);
+        this.treesStart = buffer.getInt(4 + 4 + HASH_LENGTH + 12);
+        this.exprs = new MolangExpr[sources.size()];
+        this.strings = new String[buffer.getInt(4 + 4 + HASH_LENGTH + 4)];
+    }
+
+    /// Opens the cache file for sources optimized for [ModuleRegistry#DEFAULT].
+    public static @Nullable MolangPackCache open(Path file, List<Source> sources) throws IOException {
+        return open(file, sources, ModuleRegistry.DEFAULT);
+    }
+
+    /// Opens the cache file, or returns null if it does not exist, was written by another version or for other
+    /// sources or registry.
+    public static @Nullable MolangPackCache open(Path file, List<Source> sources,
+                                                 ModuleRegistry modules) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) return null;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null;
+        final byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(8, hash);
+        if (!Arrays.equals(hash, hash(sources, modules)) || buffer.getInt(8 + HASH_LENGTH) != sources.size()) return null;
+        return new MolangPackCache(List.copyOf(sources), buffer);
+    }
+
+    /// Opens the cache file for the sources if it is up to date. Otherwise parses and optimizes the sources with
+    /// [MolangBulkParser] and replaces the file with their expressions.
+    public static MolangPackCache load(Path file, List<Source> sources, ModuleRegistry modules,
+                                       ForkJoinPool pool) throws IOException {
+        final MolangPackCache cached = open(file, sources, modules);
+        if (cached != null) return cached;
+
+        write(file, MolangBulkParser.parseAll(sources, modules, pool), modules);
+        final MolangPackCache written = open(file, sources, modules);
+        if (written == null) throw new IOException("cache file " + file + " was replaced while loading it");
+        return written;
+    }
+
+    /// Writes results optimized for [ModuleRegistry#DEFAULT], see [#write(Path, List, ModuleRegistry)].
+    public static void write(Path file, List<Result> results) throws IOException {
+        write(file, results, ModuleRegistry.DEFAULT);
+    }
+
+    /// Writes the expressions of the results, optimized for the registry, to the file, replacing it atomically. Sources
+    /// which failed to parse are recorded as such and parsed again when requested.
+    public static void write(Path file, List<Result> results, ModuleRegistry modules) throws IOException {
+        final Encoder encoder = new Encoder();
+        final int[] offsets = new int[results.size()];
+        // Entries sharing a result (as duplicates from MolangBulkParser do) share their tree as well.
+        final Map<Result, Integer> written = new IdentityHashMap<>();
+        for (int i = 0; i < offsets.length; i++) {
+            final Result result = results.get(i);
+            offsets[i] = result.failed() ? -1 : written.computeIfAbsent(result, encoder::tree);
+        }
+
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final int[] stringOffsets = new int[encoder.strings.size()];
+        int index = 0;
+        for (String string : encoder.strings.keySet()) {
+            stringOffsets[index++] = strings.size();
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(strings, bytes.length);
+            strings.writeBytes(bytes);
+        }
+
+        final int stringsStart = HEADER_LENGTH + 4 * (offsets.length + stringOffsets.length);
+        final int treesStart = stringsStart + strings.size();
+        final ByteBuffer header = ByteBuffer.allocate(stringsStart);
+        header.putInt(MAGIC).putInt(VERSION).put(hash(results.stream().map(Result::source).toList(), modules));
+        header.putInt(offsets.length).putInt(stringOffsets.length).putInt(stringsStart).putInt(treesStart);
+        for (int offset : offsets) header.putInt(offset);
+        for (int offset : stringOffsets) header.putInt(offset);
+
+        final Path directory = file.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (var out = Files.newOutputStream(temporary)) {
+            out.write(header.array());
+            strings.writeTo(out);
+            encoder.trees.writeTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return exprs.length;
+    }
+
+    /// Returns the expression of the entry, decoding it on first use.
+    ///
+    /// Sources which failed to parse are parsed again, rethrowing the exception of the parser.
+    public MolangExpr get(int index) {
+        MolangExpr expr = exprs[index];
+        if (expr == null) {
+            final int offset = buffer.getInt(HEADER_LENGTH + 4 * index);
+            if (offset < 0) {
+                final Source source = sources.get(index);
+                return MolangExpr.parseOrThrow(source.source(), source.multiline());
+            }
+            final int start = treesStart + offset;
+            exprs[index] = expr = new Decoder(buffer.slice(start, buffer.limit() - start)).node();
+        }
+        return expr;
+    }
+
+    /// Returns the entry as a result of [MolangBulkParser], decoding it on first use.
+    public Result result(int index) {
+        try {
+            return new Result(sources.get(index), get(index), null);
+        } catch (RuntimeException e) {
+            return new Result(sources.get(index), null, e);
+        }
+    }
+
+    private String string(int index) {
+        String string = strings[index];
+        if (string == null) {
+            final int start = stringsStart + buffer.getInt(HEADER_LENGTH + 4 * (exprs.length + index));
+            final ByteBuffer in = buffer.slice(start, treesStart - start);
+            final byte[] bytes = new byte[readVarInt(in)];
+            in.get(bytes);
+            strings[index] = string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    private static byte[] hash(List<Source> sources, ModuleRegistry modules) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+        final ByteBuffer lengths = ByteBuffer.allocate(5);
+        for (Source source : sources) {
+            final byte[] bytes = source.source().getBytes(StandardCharsets.UTF_8);
+            digest.update(lengths.clear().put((byte) (source.multiline() ? 1 : 0)).putInt(bytes.length).flip());
+            digest.update(bytes);
+        }
+
+        // Sorted, as the modules and functions of a registry are unordered.
+        final StringBuilder registry = new StringBuilder().append(MolangOptimizer.VERSION);
+        new TreeMap<>(modules.modules()).forEach((namespace, module) -> {
+            registry.append('\n').append(namespace).append('=').append(module.name());
+            module.functions().stream().sorted(Comparator.comparing(ModuleFunction::name)).forEach(function -> {
+                // Hidden classes (eg lambdas) are named after their defining class plus a suffix differing per run.
+                final String type = function.function().getClass().getName();
+                registry.append(' ').append(function.name()).append('/').append(function.arity())
+                        .append(function.pure() ? 'p' : '-').append(function.deterministic() ? 'd' : '-')
+                        .append(function.foldable() ? 'f' : '-').append(':')
+                        .append(type, 0, type.contains("/") ? type.indexOf('/') : type.length());
+            });
+        });
+        digest.update(registry.toString().getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static final class Encoder {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream trees = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(trees);
+        // The shared subexpressions of the current tree, in the order their first occurrence was written.
+        private final Map<MolangExpr.Shared, Integer> shared = new IdentityHashMap<>();
+
+        int tree(Result result) {
+            final int offset = trees.size();
+            shared.clear();
+            node(result.exprOrThrow());
+            return offset;
+        }
+
+        private void node(MolangExpr expr) {
+            try {
+                switch (expr) {
+                    case MolangExpr.Num num -> {
+                        out.writeByte(NUM);
+                        out.writeDouble(num.value());
+                    }
+                    case MolangExpr.Str str -> string(STR, str.value());
+                    case MolangExpr.Ident ident -> string(IDENT, ident.value());
+                    case MolangExpr.Unary unary -> {
+                        out.writeByte(UNARY);
+                        out.writeByte(unary.op().ordinal());
+                        node(unary.rhs());
+                    }
+                    case MolangExpr.Binary binary -> {
+                        out.writeByte(BINARY);
+                        out.writeByte(binary.op().ordinal());
+                        node(binary.lhs());
+                        node(binary.rhs());
+                    }
+                    case MolangExpr.Ternary ternary -> {
+                        out.writeByte(TERNARY);
+                        node(ternary.cond());
+                        node(ternary.thenExpr());
+                        node(ternary.elseExpr());
+                    }
+                    case MolangExpr.Access access -> {
+                        out.writeByte(ACCESS);
+                        node(access.lhs());
+                        varInt(strings.computeIfAbsent(access.field(), field -> strings.size()));
+                    }
+                    case MolangExpr.Call call -> {
+                        out.writeByte(CALL);
+                        node(call.lhs());
+                        nodes(call.args());
+                    }
+                    case MolangExpr.Block block -> {
+                        out.writeByte(BLOCK);
+                        nodes(block.exprs());
+                    }
+                    case MolangExpr.Shared node -> {
+                        final Integer ref = shared.get(node);
+                        if (ref != null) {
+                            out.writeByte(SHARED_REF);
+                            varInt(ref);
+                            return;
+                        }
+                        out.writeByte(SHARED);
+                        varInt(node.index());
+                        node(node.expr());
+                        // Registered after its children, in the same order the decoder creates them.
+                        shared.put(node, shared.size());
+                    }
+                    case MolangExpr.Unrolled unrolled -> {
+                        out.writeByte(UNROLLED);
+                        varInt(unrolled.iterations());
+                        varInt(unrolled.times());
+                        node(unrolled.loop());
+                        node(unrolled.body());
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("unreachable, writing to memory", e);
+            }
+        }
+
+        private void nodes(List<MolangExpr> exprs) {
+            varInt(exprs.size());
+            for (MolangExpr expr : exprs)
+                node(expr);
+        }
+
+        private void string(byte tag, String value) throws IOException {
+            out.writeByte(tag);
+            varInt(strings.computeIfAbsent(value, string -> strings.size()));
+        }
+
+        private void varInt(int value) {
+            writeVarInt(trees, value);
+        }
+    }
+
+    private final class Decoder {
+        private final ByteBuffer in;
+        private final List<MolangExpr.Shared> shared = new ArrayList<>();
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        MolangExpr node() {
+            final byte tag = in.get();
+            return switch (tag) {
+                case NUM -> new MolangExpr.Num(in.getDouble());
+                case STR -> new MolangExpr.Str(string(readVarInt(in)));
+                case IDENT -> new MolangExpr.Ident(string(readVarInt(in)));
+                case UNARY -> new MolangExpr.Unary(UNARY_OPS[in.get()], node());
+                case BINARY -> {
+                    final MolangExpr.Binary.Op op = BINARY_OPS[in.get()];
+                    final MolangExpr lhs = node();
+                    yield new MolangExpr.Binary(op, lhs, node());
+                }
+                case TERNARY -> {
+                    final MolangExpr cond = node(), thenExpr = node();
+                    yield new MolangExpr.Ternary(cond, thenExpr, node());
+                }
+                case ACCESS -> {
+                    final MolangExpr lhs = node();
+                    yield new MolangExpr.Access(lhs, string(readVarInt(in)));
+                }
+                case CALL -> {
+                    final MolangExpr lhs = node();
+                    yield new MolangExpr.Call(lhs, nodes());
+                }
+                case BLOCK -> new MolangExpr.Block(nodes());
+                case SHARED -> {
+                    final int index = readVarInt(in);
+                    final MolangExpr.Shared node = new MolangExpr.Shared(index, node());
+                    shared.add(node);
+                    yield node;
+                }
+                case SHARED_REF -> shared.get(readVarInt(in));
+                case UNROLLED -> {
+                    final int iterations = readVarInt(in), times = readVarInt(in);
+                    if (!(node() instanceof MolangExpr.Call loop) || !(node() instanceof MolangExpr.Block body))
+                        throw new IllegalStateException("corrupt cache file, malformed unrolled loop");
+                    yield new MolangExpr.Unrolled(loop, iterations, times, body);
+                }
+                default -> throw new IllegalStateException("corrupt cache file, unknown node " + tag);
+            };
+        }
+
+        private List<MolangExpr> nodes() {
+            final MolangExpr[] exprs = new MolangExpr[readVarInt(in)];
+            for (int i = 0; i < exprs.length; i++)
+                exprs[i] = node();
+            return List.of(exprs);
+        }
+    }
+}
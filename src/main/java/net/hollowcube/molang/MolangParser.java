@@ -91,8 +91,8 @@ public final class MolangParser {
         if (token == null) throw new IllegalStateException("unexpected end of input");
 
         return switch (token) {
-            case NUMBER -> new MolangExpr.Num(Double.parseDouble(lexer.span()));
-            case IDENT -> new MolangExpr.Ident(lexer.span());
+            case NUMBER -> new MolangExpr.Num(lexer.number());
+            case IDENT -> new MolangExpr.Ident(lexer.ident());
             case MINUS -> {
                 var rhs = expr(Operator.MINUS.prefixBindingPower());
                 yield new MolangExpr.Unary(MolangExpr.Unary.Op.NEGATE, rhs);
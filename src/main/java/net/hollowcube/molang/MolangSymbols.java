@@ -0,0 +1,31 @@
+package net.hollowcube.molang;
+
+/// Interns identifiers straight from source text, so that parsing many sources creates one string per distinct name
+/// rather than one per occurrence.
+///
+/// This is a direct mapped cache shared by every parser: a name replaces whichever name last used its slot. Slots
+/// are read and written without synchronization, which is safe as strings are immutable. A thread which misses a name
+/// written by another one only creates another copy of it.
+final class MolangSymbols {
+    private static final int SIZE = 4096; // A power of two
+    private static final String[] SYMBOLS = new String[SIZE];
+
+    /// Returns `source.substring(start, end)`, without creating it if it was interned recently. The hash is the
+    /// [String#hashCode()] of the name, computed while lexing it.
+    static String intern(String source, int start, int end, int hash) {
+        final int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+        final String symbol = SYMBOLS[slot];
+        final int length = end - start;
+        if (symbol != null && symbol.hashCode() == hash && symbol.length() == length
+                && source.regionMatches(start, symbol, 0, length))
+            return symbol;
+
+        final String created = source.substring(start, end);
+        SYMBOLS[slot] = created;
+        return created;
+    }
+
+    private MolangSymbols() {
+    }
+}
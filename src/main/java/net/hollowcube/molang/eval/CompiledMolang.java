@@ -0,0 +1,81 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+/// A [MolangExpr] which has been compiled ahead of time for repeated evaluation.
+///
+/// Compiled expressions are stateless and may be shared between evaluators, evaluating one has
+/// the same result and error semantics as calling [MolangEvaluator#eval(MolangExpr)] with the source.
+///
+/// If compiled against a [SlotLayout], variables and temps are accessed by slot and the expression may only be
+/// evaluated by evaluators created with that same layout. If linked against a [MolangRuntime], it may only be evaluated
+/// by frames of that runtime. Otherwise `math` functions are resolved against the default registry, and the expression
+/// may only be evaluated by runtimes with the default `math` module.
+public abstract class CompiledMolang {
+    private final MolangExpr source;
+    private final @Nullable SlotLayout layout;
+    private final @Nullable MolangRuntime runtime;
+    // Classified once here, the parts delegated to the interpreter look their classification up on every evaluation.
+    private final NumericNodes numeric;
+
+    CompiledMolang(MolangExpr source, @Nullable SlotLayout layout, @Nullable MolangRuntime runtime) {
+        this.source = source;
+        this.layout = layout;
+        this.runtime = runtime;
+        this.numeric = NumericNodes.of(source, null);
+    }
+
+    /// The expression this was compiled from.
+    public MolangExpr source() {
+        return source;
+    }
+
+    /// The layout this was compiled against, or null if variables are accessed by name.
+    public @Nullable SlotLayout layout() {
+        return layout;
+    }
+
+    /// The runtime whose [QueryNamespace] fields this was linked against, or null if namespaces are read by name.
+    public @Nullable MolangRuntime runtime() {
+        return runtime;
+    }
+
+    /// The numeric subexpressions of the source as seen by the interpreter, ie without linking namespace fields.
+    NumericNodes numeric() {
+        return numeric;
+    }
+
+    /// Whether module functions were resolved when compiling rather than looked up by the evaluator. Only the
+    /// interpreter looks them up.
+    boolean resolvesModules() {
+        return true;
+    }
+
+    public double eval(MolangEvaluator evaluator) {
+        return evaluator.eval(this);
+    }
+
+    /// Evaluates the expression, or returns the result of the last incremental evaluation by the same evaluator if none
+    /// of the inputs changed since (see [MolangDependencies]).
+    ///
+    /// Variables change when set to a different value. Queries change when the context of the evaluator changes or when
+    /// marked with [MolangEvaluator#markQueryChanged(String)] or [MolangEvaluator#markQueriesChanged()]. Expressions
+    /// calling query functions or module functions which are not pure and deterministic are always evaluated, as are
+    /// those referring to host globals and those whose last evaluation reported errors.
+    public double evalIncremental(MolangEvaluator evaluator) {
+        return evaluator.evalIncremental(this);
+    }
+
+    public boolean evalBool(MolangEvaluator evaluator) {
+        return eval(evaluator) != 0.0;
+    }
+
+    /// Runs the compiled expression against the given evaluator without resetting its state.
+    abstract double run(MolangEvaluator evaluator);
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+}
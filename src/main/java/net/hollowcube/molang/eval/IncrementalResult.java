@@ -0,0 +1,57 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+
+/// The last result of an expression evaluated incrementally by one evaluator, along with the versions of the inputs
+/// it was computed from.
+final class IncrementalResult {
+    private final boolean cacheable;
+    private final int[] variableSlots;
+    private final String[] queryFields;
+    // The versions of the variables, then of the query fields, then of all queries.
+    private final int[] versions;
+
+    private boolean valid = false;
+    private double result;
+
+    IncrementalResult(MolangDependencies dependencies, SlotLayout layout) {
+        this.cacheable = dependencies.cacheable();
+        this.variableSlots = dependencies.variables().stream()
+                .mapToInt(name -> layout.slotOrCreate(SlotLayout.Scope.VARIABLE, name))
+                .toArray();
+        this.queryFields = dependencies.queries().stream()
+                .map(MolangExpr.Access::field)
+                .distinct()
+                .toArray(String[]::new);
+        this.versions = new int[variableSlots.length + queryFields.length + 1];
+    }
+
+    double result() {
+        return result;
+    }
+
+    /// Brings the input versions up to date, returning whether the last result may still be used.
+    boolean refresh(MolangEvaluator evaluator) {
+        boolean current = valid;
+        int i = 0;
+        for (int slot : variableSlots)
+            current &= isCurrent(i++, evaluator.variableVersion(slot));
+        for (String field : queryFields)
+            current &= isCurrent(i++, evaluator.queryVersion(field));
+        current &= isCurrent(i, evaluator.queriesVersion());
+        return current;
+    }
+
+    /// Records the result of an evaluation. Results of evaluations which reported errors are never reused, so that the
+    /// errors are reported every time.
+    void update(double result, boolean hasErrors) {
+        this.result = result;
+        this.valid = cacheable && !hasErrors;
+    }
+
+    private boolean isCurrent(int index, int version) {
+        if (versions[index] == version) return true;
+        versions[index] = version;
+        return false;
+    }
+}
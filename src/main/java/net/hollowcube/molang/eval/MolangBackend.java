@@ -0,0 +1,54 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+/// The available strategies for evaluating a [MolangExpr] repeatedly.
+///
+/// All backends have the same result and error semantics, so they may be swapped freely (for example from
+/// configuration) and compared against each other.
+public enum MolangBackend {
+    /// Walks the expression tree on every evaluation, see [MolangEvaluator#eval(MolangExpr)].
+    INTERPRETER,
+    /// Compiles into a tree of pre-bound closures, see [MolangClosureCompiler]. Does not define any classes.
+    CLOSURE,
+    /// Compiles into a hidden class, see [MolangCompiler].
+    BYTECODE;
+
+    public CompiledMolang compile(MolangExpr expr) {
+        return compile(expr, (SlotLayout) null);
+    }
+
+    /// Compiles the expression, accessing variables and temps by slot if a layout is given.
+    /// The interpreter always accesses them by name and works with any layout.
+    ///
+    /// The compiled backends resolve `math` functions against the default registry, so the result may only be evaluated
+    /// by runtimes with the default `math` module. Compile against the runtime for any other registry.
+    public CompiledMolang compile(MolangExpr expr, @Nullable SlotLayout layout) {
+        return switch (this) {
+            case INTERPRETER -> new CompiledMolang(expr, null, null) {
+                @Override
+                double run(MolangEvaluator evaluator) {
+                    return evaluator.interpret(expr);
+                }
+
+                @Override
+                boolean resolvesModules() {
+                    return false;
+                }
+            };
+            case CLOSURE -> MolangClosureCompiler.compile(expr, layout);
+            case BYTECODE -> MolangCompiler.compile(expr, layout);
+        };
+    }
+
+    /// Compiles the expression against the runtime's layout, linking accesses of its [QueryNamespace] fields.
+    /// The interpreter reads namespaces by name and works with any runtime.
+    public CompiledMolang compile(MolangExpr expr, MolangRuntime runtime) {
+        return switch (this) {
+            case INTERPRETER -> compile(expr, (SlotLayout) null);
+            case CLOSURE -> MolangClosureCompiler.compile(expr, runtime);
+            case BYTECODE -> MolangCompiler.compile(expr, runtime);
+        };
+    }
+}
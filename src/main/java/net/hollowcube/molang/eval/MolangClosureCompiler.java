@@ -0,0 +1,377 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.runtime.RandomFunction;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/// Compiles a [MolangExpr] into a tree of pre-bound closures.
+///
+/// This is a portable alternative to [MolangCompiler] for environments which cannot define classes at runtime.
+/// Each node is specialized once for its operator, operand types and call arity so evaluation does not need to
+/// switch over the expression again. Errors are reported through the same helpers as the interpreter.
+public final class MolangClosureCompiler {
+    private static final Set<String> INTERPRETED_IDENTS = Set.of(
+            "continue", "break", "return", "loop", "for_each", "this"
+    );
+
+    @FunctionalInterface
+    private interface NumberNode {
+        double eval(MolangEvaluator ctx);
+    }
+
+    @FunctionalInterface
+    private interface ValueNode {
+        MolangValue eval(MolangEvaluator ctx);
+    }
+
+    public static CompiledMolang compile(MolangExpr expr) {
+        return compile(expr, null, null);
+    }
+
+    /// Compiles the expression, accessing variables and temps by slot if a layout is given.
+    /// Any names missing from the layout are added to it.
+    public static CompiledMolang compile(MolangExpr expr, @Nullable SlotLayout layout) {
+        return compile(expr, layout, null);
+    }
+
+    /// Compiles the expression against the runtime's layout, linking accesses of its [QueryNamespace] fields.
+    /// The result may only be evaluated by frames of that runtime.
+    public static CompiledMolang compile(MolangExpr expr, MolangRuntime runtime) {
+        return compile(expr, runtime.layout(), runtime);
+    }
+
+    private static CompiledMolang compile(MolangExpr expr, @Nullable SlotLayout layout, @Nullable MolangRuntime runtime) {
+        if (layout != null) layout.add(expr);
+        final Builder builder = new Builder(layout, runtime, NumericNodes.of(expr, runtime));
+        final NumberNode root;
+        if (MolangEvaluator.containsReturn(expr)) {
+            // Only the top level can consume a return, so the interpreter runs the whole expression.
+            root = ctx -> ctx.interpret(expr);
+        } else if (builder.numeric(expr)) {
+            root = builder.number(expr);
+        } else {
+            final ValueNode value = builder.value(expr);
+            root = ctx -> ctx.unwrapResult(expr, value.eval(ctx));
+        }
+        return new CompiledMolang(expr, layout, runtime) {
+            @Override
+            double run(MolangEvaluator evaluator) {
+                return root.eval(evaluator);
+            }
+        };
+    }
+
+    /// A variable or temp read by slot.
+    private record SlotRead(SlotLayout.Scope scope, int slot) {
+    }
+
+    private record Builder(@Nullable SlotLayout layout, @Nullable MolangRuntime runtime, NumericNodes numericNodes) {
+
+        boolean numeric(MolangExpr expr) {
+            return numericNodes.contains(expr);
+        }
+
+        NumberNode number(MolangExpr expr) {
+            return switch (expr) {
+                case MolangExpr.Num(double value) -> ctx -> value;
+                case MolangExpr.Unary unary -> unary(unary);
+                case MolangExpr.Binary binary -> binary(binary);
+                case MolangExpr.Ternary ternary -> {
+                    final NumberNode cond = condition(ternary);
+                    final NumberNode thenNode = number(ternary.thenExpr());
+                    final NumberNode elseNode = number(ternary.elseExpr());
+                    yield ctx -> cond.eval(ctx) != 0.0 ? thenNode.eval(ctx) : elseNode.eval(ctx);
+                }
+                case MolangExpr.Access access when runtime != null
+                        && runtime.link(access) instanceof QueryNamespace.NumberField(var getter) ->
+                        ctx -> getter.applyAsDouble(ctx.context());
+                case MolangExpr.Shared shared -> {
+                    final int index = shared.index();
+                    final NumberNode node = number(shared.expr());
+                    yield ctx -> {
+                        final MolangValue value = ctx.shared(index);
+                        return value != null ? ((MolangValue.Num) value).value() : ctx.share(index, node.eval(ctx));
+                    };
+                }
+                default -> throw new IllegalArgumentException("not a numeric expression: " + expr);
+            };
+        }
+
+        ValueNode value(MolangExpr expr) {
+            if (numeric(expr)) {
+                final NumberNode node = number(expr);
+                return ctx -> new MolangValue.Num(node.eval(ctx));
+            }
+
+            return switch (expr) {
+                case MolangExpr.Str(String value) -> {
+                    final MolangValue str = new MolangValue.Str(value);
+                    yield ctx -> str;
+                }
+                case MolangExpr.Ident(String value) when INTERPRETED_IDENTS.contains(value) -> ctx -> ctx.evalExpr(expr);
+                case MolangExpr.Ident(String value) -> ctx -> ctx.lookup(value);
+                case MolangExpr.Access access -> access(access);
+                case MolangExpr.Binary binary -> {
+                    // Only a null coalesce with a non-numeric lhs can get here.
+                    final ValueNode lhs = value(binary.lhs());
+                    final ValueNode rhs = value(binary.rhs());
+                    yield ctx -> {
+                        final MolangValue value = lhs.eval(ctx);
+                        return value instanceof MolangValue.Nil ? rhs.eval(ctx) : value;
+                    };
+                }
+                case MolangExpr.Ternary ternary -> {
+                    final NumberNode cond = condition(ternary);
+                    final ValueNode thenNode = value(ternary.thenExpr());
+                    final ValueNode elseNode = value(ternary.elseExpr());
+                    yield ctx -> cond.eval(ctx) != 0.0 ? thenNode.eval(ctx) : elseNode.eval(ctx);
+                }
+                case MolangExpr.Block block -> {
+                    final ValueNode[] nodes = new ValueNode[block.exprs().size()];
+                    for (int i = 0; i < nodes.length; i++) {
+                        final MolangExpr subExpr = block.exprs().get(i);
+                        if (numeric(subExpr)) {
+                            // Skip boxing the result since it is discarded anyway.
+                            final NumberNode node = number(subExpr);
+                            nodes[i] = ctx -> {
+                                node.eval(ctx);
+                                return MolangValue.NIL;
+                            };
+                        } else {
+                            nodes[i] = value(subExpr);
+                        }
+                    }
+                    yield ctx -> {
+                        for (var node : nodes)
+                            node.eval(ctx);
+                        return MolangValue.NIL;
+                    };
+                }
+                case MolangExpr.Call call -> call(call);
+                case MolangExpr.Unrolled unrolled -> {
+                    // The body has no control flow of its own, so only the loop limit needs the evaluator.
+                    final ValueNode loop = value(unrolled.loop());
+                    final ValueNode body = value(unrolled.body());
+                    final int iterations = unrolled.iterations(), times = unrolled.times();
+                    yield ctx -> {
+                        if (!ctx.consumeIterations(iterations))
+                            return loop.eval(ctx);
+                        for (int i = 0; i < times; i++)
+                            body.eval(ctx);
+                        return MolangValue.NIL;
+                    };
+                }
+                case MolangExpr.Shared shared -> {
+                    final int index = shared.index();
+                    final ValueNode node = value(shared.expr());
+                    yield ctx -> {
+                        final MolangValue value = ctx.shared(index);
+                        return value != null ? value : ctx.share(index, node.eval(ctx));
+                    };
+                }
+                default -> throw new IllegalArgumentException("unhandled expression: " + expr);
+            };
+        }
+
+        private NumberNode unary(MolangExpr.Unary unary) {
+            if (!numeric(unary.rhs())) {
+                final ValueNode rhs = value(unary.rhs());
+                // The interpreter helper always returns a number for unary operators.
+                final NumberNode boxed = ctx -> ((MolangValue.Num) ctx.unary(unary, rhs.eval(ctx))).value();
+                final SlotRead slot = slotRead(unary.rhs());
+                return slot != null ? guard(slot, null, unary(unary.op(), operand(unary.rhs())), boxed) : boxed;
+            }
+            return unary(unary.op(), number(unary.rhs()));
+        }
+
+        private static NumberNode unary(MolangExpr.Unary.Op op, NumberNode rhs) {
+            return switch (op) {
+                case NEGATE -> ctx -> -rhs.eval(ctx);
+                case NOT -> ctx -> rhs.eval(ctx) != 0.0 ? 0.0 : 1.0;
+            };
+        }
+
+        private NumberNode binary(MolangExpr.Binary binary) {
+            if (binary.op() == MolangExpr.Binary.Op.NULL_COALESCE) {
+                // lhs is numeric so it can never be nil.
+                return number(binary.lhs());
+            }
+            if (!numeric(binary.lhs()) || !numeric(binary.rhs())) {
+                final ValueNode lhs = value(binary.lhs());
+                final ValueNode rhs = value(binary.rhs());
+                // The interpreter helper always returns a number for non-coalescing operators.
+                final NumberNode boxed = ctx -> ((MolangValue.Num) ctx.binary(binary, lhs.eval(ctx), rhs.eval(ctx)))
+                        .value();
+                final SlotRead lhsSlot = slotRead(binary.lhs()), rhsSlot = slotRead(binary.rhs());
+                if ((lhsSlot == null && !numeric(binary.lhs())) || (rhsSlot == null && !numeric(binary.rhs())))
+                    return boxed;
+                return guard(lhsSlot, rhsSlot, binary(binary, operand(binary.lhs()), operand(binary.rhs())), boxed);
+            }
+            return binary(binary, number(binary.lhs()), number(binary.rhs()));
+        }
+
+        private static NumberNode binary(MolangExpr.Binary binary, NumberNode lhs, NumberNode rhs) {
+            return switch (binary.op()) {
+                case PLUS -> ctx -> lhs.eval(ctx) + rhs.eval(ctx);
+                case MINUS -> ctx -> lhs.eval(ctx) - rhs.eval(ctx);
+                case MUL -> ctx -> lhs.eval(ctx) * rhs.eval(ctx);
+                case DIV -> ctx -> ctx.divide(binary, lhs.eval(ctx), rhs.eval(ctx));
+                case GTE -> ctx -> lhs.eval(ctx) >= rhs.eval(ctx) ? 1.0 : 0.0;
+                case GT -> ctx -> lhs.eval(ctx) > rhs.eval(ctx) ? 1.0 : 0.0;
+                case LTE -> ctx -> lhs.eval(ctx) <= rhs.eval(ctx) ? 1.0 : 0.0;
+                case LT -> ctx -> lhs.eval(ctx) < rhs.eval(ctx) ? 1.0 : 0.0;
+                case EQ -> ctx -> lhs.eval(ctx) == rhs.eval(ctx) ? 1.0 : 0.0;
+                case NEQ -> ctx -> lhs.eval(ctx) != rhs.eval(ctx) ? 1.0 : 0.0;
+                // Both sides are always evaluated, matching the interpreter.
+                case AND -> ctx -> {
+                    final double lhsValue = lhs.eval(ctx), rhsValue = rhs.eval(ctx);
+                    return lhsValue != 0.0 && rhsValue != 0.0 ? 1.0 : 0.0;
+                };
+                case OR -> ctx -> {
+                    final double lhsValue = lhs.eval(ctx), rhsValue = rhs.eval(ctx);
+                    return lhsValue != 0.0 || rhsValue != 0.0 ? 1.0 : 0.0;
+                };
+                case NULL_COALESCE -> throw new UnsupportedOperationException("unreachable");
+            };
+        }
+
+        /// Returns a node which evaluates to non-zero if the condition of the ternary is true.
+        private NumberNode condition(MolangExpr.Ternary ternary) {
+            if (numeric(ternary.cond()))
+                return number(ternary.cond());
+            final ValueNode cond = value(ternary.cond());
+            final NumberNode boxed = ctx -> ctx.condition(ternary, cond.eval(ctx)) ? 1.0 : 0.0;
+            final SlotRead slot = slotRead(ternary.cond());
+            return slot != null ? guard(slot, null, operand(ternary.cond()), boxed) : boxed;
+        }
+
+        /// Returns the slot an access reads, if it is a variable or temp compiled against the layout.
+        private @Nullable SlotRead slotRead(MolangExpr expr) {
+            if (!(expr instanceof MolangExpr.Access access) || layout == null
+                    || MolangEvaluator.builtinFunction(access, runtime) != null
+                    || (runtime != null && runtime.link(access) != null)) return null;
+            final int slot = layout.slot(access);
+            if (slot == -1) return null;
+            return new SlotRead(SlotLayout.Scope.of(((MolangExpr.Ident) access.lhs()).value()), slot);
+        }
+
+        /// Returns a node evaluating an operand which is either numeric or a slot read. Slots are read as numbers
+        /// without boxing them, which is only valid behind a [#guard].
+        private NumberNode operand(MolangExpr expr) {
+            final SlotRead read = slotRead(expr);
+            if (read == null) return number(expr);
+            final SlotLayout.Scope scope = read.scope();
+            final int slot = read.slot();
+            return ctx -> ctx.slotNumber(scope, slot);
+        }
+
+        /// Evaluates the unboxed node if the slots hold numbers, otherwise the boxed one. Variables never change during
+        /// an evaluation, so checking them before evaluating the other operands is the same as checking them after.
+        private static NumberNode guard(@Nullable SlotRead first, @Nullable SlotRead second,
+                                        NumberNode unboxed, NumberNode boxed) {
+            if (first == null) return guard(Objects.requireNonNull(second), null, unboxed, boxed);
+            final SlotLayout.Scope scope = first.scope();
+            final int slot = first.slot();
+            if (second == null)
+                return ctx -> ctx.isNumberSlot(scope, slot) ? unboxed.eval(ctx) : boxed.eval(ctx);
+            final SlotLayout.Scope secondScope = second.scope();
+            final int secondSlot = second.slot();
+            return ctx -> ctx.isNumberSlot(scope, slot) && ctx.isNumberSlot(secondScope, secondSlot)
+                    ? unboxed.eval(ctx) : boxed.eval(ctx);
+        }
+
+        private ValueNode access(MolangExpr.Access access) {
+            final MolangValue.Function builtin = MolangEvaluator.builtinFunction(access, runtime);
+            if (builtin != null) return ctx -> ctx.call(access, builtin, List.of());
+            final QueryNamespace.Field field = runtime != null ? runtime.link(access) : null;
+            if (field == QueryNamespace.MISSING) return ctx -> MolangValue.NIL;
+            if (field != null) return ctx -> ctx.read(access, field);
+            final int slot = layout != null ? layout.slot(access) : -1;
+            if (slot != -1) {
+                final SlotLayout.Scope scope = SlotLayout.Scope.of(((MolangExpr.Ident) access.lhs()).value());
+                return ctx -> ctx.slot(access, scope, slot);
+            }
+
+            final ValueNode lhs = value(access.lhs());
+            return ctx -> ctx.access(access, lhs.eval(ctx));
+        }
+
+        private ValueNode call(MolangExpr.Call call) {
+            if (call.lhs() instanceof MolangExpr.Ident(String name) && INTERPRETED_IDENTS.contains(name))
+                return ctx -> ctx.evalExpr(call);
+
+            // Builtin math functions are resolved ahead of time, so they never need the non-function check.
+            if (call.lhs() instanceof MolangExpr.Access access
+                    && MolangEvaluator.builtinFunction(access, runtime) instanceof MolangValue.NumericFunction func
+                    && func.arity() == call.args().size()) {
+                final NumberNode[] args = new NumberNode[func.arity()];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = argument(call, call.args().get(i));
+                if (func instanceof RandomFunction random) {
+                    final NumberNode a = args.length > 0 ? args[0] : ctx -> 0.0;
+                    final NumberNode b = args.length > 1 ? args[1] : ctx -> 0.0;
+                    final NumberNode c = args.length > 2 ? args[2] : ctx -> 0.0;
+                    return ctx -> ctx.call(call, random, a.eval(ctx), b.eval(ctx), c.eval(ctx));
+                }
+                return switch (func) {
+                    case MolangValue.Function0 f -> ctx -> ctx.call(call, f);
+                    case MolangValue.Function1 f -> ctx -> ctx.call(call, f, args[0].eval(ctx));
+                    case MolangValue.Function2 f -> ctx -> ctx.call(call, f, args[0].eval(ctx), args[1].eval(ctx));
+                    case MolangValue.Function3 f -> ctx -> ctx.call(call, f, args[0].eval(ctx), args[1].eval(ctx),
+                            args[2].eval(ctx));
+                    case MolangValue.Function4 f -> ctx -> ctx.call(call, f, args[0].eval(ctx), args[1].eval(ctx),
+                            args[2].eval(ctx), args[3].eval(ctx));
+                };
+            }
+
+            final List<ValueNode> argList = new ArrayList<>();
+            for (var arg : call.args()) argList.add(value(arg));
+            final ValueNode[] args = argList.toArray(ValueNode[]::new);
+
+            if (call.lhs() instanceof MolangExpr.Access access && MolangEvaluator.builtinFunction(access, runtime) != null) {
+                final MolangValue.Function func = MolangEvaluator.builtinFunction(access, runtime);
+                return ctx -> ctx.call(call, func, evalArgs(ctx, call, args));
+            }
+
+            final ValueNode callee;
+            final QueryNamespace.Field linked = call.lhs() instanceof MolangExpr.Access access && runtime != null
+                    ? runtime.link(access) : null;
+            if (linked != null) {
+                callee = ctx -> QueryNamespace.read(linked, ctx.context());
+            } else if (call.lhs() instanceof MolangExpr.Access access) {
+                final ValueNode lhs = value(access.lhs());
+                final String field = access.field();
+                callee = ctx -> ctx.callee(lhs.eval(ctx), field);
+            } else {
+                callee = value(call.lhs());
+            }
+            return ctx -> {
+                final MolangValue func = callee.eval(ctx);
+                if (!(func instanceof MolangValue.Function function))
+                    return ctx.notCallable(call, func);
+                return ctx.call(call, function, evalArgs(ctx, call, args));
+            };
+        }
+
+        /// Returns a node evaluating an argument of a [MolangValue.NumericFunction] call.
+        private NumberNode argument(MolangExpr.Call call, MolangExpr arg) {
+            if (numeric(arg)) return number(arg);
+            final ValueNode value = value(arg);
+            final NumberNode boxed = ctx -> ctx.numericArgument(call, value.eval(ctx));
+            final SlotRead slot = slotRead(arg);
+            return slot != null ? guard(slot, null, operand(arg), boxed) : boxed;
+        }
+
+        private static List<MolangValue> evalArgs(MolangEvaluator ctx, MolangExpr.Call call, ValueNode[] args) {
+            final MolangValue[] values = new MolangValue[args.length];
+            for (int i = 0; i < args.length; i++)
+                values[i] = ctx.argument(call, args[i].eval(ctx));
+            return List.of(values);
+        }
+    }
+}
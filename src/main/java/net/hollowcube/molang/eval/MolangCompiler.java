@@ -0,0 +1,563 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.runtime.RandomFunction;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.Opcode;
+import java.lang.classfile.TypeKind;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+import static java.lang.constant.ConstantDescs.*;
+
+/// Compiles a [MolangExpr] into a hidden class for faster repeated evaluation.
+///
+/// Subexpressions which are statically known to be numeric are evaluated as primitive doubles, everything
+/// else is delegated to the same helpers the interpreter uses so errors are reported identically. Control
+/// flow (`loop`, `break`, `continue` and `return`) is always delegated to the interpreter.
+///
+/// The expression should generally be run through [net.hollowcube.molang.MolangOptimizer] before compiling.
+public final class MolangCompiler {
+    private static final Set<String> INTERPRETED_IDENTS = Set.of(
+            "continue", "break", "return", "loop", "for_each", "this"
+    );
+
+    private static final ClassDesc CD_COMPILED = desc(CompiledMolang.class);
+    private static final ClassDesc CD_GENERATED = CD_COMPILED.nested("Generated");
+    private static final ClassDesc CD_COMPILER = desc(MolangCompiler.class);
+    private static final ClassDesc CD_EVALUATOR = desc(MolangEvaluator.class);
+    private static final ClassDesc CD_VALUE = desc(MolangValue.class);
+    private static final ClassDesc CD_NIL = desc(MolangValue.Nil.class);
+    private static final ClassDesc CD_NUM = desc(MolangValue.Num.class);
+    private static final ClassDesc CD_FUNCTION = desc(MolangValue.Function.class);
+    private static final ClassDesc[] CD_NUMERIC_FUNCTIONS = {
+            desc(MolangValue.Function0.class), desc(MolangValue.Function1.class), desc(MolangValue.Function2.class),
+            desc(MolangValue.Function3.class), desc(MolangValue.Function4.class)
+    };
+    private static final ClassDesc CD_RANDOM_FUNCTION = desc(RandomFunction.class);
+    private static final ClassDesc CD_EXPR = desc(MolangExpr.class);
+    private static final ClassDesc CD_UNARY = desc(MolangExpr.Unary.class);
+    private static final ClassDesc CD_BINARY = desc(MolangExpr.Binary.class);
+    private static final ClassDesc CD_TERNARY = desc(MolangExpr.Ternary.class);
+    private static final ClassDesc CD_ACCESS = desc(MolangExpr.Access.class);
+    private static final ClassDesc CD_CALL = desc(MolangExpr.Call.class);
+    private static final ClassDesc CD_LAYOUT = desc(SlotLayout.class);
+    private static final ClassDesc CD_SCOPE = desc(SlotLayout.Scope.class);
+    private static final ClassDesc CD_RUNTIME = desc(MolangRuntime.class);
+    private static final ClassDesc CD_NAMESPACE = desc(QueryNamespace.class);
+    private static final ClassDesc CD_FIELD = desc(QueryNamespace.Field.class);
+    private static final ClassDesc CD_TO_DOUBLE = desc(ToDoubleFunction.class);
+
+    private static final MethodTypeDesc MTD_INIT = MethodTypeDesc.of(CD_void, CD_EXPR, CD_LAYOUT, CD_RUNTIME, CD_Object.arrayType());
+    private static final MethodTypeDesc MTD_RUN = MethodTypeDesc.of(CD_double, CD_EVALUATOR);
+
+    private static final ClassFile CLASS_FILE = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            ClassHierarchyResolver.defaultResolver().orElse(
+                    ClassHierarchyResolver.ofClassLoading(MolangCompiler.class.getClassLoader()))));
+
+    /// Compiles the given expression into a new hidden class.
+    ///
+    /// @throws IllegalStateException if the class could not be generated or defined.
+    public static CompiledMolang compile(MolangExpr expr) {
+        return compile(expr, null, null);
+    }
+
+    /// Compiles the given expression into a new hidden class, accessing variables and temps by slot if a layout
+    /// is given. Any names missing from the layout are added to it.
+    ///
+    /// @throws IllegalStateException if the class could not be generated or defined.
+    public static CompiledMolang compile(MolangExpr expr, @Nullable SlotLayout layout) {
+        return compile(expr, layout, null);
+    }
+
+    /// Compiles the given expression against the runtime's layout, linking accesses of its [QueryNamespace] fields
+    /// to direct calls of the field getters. The result may only be evaluated by frames of that runtime.
+    ///
+    /// @throws IllegalStateException if the class could not be generated or defined.
+    public static CompiledMolang compile(MolangExpr expr, MolangRuntime runtime) {
+        return compile(expr, runtime.layout(), runtime);
+    }
+
+    private static CompiledMolang compile(MolangExpr expr, @Nullable SlotLayout layout, @Nullable MolangRuntime runtime) {
+        if (layout != null) layout.add(expr);
+        final List<Object> constants = new ArrayList<>();
+        final byte[] bytes;
+        try {
+            bytes = CLASS_FILE.build(CD_GENERATED, clb -> clb
+                    .withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC)
+                    .withSuperclass(CD_COMPILED)
+                    .withField("constants", CD_Object.arrayType(), ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL)
+                    .withMethodBody(INIT_NAME, MTD_INIT, 0, cob -> cob
+                            .aload(0).aload(1).aload(2).aload(3)
+                            .invokespecial(CD_COMPILED, INIT_NAME, MethodTypeDesc.of(CD_void, CD_EXPR, CD_LAYOUT, CD_RUNTIME))
+                            .aload(0).aload(4)
+                            .putfield(CD_GENERATED, "constants", CD_Object.arrayType())
+                            .return_())
+                    .withMethodBody("run", MTD_RUN, ClassFile.ACC_FINAL,
+                            cob -> new Emitter(layout, runtime, NumericNodes.of(expr, runtime), constants).root(cob, expr)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("failed to generate class for: " + expr, e);
+        }
+
+        try {
+            final var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            final var constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, MolangExpr.class, SlotLayout.class, MolangRuntime.class, Object[].class));
+            return (CompiledMolang) constructor.invoke(expr, layout, runtime, constants.toArray());
+        } catch (Throwable e) {
+            throw new IllegalStateException("failed to define class for: " + expr, e);
+        }
+    }
+
+    // Runtime helpers called by generated code
+
+    static MolangValue box(double value) {
+        return new MolangValue.Num(value);
+    }
+
+    static double and(double lhs, double rhs) {
+        return lhs != 0.0 && rhs != 0.0 ? 1.0 : 0.0;
+    }
+
+    static double or(double lhs, double rhs) {
+        return lhs != 0.0 || rhs != 0.0 ? 1.0 : 0.0;
+    }
+
+    private static ClassDesc desc(Class<?> type) {
+        return type.describeConstable().orElseThrow();
+    }
+
+    // Local 0 is always `this` and local 1 is always the evaluator.
+    private record Emitter(@Nullable SlotLayout layout, @Nullable MolangRuntime runtime, NumericNodes numericNodes,
+                           List<Object> constants) {
+
+        private boolean numeric(MolangExpr expr) {
+            return numericNodes.contains(expr);
+        }
+
+        private QueryNamespace.@Nullable Field link(MolangExpr.Access access) {
+            return runtime != null ? runtime.link(access) : null;
+        }
+
+        void root(CodeBuilder cob, MolangExpr expr) {
+            if (MolangEvaluator.containsReturn(expr)) {
+                // Only the top level can consume a return, so the interpreter runs the whole expression.
+                cob.aload(1);
+                constant(cob, expr, CD_EXPR);
+                cob.invokevirtual(CD_EVALUATOR, "interpret", MethodTypeDesc.of(CD_double, CD_EXPR));
+            } else if (numeric(expr)) {
+                number(cob, expr);
+            } else {
+                cob.aload(1);
+                constant(cob, expr, CD_EXPR);
+                value(cob, expr);
+                cob.invokevirtual(CD_EVALUATOR, "unwrapResult", MethodTypeDesc.of(CD_double, CD_EXPR, CD_VALUE));
+            }
+            cob.dreturn();
+        }
+
+        /// Emits a subexpression for which [NumericNodes#contains(MolangExpr)] is true, leaving a
+        /// double on the stack.
+        private void number(CodeBuilder cob, MolangExpr expr) {
+            switch (expr) {
+                case MolangExpr.Num(double value) -> cob.loadConstant(value);
+                case MolangExpr.Unary unary -> unary(cob, unary);
+                case MolangExpr.Binary binary -> binary(cob, binary);
+                case MolangExpr.Ternary ternary -> ternary(cob, ternary, true);
+                case MolangExpr.Access access when link(access) instanceof QueryNamespace.NumberField(var getter) -> {
+                    constant(cob, getter, CD_TO_DOUBLE);
+                    cob.aload(1).invokevirtual(CD_EVALUATOR, "context", MethodTypeDesc.of(CD_Object))
+                            .invokeinterface(CD_TO_DOUBLE, "applyAsDouble", MethodTypeDesc.of(CD_double, CD_Object));
+                }
+                case MolangExpr.Shared shared -> shared(cob, shared, true);
+                default -> throw new IllegalArgumentException("not a numeric expression: " + expr);
+            }
+        }
+
+        /// Emits any expression, leaving a [MolangValue] on the stack.
+        private void value(CodeBuilder cob, MolangExpr expr) {
+            if (numeric(expr)) {
+                number(cob, expr);
+                cob.invokestatic(CD_COMPILER, "box", MethodTypeDesc.of(CD_VALUE, CD_double));
+                return;
+            }
+
+            switch (expr) {
+                case MolangExpr.Str(String value) -> constant(cob, new MolangValue.Str(value), CD_VALUE);
+                case MolangExpr.Ident(String value) when INTERPRETED_IDENTS.contains(value) -> interpreted(cob, expr);
+                case MolangExpr.Ident(String value) -> cob.aload(1).loadConstant(value)
+                        .invokevirtual(CD_EVALUATOR, "lookup", MethodTypeDesc.of(CD_VALUE, CD_String));
+                case MolangExpr.Access access when link(access) == QueryNamespace.MISSING ->
+                        cob.getstatic(CD_VALUE, "NIL", CD_VALUE);
+                case MolangExpr.Access access when link(access) != null -> {
+                    cob.aload(1);
+                    constant(cob, access, CD_ACCESS);
+                    constant(cob, link(access), CD_FIELD);
+                    cob.invokevirtual(CD_EVALUATOR, "read", MethodTypeDesc.of(CD_VALUE, CD_ACCESS, CD_FIELD));
+                }
+                case MolangExpr.Access access when layout != null && layout.slot(access) != -1 -> {
+                    final var scope = SlotLayout.Scope.of(((MolangExpr.Ident) access.lhs()).value());
+                    cob.aload(1);
+                    constant(cob, access, CD_ACCESS);
+                    cob.getstatic(CD_SCOPE, scope.name(), CD_SCOPE).loadConstant(layout.slot(access))
+                            .invokevirtual(CD_EVALUATOR, "slot", MethodTypeDesc.of(CD_VALUE, CD_ACCESS, CD_SCOPE, CD_int));
+                }
+                case MolangExpr.Access access -> {
+                    cob.aload(1);
+                    constant(cob, access, CD_ACCESS);
+                    value(cob, access.lhs());
+                    cob.invokevirtual(CD_EVALUATOR, "access", MethodTypeDesc.of(CD_VALUE, CD_ACCESS, CD_VALUE));
+                }
+                case MolangExpr.Binary binary -> {
+                    // Only a null coalesce with a non-numeric lhs can get here.
+                    value(cob, binary.lhs());
+                    cob.dup().instanceOf(CD_NIL).ifThen(Opcode.IFNE, b -> {
+                        b.pop();
+                        value(b, binary.rhs());
+                    });
+                }
+                case MolangExpr.Ternary ternary -> ternary(cob, ternary, false);
+                case MolangExpr.Block block -> {
+                    for (var subExpr : block.exprs()) {
+                        if (numeric(subExpr)) {
+                            number(cob, subExpr);
+                            cob.pop2();
+                        } else {
+                            value(cob, subExpr);
+                            cob.pop();
+                        }
+                    }
+                    cob.getstatic(CD_VALUE, "NIL", CD_VALUE);
+                }
+                case MolangExpr.Call call -> call(cob, call);
+                case MolangExpr.Shared shared -> shared(cob, shared, false);
+                case MolangExpr.Unrolled unrolled -> unrolled(cob, unrolled);
+                default -> throw new IllegalArgumentException("unhandled expression: " + expr);
+            }
+        }
+
+        /// Emits an unrolled loop. The body has no control flow of its own, so only the loop limit needs the evaluator.
+        private void unrolled(CodeBuilder cob, MolangExpr.Unrolled unrolled) {
+            cob.aload(1).loadConstant(unrolled.iterations())
+                    .invokevirtual(CD_EVALUATOR, "consumeIterations", MethodTypeDesc.of(CD_boolean, CD_int))
+                    .ifThenElse(Opcode.IFNE, b -> {
+                        if (unrolled.times() == 1) {
+                            value(b, unrolled.body());
+                            return;
+                        }
+                        final int counter = b.allocateLocal(TypeKind.INT);
+                        final Label top = b.newLabel(), end = b.newLabel();
+                        b.loadConstant(unrolled.times()).istore(counter).labelBinding(top).iload(counter).ifle(end);
+                        value(b, unrolled.body());
+                        b.pop().iinc(counter, -1).goto_(top).labelBinding(end)
+                                .getstatic(CD_VALUE, "NIL", CD_VALUE);
+                    }, b -> value(b, unrolled.loop()));
+        }
+
+        /// Emits a shared subexpression, evaluating it only if it has not been stored yet this evaluation.
+        private void shared(CodeBuilder cob, MolangExpr.Shared shared, boolean numeric) {
+            cob.aload(1).loadConstant(shared.index())
+                    .invokevirtual(CD_EVALUATOR, "shared", MethodTypeDesc.of(CD_VALUE, CD_int))
+                    .dup().ifThenElse(Opcode.IFNONNULL, b -> {
+                        if (numeric) unbox(b);
+                    }, b -> {
+                        b.pop().aload(1).loadConstant(shared.index());
+                        if (numeric) {
+                            number(b, shared.expr());
+                            b.invokevirtual(CD_EVALUATOR, "share", MethodTypeDesc.of(CD_double, CD_int, CD_double));
+                        } else {
+                            value(b, shared.expr());
+                            b.invokevirtual(CD_EVALUATOR, "share", MethodTypeDesc.of(CD_VALUE, CD_int, CD_VALUE));
+                        }
+                    });
+        }
+
+        private void unary(CodeBuilder cob, MolangExpr.Unary unary) {
+            if (!numeric(unary.rhs())) {
+                final Consumer<CodeBuilder> boxed = b -> {
+                    b.aload(1);
+                    constant(b, unary, CD_UNARY);
+                    value(b, unary.rhs());
+                    b.invokevirtual(CD_EVALUATOR, "unary", MethodTypeDesc.of(CD_VALUE, CD_UNARY, CD_VALUE));
+                    unbox(b);
+                };
+                if (slot(unary.rhs()) == -1) {
+                    boxed.accept(cob);
+                } else {
+                    guard(cob, unary.rhs(), null);
+                    cob.ifThenElse(Opcode.IFNE, b -> numericUnary(b, unary), boxed::accept);
+                }
+                return;
+            }
+            numericUnary(cob, unary);
+        }
+
+        /// Emits a unary operator whose operand is numeric or a number slot.
+        private void numericUnary(CodeBuilder cob, MolangExpr.Unary unary) {
+            operand(cob, unary.rhs());
+            switch (unary.op()) {
+                case NEGATE -> cob.dneg();
+                case NOT -> cob.dconst_0().dcmpl().ifThenElse(Opcode.IFNE,
+                        b -> b.dconst_0(), b -> b.dconst_1());
+            }
+        }
+
+        private void binary(CodeBuilder cob, MolangExpr.Binary binary) {
+            if (binary.op() == MolangExpr.Binary.Op.NULL_COALESCE) {
+                // lhs is numeric so it can never be nil.
+                number(cob, binary.lhs());
+                return;
+            }
+            if (!numeric(binary.lhs()) || !numeric(binary.rhs())) {
+                final Consumer<CodeBuilder> boxed = b -> {
+                    b.aload(1);
+                    constant(b, binary, CD_BINARY);
+                    value(b, binary.lhs());
+                    value(b, binary.rhs());
+                    b.invokevirtual(CD_EVALUATOR, "binary",
+                            MethodTypeDesc.of(CD_VALUE, CD_BINARY, CD_VALUE, CD_VALUE));
+                    unbox(b);
+                };
+                final boolean lhsSlot = slot(binary.lhs()) != -1, rhsSlot = slot(binary.rhs()) != -1;
+                if ((lhsSlot || numeric(binary.lhs())) && (rhsSlot || numeric(binary.rhs()))) {
+                    guard(cob, lhsSlot ? binary.lhs() : binary.rhs(), lhsSlot && rhsSlot ? binary.rhs() : null);
+                    cob.ifThenElse(Opcode.IFNE, b -> numericBinary(b, binary), boxed::accept);
+                } else {
+                    boxed.accept(cob);
+                }
+                return;
+            }
+            numericBinary(cob, binary);
+        }
+
+        /// Emits a binary operator whose operands are numeric or number slots.
+        private void numericBinary(CodeBuilder cob, MolangExpr.Binary binary) {
+            if (binary.op() == MolangExpr.Binary.Op.DIV) {
+                // Division needs the evaluator to report division by zero.
+                cob.aload(1);
+                constant(cob, binary, CD_BINARY);
+                operand(cob, binary.lhs());
+                operand(cob, binary.rhs());
+                cob.invokevirtual(CD_EVALUATOR, "divide", MethodTypeDesc.of(CD_double, CD_BINARY, CD_double, CD_double));
+                return;
+            }
+
+            operand(cob, binary.lhs());
+            operand(cob, binary.rhs());
+            switch (binary.op()) {
+                case PLUS -> cob.dadd();
+                case MINUS -> cob.dsub();
+                case MUL -> cob.dmul();
+                // dcmpl/dcmpg are chosen so that NaN compares false, matching Java semantics.
+                case GTE -> compare(cob.dcmpl(), Opcode.IFGE);
+                case GT -> compare(cob.dcmpl(), Opcode.IFGT);
+                case LTE -> compare(cob.dcmpg(), Opcode.IFLE);
+                case LT -> compare(cob.dcmpg(), Opcode.IFLT);
+                case EQ -> compare(cob.dcmpl(), Opcode.IFEQ);
+                case NEQ -> compare(cob.dcmpl(), Opcode.IFNE);
+                case AND -> cob.invokestatic(CD_COMPILER, "and", MethodTypeDesc.of(CD_double, CD_double, CD_double));
+                case OR -> cob.invokestatic(CD_COMPILER, "or", MethodTypeDesc.of(CD_double, CD_double, CD_double));
+                case DIV, NULL_COALESCE -> throw new UnsupportedOperationException("unreachable");
+            }
+        }
+
+        private void ternary(CodeBuilder cob, MolangExpr.Ternary ternary, boolean numeric) {
+            if (numeric(ternary.cond())) {
+                number(cob, ternary.cond());
+                cob.dconst_0().dcmpl();
+            } else if (slot(ternary.cond()) != -1) {
+                guard(cob, ternary.cond(), null);
+                cob.ifThenElse(Opcode.IFNE, b -> {
+                    operand(b, ternary.cond());
+                    b.dconst_0().dcmpl();
+                }, b -> {
+                    b.aload(1);
+                    constant(b, ternary, CD_TERNARY);
+                    value(b, ternary.cond());
+                    b.invokevirtual(CD_EVALUATOR, "condition", MethodTypeDesc.of(CD_boolean, CD_TERNARY, CD_VALUE));
+                });
+            } else {
+                cob.aload(1);
+                constant(cob, ternary, CD_TERNARY);
+                value(cob, ternary.cond());
+                cob.invokevirtual(CD_EVALUATOR, "condition", MethodTypeDesc.of(CD_boolean, CD_TERNARY, CD_VALUE));
+            }
+
+            cob.ifThenElse(Opcode.IFNE, b -> {
+                if (numeric) number(b, ternary.thenExpr());
+                else value(b, ternary.thenExpr());
+            }, b -> {
+                if (numeric) number(b, ternary.elseExpr());
+                else value(b, ternary.elseExpr());
+            });
+        }
+
+        private void call(CodeBuilder cob, MolangExpr.Call call) {
+            if (call.lhs() instanceof MolangExpr.Ident(String name) && INTERPRETED_IDENTS.contains(name)) {
+                interpreted(cob, call);
+                return;
+            }
+
+            // Builtin math functions are resolved ahead of time and called without boxing their arguments.
+            if (call.lhs() instanceof MolangExpr.Access access
+                    && MolangEvaluator.builtinFunction(access, runtime) instanceof MolangValue.NumericFunction func
+                    && func.arity() == call.args().size()) {
+                if (func instanceof RandomFunction) {
+                    cob.aload(1);
+                    constant(cob, call, CD_EXPR);
+                    constant(cob, func, CD_RANDOM_FUNCTION);
+                    for (var arg : call.args())
+                        argument(cob, call, arg);
+                    for (int i = func.arity(); i < 3; i++)
+                        cob.dconst_0();
+                    cob.invokevirtual(CD_EVALUATOR, "call",
+                            MethodTypeDesc.of(CD_VALUE, CD_EXPR, CD_RANDOM_FUNCTION, CD_double, CD_double, CD_double));
+                    return;
+                }
+                final ClassDesc type = CD_NUMERIC_FUNCTIONS[func.arity()];
+                final ClassDesc[] params = new ClassDesc[func.arity() + 2];
+                Arrays.fill(params, CD_double);
+                params[0] = CD_EXPR;
+                params[1] = type;
+                cob.aload(1);
+                constant(cob, call, CD_EXPR);
+                constant(cob, func, type);
+                for (var arg : call.args())
+                    argument(cob, call, arg);
+                cob.invokevirtual(CD_EVALUATOR, "call", MethodTypeDesc.of(CD_VALUE, params));
+                return;
+            }
+
+            final QueryNamespace.Field field = call.lhs() instanceof MolangExpr.Access access ? link(access) : null;
+            if (field != null) {
+                constant(cob, field, CD_FIELD);
+                cob.aload(1).invokevirtual(CD_EVALUATOR, "context", MethodTypeDesc.of(CD_Object))
+                        .invokestatic(CD_NAMESPACE, "read", MethodTypeDesc.of(CD_VALUE, CD_FIELD, CD_Object));
+            } else if (call.lhs() instanceof MolangExpr.Access access) {
+                cob.aload(1);
+                value(cob, access.lhs());
+                cob.loadConstant(access.field())
+                        .invokevirtual(CD_EVALUATOR, "callee", MethodTypeDesc.of(CD_VALUE, CD_VALUE, CD_String));
+            } else {
+                value(cob, call.lhs());
+            }
+
+            final int callee = cob.allocateLocal(TypeKind.REFERENCE);
+            cob.astore(callee).aload(callee).instanceOf(CD_FUNCTION).ifThenElse(Opcode.IFNE, b -> {
+                b.aload(1);
+                constant(b, call, CD_CALL);
+                b.aload(callee).loadConstant(call.args().size()).anewarray(CD_VALUE);
+                for (int i = 0; i < call.args().size(); i++) {
+                    b.dup().loadConstant(i).aload(1);
+                    constant(b, call, CD_CALL);
+                    value(b, call.args().get(i));
+                    b.invokevirtual(CD_EVALUATOR, "argument", MethodTypeDesc.of(CD_VALUE, CD_CALL, CD_VALUE))
+                            .aastore();
+                }
+                b.invokevirtual(CD_EVALUATOR, "invoke",
+                        MethodTypeDesc.of(CD_VALUE, CD_CALL, CD_VALUE, CD_VALUE.arrayType()));
+            }, b -> {
+                b.aload(1);
+                constant(b, call, CD_CALL);
+                b.aload(callee).invokevirtual(CD_EVALUATOR, "notCallable", MethodTypeDesc.of(CD_VALUE, CD_CALL, CD_VALUE));
+            });
+        }
+
+        /// Emits an argument of a [MolangValue.NumericFunction] call, leaving a double on the stack.
+        private void argument(CodeBuilder cob, MolangExpr.Call call, MolangExpr arg) {
+            if (numeric(arg)) {
+                number(cob, arg);
+                return;
+            }
+            final Consumer<CodeBuilder> boxed = b -> {
+                b.aload(1);
+                constant(b, call, CD_CALL);
+                value(b, arg);
+                b.invokevirtual(CD_EVALUATOR, "numericArgument", MethodTypeDesc.of(CD_double, CD_CALL, CD_VALUE));
+            };
+            if (slot(arg) == -1) {
+                boxed.accept(cob);
+                return;
+            }
+            guard(cob, arg, null);
+            cob.ifThenElse(Opcode.IFNE, b -> operand(b, arg), boxed::accept);
+        }
+
+        /// Returns the slot an access reads, if it is a variable or temp compiled against the layout, or -1.
+        private int slot(MolangExpr expr) {
+            if (!(expr instanceof MolangExpr.Access access) || layout == null
+                    || MolangEvaluator.builtinFunction(access, runtime) != null || link(access) != null) return -1;
+            return layout.slot(access);
+        }
+
+        /// Emits an operand which is either numeric or a slot read, leaving a double on the stack. Slots are read as
+        /// numbers without boxing them, which is only valid behind a [#guard].
+        private void operand(CodeBuilder cob, MolangExpr expr) {
+            final int slot = slot(expr);
+            if (slot == -1) {
+                number(cob, expr);
+                return;
+            }
+            slotScope(cob, expr, slot);
+            cob.invokevirtual(CD_EVALUATOR, "slotNumber", MethodTypeDesc.of(CD_double, CD_SCOPE, CD_int));
+        }
+
+        /// Leaves whether the slots of both accesses hold numbers on the stack. Variables never change during an
+        /// evaluation, so checking them before evaluating the other operands is the same as checking them after.
+        private void guard(CodeBuilder cob, MolangExpr first, @Nullable MolangExpr second) {
+            slotScope(cob, first, slot(first));
+            cob.invokevirtual(CD_EVALUATOR, "isNumberSlot", MethodTypeDesc.of(CD_boolean, CD_SCOPE, CD_int));
+            if (second == null) return;
+            slotScope(cob, second, slot(second));
+            cob.invokevirtual(CD_EVALUATOR, "isNumberSlot", MethodTypeDesc.of(CD_boolean, CD_SCOPE, CD_int)).iand();
+        }
+
+        private void slotScope(CodeBuilder cob, MolangExpr expr, int slot) {
+            final var scope = SlotLayout.Scope.of(((MolangExpr.Ident) ((MolangExpr.Access) expr).lhs()).value());
+            cob.aload(1).getstatic(CD_SCOPE, scope.name(), CD_SCOPE).loadConstant(slot);
+        }
+
+        private void interpreted(CodeBuilder cob, MolangExpr expr) {
+            cob.aload(1);
+            constant(cob, expr, CD_EXPR);
+            cob.invokevirtual(CD_EVALUATOR, "evalExpr", MethodTypeDesc.of(CD_VALUE, CD_EXPR));
+        }
+
+        private void compare(CodeBuilder cob, Opcode opcode) {
+            cob.ifThenElse(opcode, b -> b.dconst_1(), b -> b.dconst_0());
+        }
+
+        private void unbox(CodeBuilder cob) {
+            // The interpreter helpers for unary and binary operators always return a number.
+            cob.checkcast(CD_NUM).invokevirtual(CD_NUM, "value", MethodTypeDesc.of(CD_double));
+        }
+
+        private void constant(CodeBuilder cob, Object value, ClassDesc type) {
+            // Identity lookup keeps indices stable if the code is ever emitted twice.
+            int index = -1;
+            for (int i = 0; i < constants.size() && index == -1; i++) {
+                if (constants.get(i) == value) index = i;
+            }
+            if (index == -1) {
+                index = constants.size();
+                constants.add(value);
+            }
+
+            cob.aload(0).getfield(CD_GENERATED, "constants", CD_Object.arrayType())
+                    .loadConstant(index).aaload().checkcast(type);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/// The inputs an expression reads and the effects it may have, found statically.
+///
+/// The read set is the query fields, variables and temps referenced anywhere in the expression, whether or not they
+/// are reached when it is evaluated. Queries are recorded by their namespace and first field (eg `q.anim_time`).
+/// Molang has no assignment, so the only writes are calls of functions: module functions which are not pure, and any
+/// other function (eg a query function), whose purity is unknown, are recorded in `effects`.
+///
+/// Host globals are not tracked, so an expression referring to one by name (eg `foo(1)`) is never deterministic.
+///
+/// @param queries       the query fields read, each an access of a root namespace
+/// @param variables     the names of the `variable.*` read
+/// @param temps         the names of the `temp.*` read
+/// @param effects       the functions called which may have side effects
+/// @param deterministic whether the expression calls no nondeterministic module functions (eg `math.random`) and
+///                      refers to no host globals
+public record MolangDependencies(
+        Set<MolangExpr.Access> queries, Set<String> variables, Set<String> temps,
+        Set<MolangExpr.Access> effects, boolean deterministic
+) {
+
+    public static MolangDependencies of(MolangExpr expr) {
+        return of(expr, ModuleRegistry.DEFAULT);
+    }
+
+    /// Analyzes the expression, resolving module functions through the given registry.
+    public static MolangDependencies of(MolangExpr expr, ModuleRegistry modules) {
+        final Collector collector = new Collector(modules);
+        collector.add(expr);
+        return new MolangDependencies(Set.copyOf(collector.queries), Set.copyOf(collector.variables),
+                Set.copyOf(collector.temps), Set.copyOf(collector.effects), collector.deterministic);
+    }
+
+    /// Whether the result only depends on the read set, so it may be reused while none of the inputs change.
+    public boolean cacheable() {
+        return effects.isEmpty() && deterministic;
+    }
+
+    private static final class Collector {
+        private static final Set<String> KEYWORDS = Set.of("break", "continue", "return", "loop", "for_each", "this");
+
+        private final ModuleRegistry modules;
+        private final Set<MolangExpr.Access> queries = new LinkedHashSet<>();
+        private final Set<String> variables = new LinkedHashSet<>();
+        private final Set<String> temps = new LinkedHashSet<>();
+        private final Set<MolangExpr.Access> effects = new LinkedHashSet<>();
+        private boolean deterministic = true;
+
+        Collector(ModuleRegistry modules) {
+            this.modules = modules;
+        }
+
+        void add(MolangExpr expr) {
+            switch (expr) {
+                case MolangExpr.Num num -> {
+                }
+                case MolangExpr.Str str -> {
+                }
+                case MolangExpr.Ident(String ident) -> {
+                    // Anything but a keyword or a bare namespace is a host global, which may be anything.
+                    if (!KEYWORDS.contains(ident) && !isNamespace(ident)) deterministic = false;
+                }
+                case MolangExpr.Unary unary -> add(unary.rhs());
+                case MolangExpr.Binary binary -> {
+                    add(binary.lhs());
+                    add(binary.rhs());
+                }
+                case MolangExpr.Ternary ternary -> {
+                    add(ternary.cond());
+                    add(ternary.thenExpr());
+                    add(ternary.elseExpr());
+                }
+                case MolangExpr.Access access -> access(access);
+                case MolangExpr.Call call -> {
+                    add(call.lhs());
+                    // Module functions are resolved by access(), any other function may have side effects.
+                    if (call.lhs() instanceof MolangExpr.Access callee) {
+                        if (modules.function(callee) == null) effects.add(callee);
+                    } else if (!(call.lhs() instanceof MolangExpr.Ident)) deterministic = false;
+                    for (MolangExpr arg : call.args()) add(arg);
+                }
+                case MolangExpr.Block block -> {
+                    for (MolangExpr subExpr : block.exprs()) add(subExpr);
+                }
+                case MolangExpr.Shared shared -> add(shared.expr());
+                case MolangExpr.Unrolled unrolled -> add(unrolled.loop());
+            }
+        }
+
+        private void access(MolangExpr.Access access) {
+            if (!(access.lhs() instanceof MolangExpr.Ident(String namespace))) {
+                add(access.lhs());
+                return;
+            }
+            final SlotLayout.Scope scope = SlotLayout.Scope.of(namespace);
+            if (scope == SlotLayout.Scope.VARIABLE) variables.add(access.field());
+            else if (scope == SlotLayout.Scope.TEMP) temps.add(access.field());
+            else if (modules.module(namespace) == null) queries.add(access);
+            else if (modules.function(access) instanceof ModuleFunction function) {
+                // Called with no arguments when accessed without a call, other module members never change.
+                if (!function.pure()) effects.add(access);
+                if (!function.deterministic()) deterministic = false;
+            }
+        }
+
+        private boolean isNamespace(String ident) {
+            return SlotLayout.Scope.of(ident) != null || modules.module(ident) != null;
+        }
+    }
+}
@@ -3,14 +3,26 @@ package net.hollowcube.molang.eval;
 import net.hollowcube.molang.MolangExpr;
 import net.hollowcube.molang.runtime.ContentError;
 import net.hollowcube.molang.runtime.MolangContentException;
-import net.hollowcube.molang.runtime.MolangMath;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import net.hollowcube.molang.runtime.RandomFunction;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Supplier;
-
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/// Evaluates expressions against a [MolangRuntime].
+///
+/// An evaluator is a lightweight frame holding the mutable state of evaluation: variables, temps, errors and loop
+/// state. It is not thread safe, but it is cheap to create and may be reused for any number of evaluations. Share
+/// the runtime (and any [CompiledMolang]) between threads and give each thread its own evaluator.
 public final class MolangEvaluator {
     public static final int MAX_LOOP_COUNTER = 1024; // Arbitrary limit to prevent massive loops.
 
@@ -18,31 +30,125 @@ public final class MolangEvaluator {
         throw new IllegalStateException("loop intrinsic"); // Unreachable.
     };
 
-    private final List<ContentError> errors = new ArrayList<>();
+    private static final ContentError[] NO_ERRORS = new ContentError[0];
+    private static final MolangValue[] NO_VIEWS = new MolangValue[0];
+    private static final MolangValue[] NO_SHARED = new MolangValue[0];
+
+    /// How an evaluator reports content errors.
+    public enum ErrorMode {
+        /// Errors are recorded and returned by [#getErrors()].
+        RECORD,
+        /// Errors are only counted, [#getErrors()] is always empty. Useful when only [#hasErrors()] matters.
+        COUNT,
+    }
+
+    private ErrorMode errorMode = ErrorMode.RECORD;
+    private ContentError[] errors = NO_ERRORS;
+    private int recordedErrors = 0;
+    private int errorCount = 0;
     private boolean loopScope = false; // Whether we are currently in a looping scope (to catch break/continues)
+    // Set by break, continue and return. Every node stops evaluating its children once a signal is pending,
+    // unwinding to the enclosing loop (break/continue) or to the top level (return).
+    private Signal signal = Signal.NONE;
+    private MolangValue returnValue = MolangValue.NIL;
     private int loopCounter = MAX_LOOP_COUNTER;
 
-    private final MutableHolderImpl variable = new MutableHolderImpl();
-    private final MutableHolderImpl temp = new MutableHolderImpl();
-    private final MolangValue.Holder root;
-
+    private final MolangRuntime runtime;
+    private final SlotStorage variable;
+    private final SlotStorage temp;
+    private final MolangValue[] namespaceViews;
+    private @Nullable Object context = null;
+    // Null draws from the ThreadLocalRandom of the evaluating thread, which is not the one that created the evaluator.
+    private @Nullable RandomGenerator random = null;
+    // Values of the shared subexpressions evaluated so far, cleared up to sharedCount on every evaluation.
+    private MolangValue[] shared = NO_SHARED;
+    private int sharedCount = 0;
+    // Numeric subexpressions of the expression being evaluated. Interpreted expressions are classified once by the
+    // runtime, without the root itself (see NumericNodes#detached), so it is compared separately.
+    private NumericNodes numeric = NumericNodes.NONE;
+    private @Nullable MolangExpr numericRoot = null;
+    // Versions of the queries read by incremental evaluations, along with their last results. The expressions are
+    // weakly referenced (compiled expressions are compared by identity), so that a long lived frame does not keep
+    // every expression it evaluated alive, along with its hidden class.
+    private int queriesVersion = 0;
+    private final Map<String, Integer> queryVersions = new HashMap<>();
+    private final Map<CompiledMolang, IncrementalResult> incremental = new WeakHashMap<>();
+
+    /// Creates an evaluator with its own runtime. Prefer sharing a [MolangRuntime] when creating many evaluators
+    /// with the same globals.
     public MolangEvaluator(Map<String, MolangValue> initial) {
-        var entries = new HashMap<>(initial);
-        entries.putIfAbsent("variable", variable);
-        entries.putIfAbsent("v", variable);
-        entries.putIfAbsent("temp", temp);
-        entries.putIfAbsent("t", temp);
-        entries.putIfAbsent("math", MolangMath.MODULE);
-        entries.putIfAbsent("m", MolangMath.MODULE);
-        this.root = new HolderImpl(Map.copyOf(entries));
+        this(new MolangRuntime(initial));
+    }
+
+    /// Creates an evaluator with its own runtime whose variables and temps use the given layout.
+    public MolangEvaluator(Map<String, MolangValue> initial, SlotLayout layout) {
+        this(new MolangRuntime(initial, layout));
+    }
+
+    public MolangEvaluator(MolangRuntime runtime) {
+        this.runtime = runtime;
+        this.variable = new SlotStorage(runtime.layout(), SlotLayout.Scope.VARIABLE);
+        this.temp = new SlotStorage(runtime.layout(), SlotLayout.Scope.TEMP);
+        this.namespaceViews = runtime.namespaceCount() == 0 ? NO_VIEWS : new MolangValue[runtime.namespaceCount()];
+    }
+
+    public MolangRuntime runtime() {
+        return runtime;
     }
 
     public double eval(MolangExpr expr) {
-        loopCounter = MAX_LOOP_COUNTER;
-        errors.clear();
-        temp.clear();
-        final MolangValue value = Return.catching(() -> evalExpr(expr));
-        return unwrapNumber(value, () -> "Expected number, got: " + value + ", check errors for details.");
+        reset();
+        numeric = runtime.numericNodes(expr);
+        numericRoot = expr;
+        return interpret(expr);
+    }
+
+    double eval(CompiledMolang compiled) {
+        if (compiled.layout() != null && compiled.layout() != runtime.layout())
+            throw new IllegalArgumentException("expression was compiled against a different slot layout");
+        if (compiled.runtime() != null && compiled.runtime() != runtime)
+            throw new IllegalArgumentException("expression was linked against a different runtime");
+        if (compiled.runtime() == null && !runtime.defaultMath() && compiled.resolvesModules())
+            throw new IllegalArgumentException("expression was compiled against the default math module, "
+                    + "compile it against the runtime to use its modules");
+        reset();
+        numeric = compiled.numeric();
+        numericRoot = compiled.source();
+        return compiled.run(this);
+    }
+
+    /// Evaluates the compiled expression, unless none of its inputs changed since it was last evaluated incrementally
+    /// by this evaluator, in which case that result is returned again. See [CompiledMolang#evalIncremental].
+    double evalIncremental(CompiledMolang compiled) {
+        IncrementalResult cached = incremental.get(compiled);
+        if (cached == null) {
+            final MolangDependencies dependencies = MolangDependencies.of(compiled.source(), runtime.modules());
+            incremental.put(compiled, cached = new IncrementalResult(dependencies, runtime.layout()));
+        }
+        if (cached.refresh(this)) {
+            reset(); // The result is only reused if it was evaluated without errors
+            return cached.result();
+        }
+        final double result = eval(compiled);
+        cached.update(result, hasErrors());
+        return result;
+    }
+
+    /// Evaluates a top level expression without resetting state. Compiled backends delegate expressions which
+    /// contain `return` to this, as only the top level can consume the return signal.
+    double interpret(MolangExpr expr) {
+        final double result;
+        if (isNumeric(expr)) {
+            result = evalDouble(expr);
+        } else {
+            final MolangValue value = evalExpr(expr);
+            result = signal == Signal.NONE ? unwrapResult(expr, value) : 0.0;
+        }
+        if (signal == Signal.RETURN) {
+            signal = Signal.NONE;
+            return unwrapResult(expr, returnValue);
+        }
+        return result;
     }
 
     public boolean evalBool(MolangExpr expr) {
@@ -53,79 +159,447 @@ public final class MolangEvaluator {
         return variable.get(name);
     }
 
+    public void setVariable(String name, MolangValue value) {
+        variable.set(name, value);
+    }
+
+    public @Nullable Object getContext() {
+        return context;
+    }
+
+    /// Sets the object [QueryNamespace] fields are read from, usually the entity being evaluated. It is kept
+    /// between evaluations.
+    public void setContext(@Nullable Object context) {
+        if (context != this.context) queriesVersion++;
+        this.context = context;
+    }
+
+    /// Returns the generator [RandomFunction]s draw from on the calling thread.
+    public RandomGenerator getRandom() {
+        return random != null ? random : ThreadLocalRandom.current();
+    }
+
+    /// Sets the generator [RandomFunction]s such as `math.random` draw from. By default, or after setting null, they
+    /// draw from the [ThreadLocalRandom] of the thread evaluating. A seeded generator per entity makes their results
+    /// reproducible (eg for replays), see [net.hollowcube.molang.runtime.MolangRandom].
+    public void setRandom(@Nullable RandomGenerator random) {
+        this.random = random;
+    }
+
+    /// Marks a query field as changed in every namespace, so that incremental evaluations reading it are evaluated
+    /// again. Hosts must mark the queries they change, apart from changing the context.
+    public void markQueryChanged(String field) {
+        queryVersions.merge(field, 1, Integer::sum);
+    }
+
+    /// Marks every query as changed, eg after the object behind a query holder was replaced.
+    public void markQueriesChanged() {
+        queriesVersion++;
+    }
+
+    int queryVersion(String field) {
+        return queryVersions.getOrDefault(field, 0);
+    }
+
+    int queriesVersion() {
+        return queriesVersion;
+    }
+
+    int variableVersion(int slot) {
+        return variable.version(slot);
+    }
+
+    Object context() {
+        if (context == null) throw new IllegalStateException("query namespace read without a context");
+        return context;
+    }
+
+    /// Returns the errors recorded by the last evaluation. Messages are formatted lazily by [ContentError#message()].
     public List<ContentError> getErrors() {
-        return errors;
+        return recordedErrors == 0 ? List.of() : List.of(Arrays.copyOf(errors, recordedErrors));
     }
 
-    private MolangValue evalExpr(MolangExpr expr) {
-        try {
-            return switch (expr) {
-                case MolangExpr.Num num -> new MolangValue.Num(num.value());
-                case MolangExpr.Str str -> new MolangValue.Str(str.value());
-                case MolangExpr.Ident ident -> evalIdent(ident);
-                case MolangExpr.Access access -> evalAccess(access);
-                case MolangExpr.Unary unary -> evalUnary(unary);
-                case MolangExpr.Binary binary -> evalBinary(binary);
-                case MolangExpr.Ternary ternary -> evalTernary(ternary);
-                case MolangExpr.Block block -> evalBlock(block);
-                case MolangExpr.Call call -> evalCall(call);
-            };
-        } catch (Break | Continue value) {
-            if (!loopScope) {
-                // Outside of a loop break and continue just result in a content error.
-                errors.add(new ContentError(
-                        "Cannot use " + (value instanceof Break ? "break" : "continue") + " outside of a loop"));
-                return MolangValue.NIL;
+    /// Returns the number of errors in the last evaluation, including those not recorded in [ErrorMode#COUNT].
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean hasErrors() {
+        return errorCount != 0;
+    }
+
+    public ErrorMode getErrorMode() {
+        return errorMode;
+    }
+
+    public void setErrorMode(ErrorMode errorMode) {
+        this.errorMode = errorMode;
+    }
+
+    private void reset() {
+        loopCounter = MAX_LOOP_COUNTER;
+        if (recordedErrors != 0) {
+            Arrays.fill(errors, 0, recordedErrors, null); // Do not retain operands
+            recordedErrors = 0;
+        }
+        errorCount = 0;
+        signal = Signal.NONE;
+        returnValue = MolangValue.NIL;
+        temp.clear();
+        if (sharedCount != 0) {
+            Arrays.fill(shared, 0, sharedCount, null);
+            sharedCount = 0;
+        }
+    }
+
+    /// Reports a content error. Nothing is allocated unless errors are being recorded.
+    void error(ContentError.Code code, @Nullable MolangExpr node, @Nullable Object lhs, @Nullable Object rhs) {
+        errorCount++;
+        if (errorMode != ErrorMode.RECORD) return;
+        if (recordedErrors == errors.length)
+            errors = Arrays.copyOf(errors, Math.max(4, errors.length * 2));
+        errors[recordedErrors++] = new ContentError(code, node, lhs, rhs);
+    }
+
+    /// Same as [#error(ContentError.Code, MolangExpr, Object, Object)], but only boxes the operands if errors are
+    /// being recorded.
+    void error(ContentError.Code code, @Nullable MolangExpr node, double lhs, double rhs) {
+        if (errorMode != ErrorMode.RECORD) {
+            errorCount++;
+            return;
+        }
+        error(code, node, (Object) lhs, (Object) rhs);
+    }
+
+    /// Same as [#error(ContentError.Code, MolangExpr, Object, Object)] for an error with a single int value.
+    private void error(ContentError.Code code, @Nullable MolangExpr node, int value) {
+        if (errorMode != ErrorMode.RECORD) {
+            errorCount++;
+            return;
+        }
+        error(code, node, (Object) value, null);
+    }
+
+    /// Returns true if the subexpression of the expression being evaluated always evaluates to a number, regardless of
+    /// errors. Such subexpressions are evaluated with [#evalDouble(MolangExpr)] to avoid boxing intermediate results.
+    private boolean isNumeric(MolangExpr expr) {
+        return expr == numericRoot ? numeric.root() : numeric.contains(expr);
+    }
+
+    /// Returns the module function referenced by the access, if it is one. Without a runtime only the default `math`
+    /// module is resolved, as it is reserved in every runtime. Expressions compiled that way are rejected by runtimes
+    /// with another `math` module, such as an approximate one.
+    static MolangValue.@Nullable Function builtinFunction(MolangExpr.Access access, @Nullable MolangRuntime runtime) {
+        final ModuleFunction function = (runtime != null ? runtime.modules() : ModuleRegistry.DEFAULT).function(access);
+        return function != null ? function.function() : null;
+    }
+
+    /// Returns true if the expression contains a `return` anywhere.
+    static boolean containsReturn(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> false;
+            case MolangExpr.Str str -> false;
+            case MolangExpr.Ident(String ident) -> ident.equals("return");
+            case MolangExpr.Unary unary -> containsReturn(unary.rhs());
+            case MolangExpr.Binary binary -> containsReturn(binary.lhs()) || containsReturn(binary.rhs());
+            case MolangExpr.Ternary ternary -> containsReturn(ternary.cond())
+                    || containsReturn(ternary.thenExpr()) || containsReturn(ternary.elseExpr());
+            case MolangExpr.Access access -> containsReturn(access.lhs());
+            case MolangExpr.Call call -> containsReturn(call.lhs())
+                    || call.args().stream().anyMatch(MolangEvaluator::containsReturn);
+            case MolangExpr.Block block -> block.exprs().stream().anyMatch(MolangEvaluator::containsReturn);
+            case MolangExpr.Shared shared -> containsReturn(shared.expr());
+            case MolangExpr.Unrolled unrolled -> containsReturn(unrolled.loop());
+        };
+    }
+
+    /// Evaluates an expression. If a control flow signal is raised the result is nil and must be ignored.
+    MolangValue evalExpr(MolangExpr expr) {
+        if (isNumeric(expr))
+            return new MolangValue.Num(evalDouble(expr));
+        return switch (expr) {
+            case MolangExpr.Num num -> new MolangValue.Num(num.value());
+            case MolangExpr.Str str -> new MolangValue.Str(str.value());
+            case MolangExpr.Ident ident -> evalIdent(ident);
+            case MolangExpr.Access access -> evalAccess(access);
+            case MolangExpr.Unary unary -> evalUnary(unary);
+            case MolangExpr.Binary binary -> evalBinary(binary);
+            case MolangExpr.Ternary ternary -> evalTernary(ternary);
+            case MolangExpr.Block block -> evalBlock(block);
+            case MolangExpr.Call call -> evalCall(call);
+            case MolangExpr.Shared shared -> {
+                final MolangValue value = shared(shared.index());
+                yield value != null ? value : share(shared.index(), evalExpr(shared.expr()));
+            }
+            case MolangExpr.Unrolled unrolled -> {
+                if (!consumeIterations(unrolled.iterations()))
+                    yield evalExpr(unrolled.loop());
+                for (int i = 0; i < unrolled.times() && signal == Signal.NONE; i++)
+                    evalBlock(unrolled.body());
+                yield MolangValue.NIL;
             }
-            throw value;
+        };
+    }
+
+    /// Evaluates a subexpression for which [#isNumeric(MolangExpr)] is true without boxing any intermediate result.
+    /// Operands which are not statically numeric (holders, calls, etc) are evaluated boxed and unwrapped.
+    double evalDouble(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> num.value();
+            case MolangExpr.Unary unary -> evalUnaryDouble(unary);
+            case MolangExpr.Binary binary -> evalBinaryDouble(binary);
+            case MolangExpr.Ternary ternary -> {
+                final boolean condition = evalConditionDouble(ternary);
+                if (signal != Signal.NONE) yield 0.0;
+                yield condition ? evalDouble(ternary.thenExpr()) : evalDouble(ternary.elseExpr());
+            }
+            case MolangExpr.Shared shared -> {
+                final MolangValue value = shared(shared.index());
+                yield value != null ? ((MolangValue.Num) value).value() : share(shared.index(), evalDouble(shared.expr()));
+            }
+            default -> throw new IllegalArgumentException("not a numeric expression: " + expr);
+        };
+    }
+
+    private double evalUnaryDouble(MolangExpr.Unary unary) {
+        final double rhs;
+        final int rhsSlot;
+        if (isNumeric(unary.rhs())) {
+            rhs = evalDouble(unary.rhs());
+        } else if ((rhsSlot = numberSlot(unary.rhs())) != -1) {
+            rhs = slotNumber(unary.rhs(), rhsSlot);
+        } else {
+            final MolangValue rhsValue = evalExpr(unary.rhs());
+            if (signal != Signal.NONE) return 0.0;
+            if (!(rhsValue instanceof MolangValue.Num(double value)))
+                return ((MolangValue.Num) unary(unary, rhsValue)).value(); // Reports the error
+            rhs = value;
+        }
+        return switch (unary.op()) {
+            case NEGATE -> -rhs;
+            case NOT -> rhs != 0.0 ? 0.0 : 1.0;
+        };
+    }
+
+    private double evalBinaryDouble(MolangExpr.Binary binary) {
+        if (binary.op() == MolangExpr.Binary.Op.NULL_COALESCE) {
+            // Only numeric if the lhs is, in which case it is never nil.
+            return evalDouble(binary.lhs());
         }
+
+        final boolean lhsNumeric = isNumeric(binary.lhs());
+        final boolean rhsNumeric = isNumeric(binary.rhs());
+        if (lhsNumeric && rhsNumeric) {
+            final double lhs = evalDouble(binary.lhs());
+            if (signal != Signal.NONE) return 0.0;
+            final double rhs = evalDouble(binary.rhs());
+            if (signal != Signal.NONE) return 0.0;
+            return applyDouble(binary, lhs, rhs);
+        }
+
+        // Mixed operands, stay unboxed as long as the boxed values turn out to be numbers. Variables holding numbers
+        // are read without boxing them at all.
+        final int lhsSlot = lhsNumeric ? -1 : numberSlot(binary.lhs());
+        final MolangValue lhsValue = lhsNumeric || lhsSlot != -1 ? null : evalExpr(binary.lhs());
+        final double lhs = lhsNumeric ? evalDouble(binary.lhs())
+                : lhsSlot != -1 ? slotNumber(binary.lhs(), lhsSlot)
+                : lhsValue instanceof MolangValue.Num(double value) ? value : Double.NaN;
+        if (signal != Signal.NONE) return 0.0;
+        final int rhsSlot = rhsNumeric ? -1 : numberSlot(binary.rhs());
+        final MolangValue rhsValue = rhsNumeric || rhsSlot != -1 ? null : evalExpr(binary.rhs());
+        final double rhs = rhsNumeric ? evalDouble(binary.rhs())
+                : rhsSlot != -1 ? slotNumber(binary.rhs(), rhsSlot)
+                : rhsValue instanceof MolangValue.Num(double value) ? value : Double.NaN;
+        if (signal != Signal.NONE) return 0.0;
+        if ((lhsValue == null || lhsValue instanceof MolangValue.Num) && (rhsValue == null || rhsValue instanceof MolangValue.Num))
+            return applyDouble(binary, lhs, rhs);
+
+        // At least one side is not a number, use the boxed path to report the error.
+        return ((MolangValue.Num) binary(binary,
+                lhsValue != null ? lhsValue : new MolangValue.Num(lhs),
+                rhsValue != null ? rhsValue : new MolangValue.Num(rhs))).value();
+    }
+
+    /// Applies a binary operator to two numbers, matching [#binary(MolangExpr.Binary, MolangValue, MolangValue)].
+    private double applyDouble(MolangExpr.Binary binary, double lhs, double rhs) {
+        return switch (binary.op()) {
+            case PLUS -> lhs + rhs;
+            case MINUS -> lhs - rhs;
+            case MUL -> lhs * rhs;
+            case DIV -> divide(binary, lhs, rhs);
+            case GTE -> lhs >= rhs ? 1.0 : 0.0;
+            case GT -> lhs > rhs ? 1.0 : 0.0;
+            case LTE -> lhs <= rhs ? 1.0 : 0.0;
+            case LT -> lhs < rhs ? 1.0 : 0.0;
+            case EQ -> lhs == rhs ? 1.0 : 0.0;
+            case NEQ -> lhs != rhs ? 1.0 : 0.0;
+            case AND -> lhs != 0.0 && rhs != 0.0 ? 1.0 : 0.0;
+            case OR -> lhs != 0.0 || rhs != 0.0 ? 1.0 : 0.0;
+            case NULL_COALESCE -> throw new UnsupportedOperationException("unreachable");
+        };
+    }
+
+    private boolean evalConditionDouble(MolangExpr.Ternary ternary) {
+        if (isNumeric(ternary.cond()))
+            return evalDouble(ternary.cond()) != 0.0;
+        final int slot = numberSlot(ternary.cond());
+        if (slot != -1)
+            return slotNumber(ternary.cond(), slot) != 0.0;
+        final MolangValue value = evalExpr(ternary.cond());
+        if (signal != Signal.NONE) return false;
+        if (value instanceof MolangValue.Num(double number))
+            return number != 0.0;
+        return condition(ternary, value); // Reports the error
     }
 
     private MolangValue evalIdent(MolangExpr.Ident ident) {
         return switch (ident.value()) {
-            case "continue" -> throw new Continue();
-            case "break" -> throw new Break();
+            case "continue" -> signal(Signal.CONTINUE, ident);
+            case "break" -> signal(Signal.BREAK, ident);
             // TODO: return value? probably will end up as its own expr
-            case "return" -> throw new Return(MolangValue.NIL);
-            case "loop" -> LOOP_FUNC;
-            case "for_each" -> {
-                this.errors.add(new ContentError("'for_each' expressions are not supported"));
+            case "return" -> {
+                returnValue = MolangValue.NIL;
+                signal = Signal.RETURN;
                 yield MolangValue.NIL;
             }
-            case "this" -> {
-                this.errors.add(new ContentError("'this' expressions are not supported"));
+            case "loop" -> LOOP_FUNC;
+            case "for_each", "this" -> {
+                error(ContentError.Code.UNSUPPORTED, ident, ident.value(), null);
                 yield MolangValue.NIL;
             }
-            default -> root.get(ident.value());
+            default -> lookup(ident.value());
+        };
+    }
+
+    private MolangValue signal(Signal loopSignal, MolangExpr.Ident ident) {
+        if (loopScope) {
+            signal = loopSignal;
+        } else {
+            // Outside of a loop break and continue just result in a content error.
+            error(loopSignal == Signal.BREAK ? ContentError.Code.BREAK_OUTSIDE_LOOP
+                    : ContentError.Code.CONTINUE_OUTSIDE_LOOP, ident, null, null);
+        }
+        return MolangValue.NIL;
+    }
+
+    MolangValue lookup(String name) {
+        return switch (name) {
+            case "variable", "v" -> variable;
+            case "temp", "t" -> temp;
+            default -> {
+                final MolangValue global = runtime.global(name);
+                yield global instanceof MolangRuntime.NamespaceRef ref ? namespaceView(ref) : global;
+            }
         };
     }
 
+    private MolangValue namespaceView(MolangRuntime.NamespaceRef ref) {
+        MolangValue view = namespaceViews[ref.index()];
+        if (view == null) namespaceViews[ref.index()] = view = new NamespaceView(ref.namespace());
+        return view;
+    }
+
     private MolangValue evalAccess(MolangExpr.Access access) {
         final MolangValue lhs = evalExpr(access.lhs());
+        if (signal != Signal.NONE) return MolangValue.NIL;
+        return access(access, lhs);
+    }
+
+    MolangValue access(MolangExpr.Access access, MolangValue lhs) {
         if (!(lhs instanceof MolangValue.Holder holder)) {
-            errors.add(new ContentError("Cannot access field '" + access.field() + "' on: " + lhs));
+            error(ContentError.Code.INVALID_ACCESS, access, lhs, access.field());
             return MolangValue.NIL;
         }
 
         final MolangValue value = holder.get(access.field());
         // If the value is a function, we should call it with zero args.
         if (value instanceof MolangValue.Function func)
-            return evalCallInternal(func, List.of());
+            return call(access, func, List.of());
+        return value;
+    }
+
+    /// Returns the value of a shared subexpression if it was already evaluated during this evaluation, otherwise null.
+    @Nullable MolangValue shared(int index) {
+        return index < shared.length ? shared[index] : null;
+    }
+
+    /// Stores the value of a shared subexpression until the end of this evaluation.
+    MolangValue share(int index, MolangValue value) {
+        if (index >= shared.length)
+            shared = Arrays.copyOf(shared, Math.max(index + 1, shared.length * 2));
+        shared[index] = value;
+        sharedCount = Math.max(sharedCount, index + 1);
+        return value;
+    }
+
+    double share(int index, double value) {
+        share(index, new MolangValue.Num(value));
+        return value;
+    }
+
+    /// Reads a linked namespace field, the same as accessing it by name.
+    MolangValue read(MolangExpr.Access access, QueryNamespace.Field field) {
+        final MolangValue value = QueryNamespace.read(field, context());
+        if (value instanceof MolangValue.Function func)
+            return call(access, func, List.of());
         return value;
     }
 
     private MolangValue evalUnary(MolangExpr.Unary unary) {
-        var rhs = evalExpr(unary.rhs());
+        final MolangValue rhs = evalExpr(unary.rhs());
+        if (signal != Signal.NONE) return MolangValue.NIL;
+        return unary(unary, rhs);
+    }
+
+    MolangValue slot(MolangExpr.Access access, SlotLayout.Scope scope, int slot) {
+        final MolangValue value = storage(scope).get(slot);
+        // Same as a regular access, functions are called with zero args.
+        if (value instanceof MolangValue.Function func)
+            return call(access, func, List.of());
+        return value;
+    }
+
+    /// Returns true if the slot holds a number, which [#slotNumber(SlotLayout.Scope, int)] then reads without boxing.
+    /// Any other value is read with [#slot(MolangExpr.Access, SlotLayout.Scope, int)].
+    boolean isNumberSlot(SlotLayout.Scope scope, int slot) {
+        return storage(scope).isNumber(slot);
+    }
+
+    double slotNumber(SlotLayout.Scope scope, int slot) {
+        return storage(scope).getNumber(slot);
+    }
+
+    /// Returns the slot of a variable or temp access which currently holds a number, or -1.
+    private int numberSlot(MolangExpr expr) {
+        final SlotLayout.Scope scope = slotScope(expr);
+        if (scope == null) return -1;
+        final int slot = runtime.layout().slot(scope, ((MolangExpr.Access) expr).field());
+        return slot != -1 && storage(scope).isNumber(slot) ? slot : -1;
+    }
+
+    private double slotNumber(MolangExpr expr, int slot) {
+        return slotNumber(Objects.requireNonNull(slotScope(expr)), slot);
+    }
+
+    private static SlotLayout.@Nullable Scope slotScope(MolangExpr expr) {
+        return expr instanceof MolangExpr.Access(MolangExpr.Ident(String ident), String field)
+                ? SlotLayout.Scope.of(ident) : null;
+    }
+
+    private SlotStorage storage(SlotLayout.Scope scope) {
+        return scope == SlotLayout.Scope.VARIABLE ? variable : temp;
+    }
+
+    MolangValue unary(MolangExpr.Unary unary, MolangValue rhs) {
         return switch (unary.op()) {
-            case NEGATE -> new MolangValue.Num(-unwrapNumber(rhs,
-                    () -> "Cannot apply unary '-' to: " + rhs));
-            case NOT -> new MolangValue.Num(!unwrapBoolean(rhs,
-                    () -> "Cannot apply '!' to: " + rhs) ? 1.0 : 0.0);
+            case NEGATE -> new MolangValue.Num(-unwrapNumber(rhs, ContentError.Code.INVALID_UNARY_OPERAND, unary, null, rhs));
+            case NOT -> new MolangValue.Num(unwrapNumber(rhs, ContentError.Code.INVALID_UNARY_OPERAND, unary, null, rhs) == 0.0 ? 1.0 : 0.0);
         };
     }
 
     private MolangValue evalBinary(MolangExpr.Binary binary) {
         final MolangValue lhs = evalExpr(binary.lhs());
+        if (signal != Signal.NONE) return MolangValue.NIL;
         if (binary.op() == MolangExpr.Binary.Op.NULL_COALESCE) {
             if (lhs instanceof MolangValue.Nil)
                 return evalExpr(binary.rhs());
@@ -133,28 +607,32 @@ public final class MolangEvaluator {
         }
 
         final MolangValue rhs = evalExpr(binary.rhs());
-        Supplier<String> error = () -> "Cannot apply operator: " + lhs + " " + binary.op().symbol() + " " + rhs;
+        if (signal != Signal.NONE) return MolangValue.NIL;
+        return binary(binary, lhs, rhs);
+    }
+
+    MolangValue binary(MolangExpr.Binary binary, MolangValue lhs, MolangValue rhs) {
         return switch (binary.op()) {
-            case PLUS -> new MolangValue.Num(unwrapNumber(lhs, error) + unwrapNumber(rhs, error));
-            case MINUS -> new MolangValue.Num(unwrapNumber(lhs, error) - unwrapNumber(rhs, error));
+            case PLUS -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) + operand(binary, lhs, rhs, rhs));
+            case MINUS -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) - operand(binary, lhs, rhs, rhs));
             case DIV -> {
-                double rhsValue = unwrapNumber(rhs, error);
+                double rhsValue = operand(binary, lhs, rhs, rhs);
                 if (rhsValue == 0.0) {
-                    errors.add(new ContentError("Division by zero: " + lhs + " / " + rhs));
+                    error(ContentError.Code.DIVISION_BY_ZERO, binary, lhs, rhs);
                     yield new MolangValue.Num(0.0);
                 }
-                yield new MolangValue.Num(unwrapNumber(lhs, error) / rhsValue);
+                yield new MolangValue.Num(operand(binary, lhs, rhs, lhs) / rhsValue);
             }
-            case MUL -> new MolangValue.Num(unwrapNumber(lhs, error) * unwrapNumber(rhs, error));
-            case GTE -> new MolangValue.Num(unwrapNumber(lhs, error) >= unwrapNumber(rhs, error));
-            case GT -> new MolangValue.Num(unwrapNumber(lhs, error) > unwrapNumber(rhs, error));
-            case LTE -> new MolangValue.Num(unwrapNumber(lhs, error) <= unwrapNumber(rhs, error));
-            case LT -> new MolangValue.Num(unwrapNumber(lhs, error) < unwrapNumber(rhs, error));
+            case MUL -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) * operand(binary, lhs, rhs, rhs));
+            case GTE -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) >= operand(binary, lhs, rhs, rhs));
+            case GT -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) > operand(binary, lhs, rhs, rhs));
+            case LTE -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) <= operand(binary, lhs, rhs, rhs));
+            case LT -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) < operand(binary, lhs, rhs, rhs));
             case EQ, NEQ -> {
                 // If either is a number, then both must be.
                 if (lhs instanceof MolangValue.Num || rhs instanceof MolangValue.Num) {
-                    double lhsValue = unwrapNumber(lhs, error);
-                    double rhsValue = unwrapNumber(rhs, error);
+                    double lhsValue = operand(binary, lhs, rhs, lhs);
+                    double rhsValue = operand(binary, lhs, rhs, rhs);
                     yield new MolangValue.Num(binary.op() == MolangExpr.Binary.Op.EQ
                             ? lhsValue == rhsValue : lhsValue != rhsValue);
                 }
@@ -163,136 +641,270 @@ public final class MolangEvaluator {
                     yield new MolangValue.Num((binary.op() == MolangExpr.Binary.Op.EQ) == lhsValue.equals(rhsValue));
                 }
                 // Otherwise we do not know how to compare.
-                errors.add(new ContentError("Cannot apply operator: " + lhs + " " + binary.op().symbol() + " " + rhs));
+                error(ContentError.Code.INVALID_BINARY_OPERAND, binary, lhs, rhs);
                 yield new MolangValue.Num(0);
             }
-            case AND -> new MolangValue.Num(unwrapBoolean(lhs, error) && unwrapBoolean(rhs, error));
-            case OR -> new MolangValue.Num(unwrapBoolean(lhs, error) || unwrapBoolean(rhs, error));
+            case AND -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) != 0.0 && operand(binary, lhs, rhs, rhs) != 0.0);
+            case OR -> new MolangValue.Num(operand(binary, lhs, rhs, lhs) != 0.0 || operand(binary, lhs, rhs, rhs) != 0.0);
             // We already handled NULL_COALESCE above (to avoid evaluating rhs)
             case NULL_COALESCE -> throw new UnsupportedOperationException("unreachable");
         };
     }
 
+    /// Unwraps one operand of a binary expression, reporting an error with both operands if it is not a number.
+    private double operand(MolangExpr.Binary binary, MolangValue lhs, MolangValue rhs, MolangValue value) {
+        return unwrapNumber(value, ContentError.Code.INVALID_BINARY_OPERAND, binary, lhs, rhs);
+    }
+
     private MolangValue evalTernary(MolangExpr.Ternary ternary) {
-        final MolangValue conditionValue = evalExpr(ternary.cond());
-        final boolean condition = unwrapBoolean(conditionValue,
-                () -> "Condition must be a number, not: " + ternary);
+        final boolean condition = evalConditionDouble(ternary);
+        if (signal != Signal.NONE) return MolangValue.NIL;
         return condition ? evalExpr(ternary.thenExpr()) : evalExpr(ternary.elseExpr());
     }
 
+    boolean condition(MolangExpr.Ternary ternary, MolangValue conditionValue) {
+        return unwrapNumber(conditionValue, ContentError.Code.INVALID_CONDITION, ternary, conditionValue, null) != 0.0;
+    }
+
     private MolangValue evalBlock(MolangExpr.Block block) {
-        for (var expr : block.exprs())
+        for (var expr : block.exprs()) {
             evalExpr(expr); // Eval and ignore the results
+            if (signal != Signal.NONE) break;
+        }
         return MolangValue.NIL;
     }
 
     private MolangValue evalCall(MolangExpr.Call call) {
         final MolangValue lhs = switch (call.lhs()) {
-            case MolangExpr.Access access -> evalExpr(access.lhs()) instanceof MolangValue.Holder holder
-                    ? holder.get(access.field()) : MolangValue.NIL;
+            case MolangExpr.Access access -> callee(evalExpr(access.lhs()), access.field());
             default -> evalExpr(call.lhs());
         };
+        if (signal != Signal.NONE) return MolangValue.NIL;
         if (lhs == LOOP_FUNC) {
-            evalLoop(call.args());
-            return MolangValue.NIL;
-        }
-        if (!(lhs instanceof MolangValue.Function func)) {
-            errors.add(new ContentError("Cannot call non-function: " + lhs));
+            evalLoop(call);
             return MolangValue.NIL;
         }
+        if (!(lhs instanceof MolangValue.Function func))
+            return notCallable(call, lhs);
+        if (func instanceof MolangValue.NumericFunction numeric && numeric.arity() == call.args().size())
+            return evalNumericCall(call, numeric);
 
         var args = new ArrayList<MolangValue>();
         for (var arg : call.args()) {
-            var value = evalExpr(arg);
-            if (value instanceof MolangValue.Nil) {
-                errors.add(new ContentError("Cannot pass 'nil' as an argument to a function: " + call));
-                args.add(new MolangValue.Num(0.0)); // Replace nil with 0.0
+            final MolangValue value = evalExpr(arg);
+            if (signal != Signal.NONE) return MolangValue.NIL;
+            args.add(argument(call, value));
+        }
+
+        return call(call, func, args);
+    }
+
+    /// Evaluates the arguments as doubles and calls the function without collecting them into a list.
+    private MolangValue evalNumericCall(MolangExpr.Call call, MolangValue.NumericFunction func) {
+        double a = 0.0, b = 0.0, c = 0.0, d = 0.0;
+        for (int i = 0; i < func.arity(); i++) {
+            final MolangExpr arg = call.args().get(i);
+            final double value;
+            final int slot;
+            if (isNumeric(arg)) {
+                value = evalDouble(arg);
+            } else if ((slot = numberSlot(arg)) != -1) {
+                value = slotNumber(arg, slot);
+            } else {
+                final MolangValue argValue = evalExpr(arg);
+                if (signal != Signal.NONE) return MolangValue.NIL;
+                value = numericArgument(call, argValue);
+            }
+            if (signal != Signal.NONE) return MolangValue.NIL;
+            switch (i) {
+                case 0 -> a = value;
+                case 1 -> b = value;
+                case 2 -> c = value;
+                default -> d = value;
             }
-            args.add(value);
         }
+        if (func instanceof RandomFunction randomFunc)
+            return call(call, randomFunc, a, b, c);
+        return switch (func) {
+            case MolangValue.Function0 f -> call(call, f);
+            case MolangValue.Function1 f -> call(call, f, a);
+            case MolangValue.Function2 f -> call(call, f, a, b);
+            case MolangValue.Function3 f -> call(call, f, a, b, c);
+            case MolangValue.Function4 f -> call(call, f, a, b, c, d);
+        };
+    }
+
+    MolangValue callee(MolangValue lhs, String field) {
+        return lhs instanceof MolangValue.Holder holder ? holder.get(field) : MolangValue.NIL;
+    }
+
+    MolangValue notCallable(MolangExpr.Call call, MolangValue lhs) {
+        error(ContentError.Code.NOT_CALLABLE, call, lhs, null);
+        return MolangValue.NIL;
+    }
+
+    MolangValue argument(MolangExpr.Call call, MolangValue value) {
+        if (value instanceof MolangValue.Nil) {
+            error(ContentError.Code.NIL_ARGUMENT, call, null, null);
+            return new MolangValue.Num(0.0); // Replace nil with 0.0
+        }
+        return value;
+    }
+
+    /// Unwraps an argument of a [MolangValue.NumericFunction] the same way as [MolangValue.Function#apply(List)].
+    double numericArgument(MolangExpr.Call call, MolangValue value) {
+        return argument(call, value) instanceof MolangValue.Num(double number) ? number : 0.0;
+    }
 
-        return evalCallInternal(func, args);
+    MolangValue invoke(MolangExpr.Call call, MolangValue func, MolangValue[] args) {
+        return call(call, (MolangValue.Function) func, List.of(args));
     }
 
-    private MolangValue evalCallInternal(MolangValue.Function func, List<MolangValue> args) {
+    /// Calls a function, reporting its failures at the given node (the call, or the access calling it with no args).
+    MolangValue call(MolangExpr node, MolangValue.Function func, List<MolangValue> args) {
+        if (func instanceof RandomFunction randomFunc && func instanceof MolangValue.NumericFunction numeric
+                && numeric.arity() == args.size()) {
+            final double[] numbers = new double[3];
+            for (int i = 0; i < args.size(); i++)
+                numbers[i] = args.get(i) instanceof MolangValue.Num(double number) ? number : 0.0;
+            return call(node, randomFunc, numbers[0], numbers[1], numbers[2]);
+        }
         try {
             return func.apply(args);
-        } catch (MolangContentException e) {
-            errors.add(e.toContentError());
         } catch (Exception e) {
-            errors.add(new ContentError("Error while calling function: " + func + ": " + e.getMessage()));
+            return failed(node, func, e);
+        }
+    }
+
+    // Fixed arity calls, the results are still boxed so that a failed call can return nil like any other.
+
+    MolangValue call(MolangExpr node, MolangValue.Function0 func) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble());
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    MolangValue call(MolangExpr node, MolangValue.Function1 func, double a) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble(a));
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    MolangValue call(MolangExpr node, MolangValue.Function2 func, double a, double b) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble(a, b));
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    MolangValue call(MolangExpr node, MolangValue.Function3 func, double a, double b, double c) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble(a, b, c));
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    MolangValue call(MolangExpr node, MolangValue.Function4 func, double a, double b, double c, double d) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble(a, b, c, d));
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    /// Calls a random function with the generator of this evaluator, arguments past its arity are 0.
+    MolangValue call(MolangExpr node, RandomFunction func, double a, double b, double c) {
+        try {
+            return new MolangValue.Num(func.applyAsDouble(getRandom(), a, b, c));
+        } catch (Exception e) {
+            return failed(node, func, e);
+        }
+    }
+
+    private MolangValue failed(MolangExpr node, Object func, Exception e) {
+        if (e instanceof MolangContentException) {
+            error(ContentError.Code.FUNCTION_ERROR, node, e.getMessage(), null);
+        } else {
+            error(ContentError.Code.FUNCTION_EXCEPTION, node, func, e.getMessage());
         }
         return MolangValue.NIL;
     }
 
-    private void evalLoop(List<MolangExpr> args) {
+    private void evalLoop(MolangExpr.Call call) {
+        final List<MolangExpr> args = call.args();
         if (args.size() != 2) {
-            errors.add(new ContentError("loop requires exactly 2 arguments, got: " + args.size()));
+            error(ContentError.Code.LOOP_ARITY, call, args.size());
             return;
         }
         final MolangValue iterCountValue = evalExpr(args.getFirst());
-        final int iterCount = (int) unwrapNumber(iterCountValue,
-                () -> "loop requires a number as the first argument, got: " + iterCountValue);
+        if (signal != Signal.NONE) return;
+        final int iterCount = (int) unwrapNumber(iterCountValue, ContentError.Code.LOOP_COUNT,
+                args.getFirst(), iterCountValue, null);
         if (!(args.getLast() instanceof MolangExpr.Block)) {
-            errors.add(new ContentError("loop requires a block as the second argument, got: " + args.getLast()));
+            error(ContentError.Code.LOOP_BODY, args.getLast(), null, null);
             return;
         }
 
         var lastLoopScope = loopScope;
         loopScope = true; // Enter loop
-        try {
-            for (int i = 0; i < iterCount; i++) {
-                if (loopCounter-- <= 0) {
-                    errors.add(new ContentError("Loop counter exceeded maximum limit of " + MAX_LOOP_COUNTER));
-                    return;
-                }
+        for (int i = 0; i < iterCount; i++) {
+            if (loopCounter-- <= 0) {
+                error(ContentError.Code.LOOP_LIMIT, call, MAX_LOOP_COUNTER);
+                break;
+            }
 
-                try {
-                    evalExpr(args.getLast());
-                } catch (Break e) {
-                    break;
-                } catch (Continue ignored) {
-                    // Continue to the next iteration
-                }
+            evalExpr(args.getLast());
+            if (signal == Signal.BREAK) {
+                signal = Signal.NONE;
+                break;
             }
-        } finally {
-            loopScope = lastLoopScope; // Exit loop
+            if (signal == Signal.CONTINUE)
+                signal = Signal.NONE; // Continue to the next iteration
+            else if (signal == Signal.RETURN)
+                break; // Keep unwinding
         }
+        loopScope = lastLoopScope; // Exit loop
     }
 
-    private boolean unwrapBoolean(MolangValue value, Supplier<String> errorSupplier) {
-        return unwrapNumber(value, errorSupplier) != 0.0;
+    /// Takes the iterations of an unrolled loop from the loop limit, if enough remain.
+    boolean consumeIterations(int iterations) {
+        if (loopCounter < iterations) return false;
+        loopCounter -= iterations;
+        return true;
     }
 
-    private double unwrapNumber(MolangValue value, Supplier<String> errorSupplier) {
-        if (value instanceof MolangValue.Num(double val))
-            return val;
-        errors.add(new ContentError(errorSupplier.get()));
+    /// Unwraps the result of a top level expression.
+    double unwrapResult(MolangExpr expr, MolangValue value) {
+        if (value instanceof MolangValue.Num(double number))
+            return number;
+        error(ContentError.Code.NON_NUMERIC_RESULT, expr, value, null);
         return 0.0;
     }
 
-    // Control flow exceptions below
-
-    private static class Break extends RuntimeException {
+    double divide(MolangExpr.Binary binary, double lhs, double rhs) {
+        if (rhs == 0.0) {
+            error(ContentError.Code.DIVISION_BY_ZERO, binary, lhs, rhs);
+            return 0.0;
+        }
+        return lhs / rhs;
     }
 
-    private static class Continue extends RuntimeException {
+    private double unwrapNumber(MolangValue value, ContentError.Code code, @Nullable MolangExpr node,
+                                @Nullable Object lhs, @Nullable Object rhs) {
+        if (value instanceof MolangValue.Num(double val))
+            return val;
+        error(code, node, lhs, rhs);
+        return 0.0;
     }
 
-    private static class Return extends RuntimeException {
-        public static MolangValue catching(Supplier<MolangValue> supplier) {
-            try {
-                return supplier.get();
-            } catch (Return ret) {
-                return ret.value;
-            }
-        }
-
-        private final MolangValue value;
-
-        public Return(MolangValue value) {
-            this.value = value;
-        }
+    private enum Signal {
+        NONE, BREAK, CONTINUE, RETURN
     }
 
     // Other builtins
@@ -304,21 +916,17 @@ public final class MolangEvaluator {
         }
     }
 
-    static class MutableHolderImpl implements MolangValue.Holder.Mutable {
-        private final Map<String, MolangValue> state = new HashMap<>();
+    /// A namespace read by name with the context of this evaluator.
+    private final class NamespaceView implements MolangValue.Holder {
+        private final QueryNamespace<?> namespace;
 
-        @Override
-        public void set(String field, MolangValue value) {
-            state.put(field, value);
+        NamespaceView(QueryNamespace<?> namespace) {
+            this.namespace = namespace;
         }
 
         @Override
         public MolangValue get(String field) {
-            return state.getOrDefault(field, MolangValue.NIL);
-        }
-
-        public void clear() {
-            state.clear();
+            return QueryNamespace.read(namespace.field(field), context());
         }
     }
 }
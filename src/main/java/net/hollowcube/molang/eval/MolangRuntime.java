@@ -0,0 +1,112 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/// The immutable part of an evaluation environment: the globals (queries, custom holders and functions), the
+/// [QueryNamespace]s, the [ModuleRegistry] and the [SlotLayout] used for variables and temps.
+///
+/// A runtime is safe to share between threads. Each thread evaluates through its own [MolangEvaluator] created by
+/// [#newFrame()], which holds the mutable per-evaluation state (variables, temps, errors and loop state) and is
+/// cheap enough to create per entity or to reuse across many evaluations.
+public final class MolangRuntime {
+    private final Map<String, MolangValue> globals;
+    private final SlotLayout layout;
+    private final ModuleRegistry modules;
+    // Whether expressions compiled without a runtime, which resolve math against the default registry, may run here.
+    private final boolean defaultMath;
+    private final int namespaceCount;
+    private final NumericCache numericCache = new NumericCache();
+
+    /// Placeholder global for a namespace, each frame replaces it with a holder reading from the frame's context.
+    record NamespaceRef(int index, QueryNamespace<?> namespace) implements MolangValue.Holder {
+        @Override
+        public MolangValue get(String field) {
+            return MolangValue.NIL;
+        }
+    }
+
+    public MolangRuntime(Map<String, MolangValue> globals) {
+        this(globals, new SlotLayout());
+    }
+
+    /// Creates a runtime whose frames use the given layout for variables and temps. Expressions compiled against
+    /// the same layout may read them by slot.
+    ///
+    /// The names `variable`, `v`, `temp`, `t`, `math` and `m` are reserved, any globals with those names are ignored.
+    public MolangRuntime(Map<String, MolangValue> globals, SlotLayout layout) {
+        this(globals, layout, Map.of());
+    }
+
+    /// Creates a runtime with the given query namespaces, which take precedence over globals of the same name.
+    /// Expressions compiled against this runtime link accesses of namespace fields ahead of time.
+    ///
+    /// The same names are reserved as for globals.
+    public MolangRuntime(Map<String, MolangValue> globals, SlotLayout layout, Map<String, QueryNamespace<?>> namespaces) {
+        this(globals, layout, namespaces, ModuleRegistry.DEFAULT);
+    }
+
+    /// Creates a runtime exposing the modules of the given registry. Module namespaces are reserved in the same way
+    /// as `math`, they take precedence over globals and query namespaces of the same name.
+    public MolangRuntime(Map<String, MolangValue> globals, SlotLayout layout, Map<String, QueryNamespace<?>> namespaces,
+                         ModuleRegistry modules) {
+        this.layout = layout;
+        this.modules = modules;
+        this.defaultMath = modules.module("math") == ModuleRegistry.DEFAULT.module("math");
+
+        var entries = new HashMap<>(globals);
+        int index = 0;
+        for (var namespace : namespaces.entrySet())
+            entries.put(namespace.getKey(), new NamespaceRef(index++, namespace.getValue()));
+        this.namespaceCount = index;
+        // Variables and temps are provided by each frame.
+        entries.remove("variable");
+        entries.remove("v");
+        entries.remove("temp");
+        entries.remove("t");
+        // Compiled backends rely on these being the registered modules.
+        entries.putAll(modules.modules());
+        this.globals = Map.copyOf(entries);
+    }
+
+    public SlotLayout layout() {
+        return layout;
+    }
+
+    public ModuleRegistry modules() {
+        return modules;
+    }
+
+    boolean defaultMath() {
+        return defaultMath;
+    }
+
+    /// Creates a new evaluation frame. Frames must not be used by more than one thread at a time.
+    public MolangEvaluator newFrame() {
+        return new MolangEvaluator(this);
+    }
+
+    MolangValue global(String name) {
+        return globals.getOrDefault(name, MolangValue.NIL);
+    }
+
+    /// Returns the numeric subexpressions of an interpreted expression, classified once per runtime.
+    NumericNodes numericNodes(MolangExpr expr) {
+        return numericCache.get(expr);
+    }
+
+    int namespaceCount() {
+        return namespaceCount;
+    }
+
+    /// Returns the field an access links to if its lhs names a namespace. Undeclared fields link to nil.
+    QueryNamespace.@Nullable Field link(MolangExpr.Access access) {
+        if (!(access.lhs() instanceof MolangExpr.Ident(String name)) || !(globals.get(name) instanceof NamespaceRef ref))
+            return null;
+        return ref.namespace().field(access.field());
+    }
+}
@@ -1,5 +1,7 @@
 package net.hollowcube.molang.eval;
 
+import net.hollowcube.molang.runtime.MolangContentException;
+
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +40,102 @@ public sealed interface MolangValue {
 
     }
 
+    /// A [Function] of a fixed number of numbers, returning a number.
+    ///
+    /// The evaluator, the compiled backends and the optimizer call `applyAsDouble` directly when a call has
+    /// exactly [#arity()] arguments, without boxing them or collecting them into a list. [#apply(List)] remains
+    /// the generic fallback, it rejects any other argument count and treats arguments which are not numbers as 0.
+    sealed interface NumericFunction extends Function permits Function0, Function1, Function2, Function3, Function4 {
+
+        int arity();
+
+    }
+
+    @FunctionalInterface
+    non-sealed interface Function0 extends NumericFunction {
+
+        double applyAsDouble();
+
+        @Override
+        default int arity() {
+            return 0;
+        }
+
+        @Override
+        default MolangValue apply(List<MolangValue> args) {
+            checkArity(this, args);
+            return new Num(applyAsDouble());
+        }
+    }
+
+    @FunctionalInterface
+    non-sealed interface Function1 extends NumericFunction {
+
+        double applyAsDouble(double a);
+
+        @Override
+        default int arity() {
+            return 1;
+        }
+
+        @Override
+        default MolangValue apply(List<MolangValue> args) {
+            checkArity(this, args);
+            return new Num(applyAsDouble(number(args, 0)));
+        }
+    }
+
+    @FunctionalInterface
+    non-sealed interface Function2 extends NumericFunction {
+
+        double applyAsDouble(double a, double b);
+
+        @Override
+        default int arity() {
+            return 2;
+        }
+
+        @Override
+        default MolangValue apply(List<MolangValue> args) {
+            checkArity(this, args);
+            return new Num(applyAsDouble(number(args, 0), number(args, 1)));
+        }
+    }
+
+    @FunctionalInterface
+    non-sealed interface Function3 extends NumericFunction {
+
+        double applyAsDouble(double a, double b, double c);
+
+        @Override
+        default int arity() {
+            return 3;
+        }
+
+        @Override
+        default MolangValue apply(List<MolangValue> args) {
+            checkArity(this, args);
+            return new Num(applyAsDouble(number(args, 0), number(args, 1), number(args, 2)));
+        }
+    }
+
+    @FunctionalInterface
+    non-sealed interface Function4 extends NumericFunction {
+
+        double applyAsDouble(double a, double b, double c, double d);
+
+        @Override
+        default int arity() {
+            return 4;
+        }
+
+        @Override
+        default MolangValue apply(List<MolangValue> args) {
+            checkArity(this, args);
+            return new Num(applyAsDouble(number(args, 0), number(args, 1), number(args, 2), number(args, 3)));
+        }
+    }
+
     non-sealed interface Holder extends MolangValue {
         static Holder holder(Map<String, MolangValue> map) {
             return new MolangEvaluator.HolderImpl(Map.copyOf(map));
@@ -50,4 +148,14 @@ public sealed interface MolangValue {
         }
     }
 
+    private static void checkArity(NumericFunction func, List<MolangValue> args) {
+        if (args.size() != func.arity())
+            throw new MolangContentException("Expected %d arguments got %d for %s".formatted(func.arity(), args.size(), func));
+    }
+
+    private static double number(List<MolangValue> args, int index) {
+        // TODO: this needs to generate a content error...
+        return args.get(index) instanceof Num(double value) ? value : 0.0;
+    }
+
 }
@@ -0,0 +1,84 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/// The [NumericNodes] of the expressions interpreted by the frames of a runtime, so that switching between expressions
+/// does not classify them again.
+///
+/// Expressions are compared by identity and weakly referenced, the classifications do not reference the expression
+/// they belong to (see [NumericNodes#detached(MolangExpr)]). Lookups of classified expressions take no lock and
+/// allocate nothing, classifying a new expression locks the cache.
+final class NumericCache {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final class Entry extends WeakReference<MolangExpr> {
+        private final int hash;
+        private final NumericNodes numeric;
+        private final @Nullable Entry next;
+
+        Entry(MolangExpr expr, int hash, NumericNodes numeric, @Nullable Entry next,
+              ReferenceQueue<MolangExpr> queue) {
+            super(expr, queue);
+            this.hash = hash;
+            this.numeric = numeric;
+            this.next = next;
+        }
+    }
+
+    private final ReferenceQueue<MolangExpr> queue = new ReferenceQueue<>();
+    // Chains are never modified once published, removing entries rebuilds the table.
+    private volatile AtomicReferenceArray<@Nullable Entry> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size = 0; // Guarded by this.
+
+    NumericNodes get(MolangExpr expr) {
+        final NumericNodes numeric = find(table, expr, System.identityHashCode(expr));
+        return numeric != null ? numeric : add(expr);
+    }
+
+    private synchronized NumericNodes add(MolangExpr expr) {
+        final int hash = System.identityHashCode(expr);
+        NumericNodes numeric = find(table, expr, hash);
+        if (numeric != null) return numeric;
+
+        boolean collected = false;
+        while (queue.poll() != null) collected = true;
+        final boolean full = size >= table.length() / 4 * 3;
+        if (collected || full) rebuild(full ? table.length() * 2 : table.length());
+
+        numeric = NumericNodes.detached(expr);
+        final AtomicReferenceArray<@Nullable Entry> table = this.table;
+        final int index = hash & (table.length() - 1);
+        table.set(index, new Entry(expr, hash, numeric, table.get(index), queue));
+        size++;
+        return numeric;
+    }
+
+    /// Replaces the table with one of the given capacity holding the entries whose expression is still alive.
+    private void rebuild(int capacity) {
+        final AtomicReferenceArray<@Nullable Entry> old = table;
+        final AtomicReferenceArray<@Nullable Entry> rebuilt = new AtomicReferenceArray<>(capacity);
+        size = 0;
+        for (int i = 0; i < old.length(); i++) {
+            for (Entry entry = old.get(i); entry != null; entry = entry.next) {
+                final MolangExpr expr = entry.get();
+                if (expr == null) continue;
+                final int index = entry.hash & (capacity - 1);
+                rebuilt.set(index, new Entry(expr, entry.hash, entry.numeric, rebuilt.get(index), queue));
+                size++;
+            }
+        }
+        table = rebuilt;
+    }
+
+    private static @Nullable NumericNodes find(AtomicReferenceArray<@Nullable Entry> table, MolangExpr expr, int hash) {
+        for (Entry entry = table.get(hash & (table.length() - 1)); entry != null; entry = entry.next) {
+            if (entry.hash == hash && entry.get() == expr) return entry.numeric;
+        }
+        return null;
+    }
+}
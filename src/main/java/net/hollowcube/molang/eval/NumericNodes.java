@@ -0,0 +1,110 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/// The subexpressions of an expression which always evaluate to a number, regardless of errors. Such subexpressions
+/// are evaluated as primitive doubles rather than boxed values.
+///
+/// Numbers, unary operators and binary operators other than `??` are numeric on their own. Whether a ternary, a shared
+/// subexpression or a `??` is numeric depends on its children, so those are classified once for the whole tree and only
+/// looked up while evaluating. Namespace fields are numeric if they link to a number getter of the runtime.
+final class NumericNodes {
+    static final NumericNodes NONE = new NumericNodes(null);
+
+    private final @Nullable MolangRuntime runtime;
+    // The numeric nodes whose classification depends on their children or on the runtime, by identity.
+    private final Set<MolangExpr> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<MolangExpr.Shared> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean root = false;
+
+    private NumericNodes(@Nullable MolangRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /// Classifies every subexpression of the expression. Without a runtime, namespace fields are never numeric.
+    static NumericNodes of(MolangExpr expr, @Nullable MolangRuntime runtime) {
+        final NumericNodes numeric = new NumericNodes(runtime);
+        numeric.root = numeric.classify(expr);
+        numeric.visited.clear();
+        return numeric;
+    }
+
+    /// Classifies the expression for the interpreter, without referencing the expression itself so that it may be
+    /// cached by a weak reference to it. Only [#root()] tells whether the expression itself is numeric.
+    static NumericNodes detached(MolangExpr expr) {
+        final NumericNodes numeric = of(expr, null);
+        numeric.nodes.remove(expr);
+        return numeric;
+    }
+
+    /// Returns true if the classified expression itself always evaluates to a number.
+    boolean root() {
+        return root;
+    }
+
+    /// Returns true if the subexpression always evaluates to a number. Subexpressions of other trees are numeric only
+    /// if they are on their own.
+    boolean contains(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> true;
+            case MolangExpr.Unary unary -> true;
+            case MolangExpr.Binary binary -> binary.op() != MolangExpr.Binary.Op.NULL_COALESCE || nodes.contains(binary);
+            case MolangExpr.Ternary ternary -> nodes.contains(ternary);
+            case MolangExpr.Access access -> nodes.contains(access);
+            case MolangExpr.Shared shared -> nodes.contains(shared);
+            default -> false;
+        };
+    }
+
+    private boolean classify(MolangExpr expr) {
+        final boolean numeric = switch (expr) {
+            case MolangExpr.Num num -> true;
+            case MolangExpr.Str str -> false;
+            case MolangExpr.Ident ident -> false;
+            case MolangExpr.Unary unary -> {
+                classify(unary.rhs());
+                yield true;
+            }
+            case MolangExpr.Binary binary -> {
+                final boolean lhs = classify(binary.lhs());
+                classify(binary.rhs());
+                // A number is never nil, so the rhs of a numeric ?? is unreachable.
+                yield binary.op() != MolangExpr.Binary.Op.NULL_COALESCE || lhs;
+            }
+            case MolangExpr.Ternary ternary -> {
+                classify(ternary.cond());
+                final boolean thenExpr = classify(ternary.thenExpr());
+                final boolean elseExpr = classify(ternary.elseExpr());
+                yield thenExpr && elseExpr;
+            }
+            case MolangExpr.Access access -> {
+                classify(access.lhs());
+                yield runtime != null && runtime.link(access) instanceof QueryNamespace.NumberField;
+            }
+            case MolangExpr.Call call -> {
+                classify(call.lhs());
+                for (MolangExpr arg : call.args()) classify(arg);
+                yield false;
+            }
+            case MolangExpr.Block block -> {
+                for (MolangExpr subExpr : block.exprs()) classify(subExpr);
+                yield false;
+            }
+            // Every occurrence is the same instance, so its subtree is only walked once.
+            case MolangExpr.Shared shared -> visited.add(shared) ? classify(shared.expr()) : nodes.contains(shared);
+            case MolangExpr.Unrolled unrolled -> {
+                classify(unrolled.loop());
+                classify(unrolled.body());
+                yield false;
+            }
+        };
+        if (numeric && !(expr instanceof MolangExpr.Num) && !(expr instanceof MolangExpr.Unary))
+            nodes.add(expr);
+        return numeric;
+    }
+}
@@ -0,0 +1,95 @@
+package net.hollowcube.molang.eval;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/// A query namespace (eg `query`/`q`) whose fields are declared up front and read from a host context object.
+///
+/// A [MolangValue.Holder] is asked for each field by name on every access. A namespace is instead registered with a
+/// [MolangRuntime], and expressions compiled against that runtime link each access to the field getter once, so a
+/// read is a direct call with the frame's context (see [MolangEvaluator#setContext(Object)]). Numeric fields are
+/// read without boxing. Accesses of fields which are not declared are linked to nil.
+///
+/// The interpreter and unlinked expressions still read namespaces by name, with the same results.
+///
+/// @param <C> the type of the context object fields are read from
+public final class QueryNamespace<C> {
+
+    /// A declared field, resolved once per access when linking.
+    sealed interface Field {
+    }
+
+    record NumberField(ToDoubleFunction<Object> getter) implements Field {
+    }
+
+    record ValueField(Function<Object, MolangValue> getter) implements Field {
+    }
+
+    /// The field linked for names which were not declared.
+    static final Field MISSING = new ValueField(context -> MolangValue.NIL);
+
+    public static <C> Builder<C> builder() {
+        return new Builder<>();
+    }
+
+    public static final class Builder<C> {
+        private final Map<String, Field> fields = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /// Declares a numeric field, the getter is called with the context on every read.
+        @SuppressWarnings("unchecked")
+        public Builder<C> number(String name, ToDoubleFunction<? super C> getter) {
+            return field(name, new NumberField((ToDoubleFunction<Object>) getter));
+        }
+
+        /// Declares a field of any type. If the getter returns a function it is called with zero args, the same as
+        /// a function returned by a holder.
+        @SuppressWarnings("unchecked")
+        public Builder<C> value(String name, Function<? super C, ? extends MolangValue> getter) {
+            return field(name, new ValueField((Function<Object, MolangValue>) getter));
+        }
+
+        public QueryNamespace<C> build() {
+            return new QueryNamespace<>(Map.copyOf(fields));
+        }
+
+        private Builder<C> field(String name, Field field) {
+            if (fields.putIfAbsent(name, field) != null)
+                throw new IllegalArgumentException("duplicate field: " + name);
+            return this;
+        }
+    }
+
+    private final Map<String, Field> fields;
+
+    private QueryNamespace(Map<String, Field> fields) {
+        this.fields = fields;
+    }
+
+    /// The names of the declared fields.
+    public Set<String> names() {
+        return fields.keySet();
+    }
+
+    Field field(String name) {
+        return fields.getOrDefault(name, MISSING);
+    }
+
+    /// Reads a field from the context, boxing numbers. Functions are returned as is.
+    static MolangValue read(Field field, Object context) {
+        return switch (field) {
+            case NumberField(var getter) -> new MolangValue.Num(getter.applyAsDouble(context));
+            case ValueField(var getter) -> getter.apply(context);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "QueryNamespace" + fields.keySet();
+    }
+}
@@ -0,0 +1,118 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/// Assigns an integer slot to each distinct `variable.*` and `temp.*` name.
+///
+/// A layout is usually resolved from the set of expressions which will run against the same evaluators (for
+/// example all animation expressions of an entity type), then shared by those evaluators and by any expressions
+/// compiled against it. Compiled expressions read and write variables by slot index instead of by name.
+///
+/// Layouts only ever grow, so slots stay valid once assigned. Names set by the host which were not resolved
+/// ahead of time are appended when first written. Layouts are safe to share between threads.
+public final class SlotLayout {
+
+    public enum Scope {
+        VARIABLE, TEMP;
+
+        /// Returns the scope referenced by the given root identifier, if any.
+        public static @Nullable Scope of(String ident) {
+            return switch (ident) {
+                case "variable", "v" -> VARIABLE;
+                case "temp", "t" -> TEMP;
+                default -> null;
+            };
+        }
+    }
+
+    public static SlotLayout resolve(MolangExpr... exprs) {
+        return resolve(List.of(exprs));
+    }
+
+    public static SlotLayout resolve(Collection<? extends MolangExpr> exprs) {
+        final SlotLayout layout = new SlotLayout();
+        for (MolangExpr expr : exprs)
+            layout.add(expr);
+        return layout;
+    }
+
+    private final Map<String, Integer> variables = new ConcurrentHashMap<>();
+    private final Map<String, Integer> temps = new ConcurrentHashMap<>();
+
+    /// Assigns slots to every variable and temp referenced in the expression which does not already have one.
+    public SlotLayout add(MolangExpr expr) {
+        switch (expr) {
+            case MolangExpr.Num num -> {
+            }
+            case MolangExpr.Str str -> {
+            }
+            case MolangExpr.Ident ident -> {
+            }
+            case MolangExpr.Unary unary -> add(unary.rhs());
+            case MolangExpr.Binary binary -> {
+                add(binary.lhs());
+                add(binary.rhs());
+            }
+            case MolangExpr.Ternary ternary -> {
+                add(ternary.cond());
+                add(ternary.thenExpr());
+                add(ternary.elseExpr());
+            }
+            case MolangExpr.Access access -> {
+                final Scope scope = access.lhs() instanceof MolangExpr.Ident(String ident) ? Scope.of(ident) : null;
+                if (scope != null) slotOrCreate(scope, access.field());
+                else add(access.lhs());
+            }
+            case MolangExpr.Call call -> {
+                add(call.lhs());
+                for (MolangExpr arg : call.args()) add(arg);
+            }
+            case MolangExpr.Block block -> {
+                for (MolangExpr subExpr : block.exprs()) add(subExpr);
+            }
+            case MolangExpr.Shared shared -> add(shared.expr());
+            case MolangExpr.Unrolled unrolled -> add(unrolled.loop());
+        }
+        return this;
+    }
+
+    /// Returns the slot of the given name, or -1 if it has not been assigned one.
+    public int slot(Scope scope, String name) {
+        return names(scope).getOrDefault(name, -1);
+    }
+
+    /// Returns the number of slots currently assigned in the given scope.
+    public int size(Scope scope) {
+        return names(scope).size();
+    }
+
+    /// Returns the slot referenced by the access if it is a variable or temp which has been assigned one, or -1.
+    int slot(MolangExpr.Access access) {
+        if (!(access.lhs() instanceof MolangExpr.Ident(String ident))) return -1;
+        final Scope scope = Scope.of(ident);
+        return scope != null ? slot(scope, access.field()) : -1;
+    }
+
+    int slotOrCreate(Scope scope, String name) {
+        final Map<String, Integer> names = names(scope);
+        final Integer existing = names.get(name);
+        if (existing != null) return existing;
+        synchronized (names) {
+            // Slots must be dense, so assignment is serialized per scope.
+            return names.computeIfAbsent(name, ignored -> names.size());
+        }
+    }
+
+    private Map<String, Integer> names(Scope scope) {
+        return switch (scope) {
+            case VARIABLE -> variables;
+            case TEMP -> temps;
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package net.hollowcube.molang.eval;
+
+import java.util.Arrays;
+
+/// Slot-indexed storage for one [SlotLayout.Scope].
+///
+/// Numbers are stored unboxed, any other value is kept in a side table. Clearing bumps a generation counter
+/// instead of touching the arrays, a slot is only set if it was written during the current generation.
+///
+/// Each slot also has a version which changes whenever its value does, used to find out if an incremental evaluation
+/// is stale. Clearing does not change versions.
+final class SlotStorage implements MolangValue.Holder.Mutable {
+    private final SlotLayout layout;
+    private final SlotLayout.Scope scope;
+
+    private int generation = 1;
+    private int[] generations;
+    private double[] numbers;
+    private MolangValue[] values; // null for numbers
+    private int[] versions;
+
+    SlotStorage(SlotLayout layout, SlotLayout.Scope scope) {
+        this.layout = layout;
+        this.scope = scope;
+
+        final int size = layout.size(scope);
+        this.generations = new int[size];
+        this.numbers = new double[size];
+        this.values = new MolangValue[size];
+        this.versions = new int[size];
+    }
+
+    @Override
+    public MolangValue get(String field) {
+        final int slot = layout.slot(scope, field);
+        return slot == -1 ? MolangValue.NIL : get(slot);
+    }
+
+    @Override
+    public void set(String field, MolangValue value) {
+        set(layout.slotOrCreate(scope, field), value);
+    }
+
+    public MolangValue get(int slot) {
+        if (slot >= generations.length || generations[slot] != generation)
+            return MolangValue.NIL;
+        final MolangValue value = values[slot];
+        return value != null ? value : new MolangValue.Num(numbers[slot]);
+    }
+
+    /// Returns true if the slot currently holds a number, which [#getNumber(int)] reads without boxing it.
+    public boolean isNumber(int slot) {
+        return slot < generations.length && generations[slot] == generation && values[slot] == null;
+    }
+
+    /// Reads a slot for which [#isNumber(int)] is true.
+    public double getNumber(int slot) {
+        return numbers[slot];
+    }
+
+    public void set(int slot, MolangValue value) {
+        ensureCapacity(slot + 1);
+        final boolean set = generations[slot] == generation;
+        if (value instanceof MolangValue.Nil) {
+            if (set) versions[slot]++;
+            generations[slot] = 0;
+            values[slot] = null;
+            return;
+        }
+
+        generations[slot] = generation;
+        if (value instanceof MolangValue.Num(double number)) {
+            if (!set || values[slot] != null || numbers[slot] != number) versions[slot]++;
+            numbers[slot] = number;
+            values[slot] = null;
+        } else {
+            if (!set || !value.equals(values[slot])) versions[slot]++;
+            values[slot] = value;
+        }
+    }
+
+    public int version(int slot) {
+        return slot < versions.length ? versions[slot] : 0;
+    }
+
+    public void clear() {
+        if (++generation == 0) {
+            // Wrapped around, stale slots could become visible again so actually clear them.
+            Arrays.fill(generations, 0);
+            Arrays.fill(values, null);
+            generation = 1;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= generations.length) return;
+        // The layout may have grown since this storage was created.
+        final int newSize = Math.max(size, Math.max(layout.size(scope), generations.length * 2));
+        generations = Arrays.copyOf(generations, newSize);
+        numbers = Arrays.copyOf(numbers, newSize);
+        values = Arrays.copyOf(values, newSize);
+        versions = Arrays.copyOf(versions, newSize);
+    }
+}
@@ -0,0 +1,71 @@
+package net.hollowcube.molang.runtime;
+
+import java.util.Map;
+
+/// The approximated easing functions of [MolangMath#module(boolean, boolean)], keyed by the name of their `math.ease_*`
+/// function.
+///
+/// Curves built on `Math.sin` or `Math.pow` with a variable exponent (sine, expo and elastic) are read from an
+/// [EasingTable]. Polynomial curves are computed with multiplications rather than `Math.pow`, which only changes the
+/// rounding. Bounce and the square root of circ are already cheap, so they are the same as [EasingFunction]. Every
+/// approximation is within [MolangMath#APPROXIMATE_EASING_ERROR] of the exact function on `[0, 1]` and equal to it
+/// at 0 and 1.
+final class ApproximateEasing {
+    private static final double BACK = 1.70158, BACK_IN_OUT = 2.5949095;
+
+    static final Map<String, EasingFunction> BY_NAME = Map.ofEntries(
+            Map.entry("ease_in_back", EasingFunction.easeInBack),
+            Map.entry("ease_in_bounce", EasingFunction.easeInBounce),
+            Map.entry("ease_in_circ", x -> 1 - Math.sqrt(1 - x * x)),
+            Map.entry("ease_in_cubic", EasingFunction.easeInCubic),
+            Map.entry("ease_in_elastic", new EasingTable(EasingFunction.easeInElastic)),
+            Map.entry("ease_in_expo", new EasingTable(EasingFunction.easeInExpo)),
+            Map.entry("ease_in_back_out", ApproximateEasing::easeInOutBack),
+            Map.entry("ease_in_out_bounce", EasingFunction.easeInOutBounce),
+            Map.entry("ease_in_out_circ", ApproximateEasing::easeInOutCirc),
+            Map.entry("ease_in_out_cubic", x -> x < 0.5 ? 4 * x * x * x : 1 - cube(-2 * x + 2) / 2),
+            Map.entry("ease_in_out_elastic", new EasingTable(EasingFunction.easeInOutElastic)),
+            Map.entry("ease_in_out_expo", new EasingTable(EasingFunction.easeInOutExpo)),
+            Map.entry("ease_in_out_quad", x -> x < 0.5 ? 2 * x * x : 1 - square(-2 * x + 2) / 2),
+            Map.entry("ease_in_out_quart", x -> x < 0.5 ? 8 * x * x * x * x : 1 - square(square(-2 * x + 2)) / 2),
+            Map.entry("ease_in_out_quint", x -> x < 0.5 ? 16 * x * x * x * x * x
+                    : 1 - square(square(-2 * x + 2)) * (-2 * x + 2) / 2),
+            Map.entry("ease_in_out_sine", new EasingTable(EasingFunction.easeInOutSine)),
+            Map.entry("ease_in_quad", EasingFunction.easeInQuad),
+            Map.entry("ease_in_quart", EasingFunction.easeInQuart),
+            Map.entry("ease_in_quint", EasingFunction.easeInQuint),
+            Map.entry("ease_in_sine", new EasingTable(EasingFunction.easeInSine)),
+            Map.entry("ease_out_back", x -> 1 + 3.5949095 * cube(x - 1) + BACK * square(x - 1)),
+            Map.entry("ease_out_bounce", EasingFunction.easeOutBounce),
+            Map.entry("ease_out_circ", x -> Math.sqrt(1 - square(x - 1))),
+            Map.entry("ease_out_elastic", new EasingTable(EasingFunction.easeOutElastic)),
+            Map.entry("ease_out_expo", new EasingTable(EasingFunction.easeOutExpo)),
+            Map.entry("ease_out_quad", EasingFunction.easeOutQuad),
+            Map.entry("ease_out_quart", x -> 1 - square(square(1 - x))),
+            Map.entry("ease_out_quint", x -> 1 - square(square(1 - x)) * (1 - x)),
+            Map.entry("ease_out_sine", new EasingTable(EasingFunction.easeOutSine))
+    );
+
+    private static double easeInOutBack(double x) {
+        return x < 0.5
+                ? (square(2 * x) * ((BACK_IN_OUT + 1) * 2 * x - BACK_IN_OUT)) / 2
+                : (square(2 * x - 2) * ((BACK_IN_OUT + 1) * (x * 2 - 2) + BACK_IN_OUT) + 2) / 2;
+    }
+
+    private static double easeInOutCirc(double x) {
+        return x < 0.5
+                ? (1 - Math.sqrt(1 - square(2 * x))) / 2
+                : (Math.sqrt(1 - square(-2 * x + 2)) + 1) / 2;
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+
+    private static double cube(double x) {
+        return x * x * x;
+    }
+
+    private ApproximateEasing() {
+    }
+}
@@ -1,4 +1,87 @@
 package net.hollowcube.molang.runtime;
 
-public record ContentError(String message) {
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+/// An error caused by the content being evaluated (as opposed to a bug in the evaluator).
+///
+/// Errors are recorded as a code plus the node and operands involved, the message is only formatted when
+/// [#message()] is called.
+///
+/// @param node the expression which caused the error, if known
+/// @param lhs  the first operand or detail of the error, see [Code]
+/// @param rhs  the second operand or detail of the error, see [Code]
+public record ContentError(Code code, @Nullable MolangExpr node, @Nullable Object lhs, @Nullable Object rhs) {
+
+    public enum Code {
+        /// A custom error message, held in `lhs`.
+        CUSTOM,
+        /// A function threw a [MolangContentException], its message is held in `lhs`.
+        FUNCTION_ERROR,
+        /// A function threw an unexpected exception. `lhs` is the function and `rhs` the exception message.
+        FUNCTION_EXCEPTION,
+        /// The operand of a unary expression (`node`) was not a number, the operand is held in `rhs`.
+        INVALID_UNARY_OPERAND,
+        /// An operand of a binary expression (`node`) had the wrong type, the operands are held in `lhs` and `rhs`.
+        INVALID_BINARY_OPERAND,
+        /// The divisor was zero, the operands are held in `lhs` and `rhs`.
+        DIVISION_BY_ZERO,
+        /// The condition of a ternary (`node`) was not a number.
+        INVALID_CONDITION,
+        /// A field (`rhs`) was accessed on a value which is not a holder (`lhs`).
+        INVALID_ACCESS,
+        /// A value which is not a function (`lhs`) was called.
+        NOT_CALLABLE,
+        /// Nil was passed as an argument to a call (`node`).
+        NIL_ARGUMENT,
+        /// `break` was used outside of a loop.
+        BREAK_OUTSIDE_LOOP,
+        /// `continue` was used outside of a loop.
+        CONTINUE_OUTSIDE_LOOP,
+        /// An unsupported keyword (`lhs`) was used.
+        UNSUPPORTED,
+        /// `loop` was called with the wrong number of arguments, the count is held in `lhs`.
+        LOOP_ARITY,
+        /// The iteration count of a loop (`lhs`) was not a number.
+        LOOP_COUNT,
+        /// The body of a loop (`node`) was not a block.
+        LOOP_BODY,
+        /// Loops exceeded the iteration limit, held in `lhs`.
+        LOOP_LIMIT,
+        /// The result of the expression (`lhs`) was not a number.
+        NON_NUMERIC_RESULT,
+    }
+
+    public ContentError(String message) {
+        this(Code.CUSTOM, null, message, null);
+    }
+
+    public String message() {
+        return switch (code) {
+            case CUSTOM, FUNCTION_ERROR -> String.valueOf(lhs);
+            case FUNCTION_EXCEPTION -> "Error while calling function: " + lhs + ": " + rhs;
+            case INVALID_UNARY_OPERAND -> node instanceof MolangExpr.Unary(var op, var ignored) && op == MolangExpr.Unary.Op.NOT
+                    ? "Cannot apply '!' to: " + rhs : "Cannot apply unary '-' to: " + rhs;
+            case INVALID_BINARY_OPERAND -> "Cannot apply operator: " + lhs + " "
+                    + (node instanceof MolangExpr.Binary binary ? binary.op().symbol() : "?") + " " + rhs;
+            case DIVISION_BY_ZERO -> "Division by zero: " + lhs + " / " + rhs;
+            case INVALID_CONDITION -> "Condition must be a number, not: " + node;
+            case INVALID_ACCESS -> "Cannot access field '" + rhs + "' on: " + lhs;
+            case NOT_CALLABLE -> "Cannot call non-function: " + lhs;
+            case NIL_ARGUMENT -> "Cannot pass 'nil' as an argument to a function: " + node;
+            case BREAK_OUTSIDE_LOOP -> "Cannot use break outside of a loop";
+            case CONTINUE_OUTSIDE_LOOP -> "Cannot use continue outside of a loop";
+            case UNSUPPORTED -> "'" + lhs + "' expressions are not supported";
+            case LOOP_ARITY -> "loop requires exactly 2 arguments, got: " + lhs;
+            case LOOP_COUNT -> "loop requires a number as the first argument, got: " + lhs;
+            case LOOP_BODY -> "loop requires a block as the second argument, got: " + node;
+            case LOOP_LIMIT -> "Loop counter exceeded maximum limit of " + lhs;
+            case NON_NUMERIC_RESULT -> "Expected number, got: " + lhs + ", check errors for details.";
+        };
+    }
+
+    @Override
+    public String toString() {
+        return code + ": " + message();
+    }
 }
@@ -0,0 +1,31 @@
+package net.hollowcube.molang.runtime;
+
+/// An [EasingFunction] approximated by linear interpolation between samples of it taken ahead of time.
+///
+/// Inputs of exactly 0 and 1 and inputs outside that range are passed to the exact function, so the approximation
+/// starts and ends exactly where the exact function does.
+final class EasingTable implements EasingFunction {
+    static final int SIZE = 1024;
+
+    private final EasingFunction exact;
+    private final double[] samples = new double[SIZE + 1];
+
+    EasingTable(EasingFunction exact) {
+        this.exact = exact;
+        for (int i = 1; i < SIZE; i++)
+            samples[i] = exact.apply((double) i / SIZE);
+        // Some curves jump at 0 or 1 (eg `2^(10x - 10)` is 0 at 0), the inside of the range is interpolated towards
+        // the limits instead.
+        samples[0] = exact.apply(Math.nextUp(0.0));
+        samples[SIZE] = exact.apply(Math.nextDown(1.0));
+    }
+
+    @Override
+    public double apply(double t) {
+        if (!(t > 0 && t < 1)) return exact.apply(t); // Also NaN
+        final double x = t * SIZE;
+        final int i = (int) x;
+        final double lower = samples[i];
+        return lower + (samples[i + 1] - lower) * (x - i);
+    }
+}
@@ -0,0 +1,102 @@
+package net.hollowcube.molang.runtime;
+
+/// Degree based trigonometry for [MolangMath#module(boolean, boolean)], without converting to radians first.
+///
+/// `sin` and `cos` reduce the angle to a quarter turn around a multiple of 90 degrees, then evaluate a polynomial of
+/// that remainder. The inverse functions reduce their argument to `[0, 1]`, then to within 1/16 of a multiple of 1/8
+/// whose arctangent is kept in a table. See [MolangMath#APPROXIMATE_TRIGONOMETRY_ERROR] for the error bounds.
+///
+/// Multiples of 90 degrees are exact, as are the inverse functions at 0, 1 and infinity.
+final class FastTrig {
+    // Beyond this, multiples of 90 degrees can no longer be subtracted exactly, the angle is reduced to a full turn
+    // first (exactly, unlike converting it to radians).
+    private static final double MAX_REDUCIBLE = 0x1p45;
+    private static final double HALF_PI = Math.PI / 2;
+
+    // Taylor coefficients, the remainder is at most pi/4 so the first omitted term is below 2e-9.
+    private static final double S3 = -1.0 / 6, S5 = 1.0 / 120, S7 = -1.0 / 5040, S9 = 1.0 / 362880;
+    private static final double C2 = -1.0 / 2, C4 = 1.0 / 24, C6 = -1.0 / 720, C8 = 1.0 / 40320, C10 = -1.0 / 3628800;
+
+    // atan(k / 8) in degrees.
+    private static final double[] ATAN_EIGHTHS = new double[9];
+
+    static {
+        for (int k = 0; k < ATAN_EIGHTHS.length; k++)
+            ATAN_EIGHTHS[k] = Math.toDegrees(Math.atan(k / 8.0));
+        ATAN_EIGHTHS[8] = 45; // Exactly
+    }
+
+    static double sin(double degrees) {
+        if (!(Math.abs(degrees) < MAX_REDUCIBLE)) degrees = Math.IEEEremainder(degrees, 360); // NaN for infinity
+        final double quadrant = Math.rint(degrees / 90);
+        final double radians = (degrees - quadrant * 90) * (HALF_PI / 90);
+        return switch ((int) (long) quadrant & 3) {
+            case 0 -> sinPoly(radians);
+            case 1 -> cosPoly(radians);
+            case 2 -> -sinPoly(radians);
+            default -> -cosPoly(radians);
+        };
+    }
+
+    static double cos(double degrees) {
+        if (!(Math.abs(degrees) < MAX_REDUCIBLE)) degrees = Math.IEEEremainder(degrees, 360); // NaN for infinity
+        final double quadrant = Math.rint(degrees / 90);
+        final double radians = (degrees - quadrant * 90) * (HALF_PI / 90);
+        return switch ((int) (long) quadrant & 3) {
+            case 0 -> cosPoly(radians);
+            case 1 -> -sinPoly(radians);
+            case 2 -> -cosPoly(radians);
+            default -> sinPoly(radians);
+        };
+    }
+
+    static double atan(double value) {
+        final double abs = Math.abs(value);
+        final double degrees = abs <= 1 ? atanUnit(abs) : 90 - atanUnit(1 / abs); // NaN stays NaN
+        return Math.copySign(degrees, value);
+    }
+
+    static double atan2(double y, double x) {
+        if (!Double.isFinite(x) || !Double.isFinite(y) || (x == 0 && y == 0))
+            return Math.toDegrees(Math.atan2(y, x));
+        final double ax = Math.abs(x), ay = Math.abs(y);
+        double degrees = ay <= ax ? atanUnit(ay / ax) : 90 - atanUnit(ax / ay);
+        if (x < 0) degrees = 180 - degrees;
+        return Math.copySign(degrees, y);
+    }
+
+    /// The caller checks that the value is in `[-1, 1]`.
+    static double asin(double value) {
+        return atan2(value, Math.sqrt((1 - value) * (1 + value)));
+    }
+
+    /// The caller checks that the value is in `[-1, 1]`.
+    static double acos(double value) {
+        return atan2(Math.sqrt((1 - value) * (1 + value)), value);
+    }
+
+    private static double sinPoly(double x) {
+        final double x2 = x * x;
+        return x + x * x2 * (S3 + x2 * (S5 + x2 * (S7 + x2 * S9)));
+    }
+
+    private static double cosPoly(double x) {
+        final double x2 = x * x;
+        return 1 + x2 * (C2 + x2 * (C4 + x2 * (C6 + x2 * (C8 + x2 * C10))));
+    }
+
+    /// The arctangent in degrees of a value in `[0, 1]`, using `atan(x) = atan(c) + atan((x - c) / (1 + x c))` for
+    /// the nearest `c = k / 8`.
+    private static double atanUnit(double value) {
+        final int k = (int) Math.rint(value * 8);
+        final double c = k / 8.0;
+        final double t = (value - c) / (1 + value * c);
+        final double t2 = t * t;
+        // |t| <= 1/16, so the first omitted term is below 3e-12.
+        final double radians = t * (1 + t2 * (-1.0 / 3 + t2 * (1.0 / 5 + t2 * (-1.0 / 7))));
+        return ATAN_EIGHTHS[k] + Math.toDegrees(radians);
+    }
+
+    private FastTrig() {
+    }
+}
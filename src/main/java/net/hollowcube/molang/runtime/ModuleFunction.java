@@ -0,0 +1,56 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.eval.MolangValue;
+
+/// A function of a [MolangModule] along with the metadata the optimizer and evaluators rely on.
+///
+/// @param arity         the number of arguments the function takes, or -1 if it is variadic
+/// @param pure          whether calling the function has no observable side effects
+/// @param deterministic whether the function always returns the same result for the same arguments
+/// @param foldable      whether calls with constant arguments may be evaluated once when the expression is optimized,
+///                      only possible for pure and deterministic functions
+public record ModuleFunction(
+        String name, MolangValue.Function function,
+        int arity, boolean pure, boolean deterministic, boolean foldable
+) {
+
+    public ModuleFunction {
+        if (foldable && !(pure && deterministic))
+            throw new IllegalArgumentException("only pure and deterministic functions may be folded: " + name);
+        if (arity < -1)
+            throw new IllegalArgumentException("invalid arity for " + name + ": " + arity);
+        if (function instanceof RandomFunction && !(arity >= 0 && arity <= 3))
+            throw new IllegalArgumentException("random functions take at most 3 numeric arguments: " + name);
+        if (function instanceof RandomFunction && deterministic)
+            throw new IllegalArgumentException("random functions are not deterministic: " + name);
+    }
+
+    /// A pure and deterministic function, which may be folded.
+    public static ModuleFunction pure(String name, MolangValue.Function function) {
+        return new ModuleFunction(name, function, arityOf(function), true, true, true);
+    }
+
+    /// A function without side effects whose result may differ between calls (eg random numbers).
+    public static ModuleFunction nondeterministic(String name, MolangValue.Function function) {
+        return new ModuleFunction(name, function, arityOf(function), true, false, false);
+    }
+
+    /// A function with side effects, it is called every time the expression is evaluated.
+    public static ModuleFunction impure(String name, MolangValue.Function function) {
+        return new ModuleFunction(name, function, arityOf(function), false, false, false);
+    }
+
+    /// Returns a copy which is never folded, even if pure and deterministic (eg to keep an expensive lookup lazy).
+    public ModuleFunction notFoldable() {
+        return new ModuleFunction(name, function, arity, pure, deterministic, false);
+    }
+
+    /// Whether a call with the given number of arguments matches the arity of the function.
+    public boolean accepts(int argCount) {
+        return arity == -1 || arity == argCount;
+    }
+
+    private static int arityOf(MolangValue.Function function) {
+        return function instanceof MolangValue.NumericFunction numeric ? numeric.arity() : -1;
+    }
+}
@@ -0,0 +1,95 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/// The set of [MolangModule]s available to expressions, keyed by namespace.
+///
+/// The registry is the single source of function metadata: a [net.hollowcube.molang.eval.MolangRuntime] exposes its
+/// modules as globals, compiled backends resolve their functions ahead of time and
+/// [net.hollowcube.molang.MolangOptimizer] folds calls of foldable functions with constant arguments. Expressions
+/// optimized against a registry must be evaluated by runtimes created with that registry.
+///
+/// Every registry contains [MolangMath#MODULE], or an approximation of it, as `math` and `m`. Registries are
+/// immutable.
+public final class ModuleRegistry {
+    private static final Set<String> RESERVED = Set.of("math", "m", "variable", "v", "temp", "t");
+
+    public static final ModuleRegistry DEFAULT = builder().build();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final Map<String, MolangModule> modules = new HashMap<>();
+        private boolean approximateEasing = false;
+        private boolean approximateTrigonometry = false;
+
+        private Builder() {
+            modules.put("math", MolangMath.MODULE);
+            modules.put("m", MolangMath.MODULE);
+        }
+
+        /// Whether `math` and `m` approximate the `math.ease_*` functions, trading their exactness for speed. See
+        /// [MolangMath#module(boolean, boolean)]. Disabled by default.
+        public Builder approximateEasing(boolean approximate) {
+            this.approximateEasing = approximate;
+            return this;
+        }
+
+        /// Whether `math` and `m` approximate `sin`, `cos`, `atan`, `atan2`, `asin` and `acos`, trading their
+        /// exactness for speed. See [MolangMath#module(boolean, boolean)]. Disabled by default.
+        public Builder approximateTrigonometry(boolean approximate) {
+            this.approximateTrigonometry = approximate;
+            return this;
+        }
+
+        /// Registers the module under each of the given namespaces, by convention its name and first letter.
+        public Builder module(MolangModule module, String... namespaces) {
+            for (String namespace : namespaces) {
+                if (RESERVED.contains(namespace))
+                    throw new IllegalArgumentException("reserved namespace: " + namespace);
+                if (modules.putIfAbsent(namespace, module) != null)
+                    throw new IllegalArgumentException("duplicate namespace: " + namespace);
+            }
+            return this;
+        }
+
+        public ModuleRegistry build() {
+            final MolangModule math = MolangMath.module(approximateEasing, approximateTrigonometry);
+            modules.put("math", math);
+            modules.put("m", math);
+            return new ModuleRegistry(Map.copyOf(modules));
+        }
+    }
+
+    private final Map<String, MolangModule> modules;
+
+    private ModuleRegistry(Map<String, MolangModule> modules) {
+        this.modules = modules;
+    }
+
+    /// The registered modules keyed by namespace, aliases included.
+    public Map<String, MolangModule> modules() {
+        return modules;
+    }
+
+    public @Nullable MolangModule module(String namespace) {
+        return modules.get(namespace);
+    }
+
+    public @Nullable ModuleFunction function(String namespace, String name) {
+        final MolangModule module = modules.get(namespace);
+        return module != null ? module.function(name) : null;
+    }
+
+    /// Returns the function referenced by an access such as `math.sin`, if any.
+    public @Nullable ModuleFunction function(MolangExpr.Access access) {
+        return access.lhs() instanceof MolangExpr.Ident(String namespace) ? function(namespace, access.field()) : null;
+    }
+}
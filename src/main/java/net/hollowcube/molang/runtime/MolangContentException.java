@@ -6,6 +6,6 @@ public class MolangContentException extends RuntimeException {
     }
 
     public ContentError toContentError() {
-        return new ContentError(getMessage());
+        return new ContentError(ContentError.Code.FUNCTION_ERROR, null, getMessage(), null);
     }
 }
@@ -1,20 +1,44 @@
 package net.hollowcube.molang.runtime;
 
 import net.hollowcube.molang.eval.MolangValue;
-import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 public final class MolangMath {
     private static final int DIE_ROLL_ITERATION_LIMIT = Integer.getInteger("molang.die-roll-iteration-limit", 100);
 
-    public static final MolangValue.Holder MODULE = new HolderImpl();
-    public static final Set<String> IMPURE_METHODS = Set.of(
-            "die_roll", "die_roll_integer",
-            "random", "random_integer"
-    );
+    public static final MolangModule MODULE = Functions.module();
+    // Indexed by approximateEasing + 2 * approximateTrigonometry, the first one is MODULE.
+    private static final MolangModule[] MODULES = {
+            MODULE,
+            Functions.approximate(MODULE, true, false),
+            Functions.approximate(MODULE, false, true),
+            Functions.approximate(MODULE, true, true)
+    };
+    /// The maximum absolute error of the approximated easing curves, before scaling by `end - start`.
+    public static final double APPROXIMATE_EASING_ERROR = 1e-4;
+    /// The maximum absolute error of the approximated `sin` and `cos`, and of `atan`, `atan2`, `asin` and `acos` in
+    /// degrees.
+    public static final double APPROXIMATE_TRIGONOMETRY_ERROR = 1e-8;
+
+    /// Returns the math module with some of its functions approximated. Without approximations this is [#MODULE].
+    ///
+    /// With `approximateEasing`, the `ease_*` curves built on `sin` or `pow` interpolate a table of samples and
+    /// polynomial curves avoid `Math.pow`. Each easing curve is within [#APPROXIMATE_EASING_ERROR] of the exact one for
+    /// inputs between 0 and 1, and exact at 0 and 1 (and outside that range).
+    ///
+    /// With `approximateTrigonometry`, `sin`, `cos`, `atan`, `atan2`, `asin` and `acos` work in degrees directly,
+    /// reducing their argument to a small range and evaluating a polynomial. They are within
+    /// [#APPROXIMATE_TRIGONOMETRY_ERROR] of the exact functions (of the exact degree to radian conversion, which
+    /// `Math.toRadians` loses for large angles), and exact at multiples of 90 degrees.
+    ///
+    /// Enable them for a runtime with [ModuleRegistry.Builder#approximateEasing(boolean)] and
+    /// [ModuleRegistry.Builder#approximateTrigonometry(boolean)].
+    public static MolangModule module(boolean approximateEasing, boolean approximateTrigonometry) {
+        return MODULES[(approximateEasing ? 1 : 0) + (approximateTrigonometry ? 2 : 0)];
+    }
 
     private static void assertion(boolean condition, String message) {
         if (!condition) {
@@ -73,18 +97,82 @@ public final class MolangMath {
 
     /// Returns the sum of 'num' random numbers, each with a value from low to high. Note: the generated random numbers are not integers like normal dice. For that, use math.die_roll_integer.
     public static double dieRoll(double num, double low, double high) {
-        double total = 0;
-        for (int i = 0; i < Math.clamp(num, 0, DIE_ROLL_ITERATION_LIMIT); i++)
-            total += random(low, high);
-        return total;
+        return dieRoll(ThreadLocalRandom.current(), num, low, high);
+    }
+
+    /// [#dieRoll(double, double, double)] drawing from the given generator. Each die takes 32 random bits, so two dice
+    /// are rolled per draw, each uniform on a grid of 2^32 steps from low to high.
+    public static double dieRoll(RandomGenerator random, double num, double low, double high) {
+        final int dice = dieCount(num);
+        if (dice == 0) return 0;
+        assertion(low < high && Double.isFinite(high - low), "die_roll: low must be less than high");
+        long total = 0; // The sum of the dice in steps, at most 100 * 2^32
+        for (int i = 0; i < dice; i += 2) {
+            final long bits = random.nextLong();
+            total += bits >>> 32;
+            if (i + 1 < dice) total += bits & 0xffffffffL;
+        }
+        return dice * low + (high - low) * (total * 0x1p-32);
     }
 
     /// Returns the sum of 'num' random integer numbers, each with a value from low to high. Note: the generated random numbers are integers like normal dice.
     public static double dieRollInteger(double num, double low, double high) {
-        double total = 0;
-        for (int i = 0; i < Math.clamp(num, 0, DIE_ROLL_ITERATION_LIMIT); i++)
-            total += randomInteger(low, high);
-        return total;
+        return dieRollInteger(ThreadLocalRandom.current(), num, low, high);
+    }
+
+    /// [#dieRollInteger(double, double, double)] drawing from the given generator. As many dice as have fewer than
+    /// 2^63 outcomes together are rolled per draw, eg 24 six sided dice, and the sum has exactly the distribution of
+    /// rolling them one by one.
+    public static double dieRollInteger(RandomGenerator random, double num, double low, double high) {
+        final int dice = dieCount(num);
+        if (dice == 0) return 0;
+        final double min = (int) low, max = (int) high;
+        assertion(min <= max, "die_roll_integer: low must not be greater than high");
+        final long faces = (long) max - (long) min + 1;
+        if (faces == 1) return dice * min;
+
+        int perDraw = 1;
+        long outcomes = faces;
+        while (perDraw < dice && outcomes <= Long.MAX_VALUE / faces) {
+            outcomes *= faces;
+            perDraw++;
+        }
+        long total = 0;
+        int rolled = 0;
+        for (; rolled + perDraw <= dice; rolled += perDraw)
+            total += rollDice(random, faces, perDraw, outcomes);
+        if (rolled < dice) {
+            long remaining = 1;
+            for (int i = rolled; i < dice; i++) remaining *= faces;
+            total += rollDice(random, faces, dice - rolled, remaining);
+        }
+        return dice * min + total;
+    }
+
+    /// Rolls `count` dice with faces numbered from 0 from a single 64-bit draw, returning their sum. `outcomes` is
+    /// `faces^count`.
+    ///
+    /// The draw is multiplied by each die in turn, the high half of each product being a roll and the low half the
+    /// draw for the next die. The final low half is the draw times `outcomes` modulo 2^64, and draws for which it is
+    /// below `2^64 mod outcomes` are rejected so that every outcome is equally likely (Lemire's nearly divisionless
+    /// method, batched as described by Brackett-Rozinsky and Lemire).
+    private static long rollDice(RandomGenerator random, long faces, int count, long outcomes) {
+        while (true) {
+            long bits = random.nextLong();
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += Math.unsignedMultiplyHigh(bits, faces);
+                bits *= faces;
+            }
+            if (Long.compareUnsigned(bits, outcomes) >= 0
+                    || Long.compareUnsigned(bits, Long.remainderUnsigned(-outcomes, outcomes)) >= 0)
+                return sum;
+        }
+    }
+
+    // The number of dice rolled by the loop of the original implementation, ceil(num) up to the limit.
+    private static int dieCount(double num) {
+        return (int) Math.ceil(Math.clamp(num, 0, DIE_ROLL_ITERATION_LIMIT)); // 0 for NaN
     }
 
     ///  Output goes from start to end via zeroToOne, overshooting backward before accelerating into the end
@@ -352,12 +440,22 @@ public final class MolangMath {
     ///
     /// Note: The original molang spec says that the range is inclusive, but this high end is exclusive.
     public static double random(double low, double high) {
-        return ThreadLocalRandom.current().nextDouble(low, high);
+        return random(ThreadLocalRandom.current(), low, high);
+    }
+
+    /// [#random(double, double)] drawing from the given generator.
+    public static double random(RandomGenerator random, double low, double high) {
+        return random.nextDouble(low, high);
     }
 
     /// Random integer value between low and high (inclusive)
     public static double randomInteger(double low, double high) {
-        return ThreadLocalRandom.current().nextInt((int) low, (int) high + 1);
+        return randomInteger(ThreadLocalRandom.current(), low, high);
+    }
+
+    /// [#randomInteger(double, double)] drawing from the given generator.
+    public static double randomInteger(RandomGenerator random, double low, double high) {
+        return random.nextInt((int) low, (int) high + 1);
     }
 
     /// Round value to nearest integral number
@@ -387,328 +485,579 @@ public final class MolangMath {
 
     // Gross glue below
 
-    private static final class HolderImpl implements MolangValue.Holder {
-        private static final MolangValue.Function ABS = (rawArgs) -> {
-            double[] args = checkArgs("abs", rawArgs, 1);
-            return new MolangValue.Num(abs(args[0]));
+    private static final class Functions {
+        private static final MolangValue.Function ABS = new Fn1("abs") {
+            @Override
+            public double applyAsDouble(double value) {
+                return abs(value);
+            }
+        };
+        private static final MolangValue.Function ACOS = new Fn1("acos") {
+            @Override
+            public double applyAsDouble(double value) {
+                return acos(value);
+            }
+        };
+        private static final MolangValue.Function ASIN = new Fn1("asin") {
+            @Override
+            public double applyAsDouble(double value) {
+                return asin(value);
+            }
+        };
+        private static final MolangValue.Function ATAN = new Fn1("atan") {
+            @Override
+            public double applyAsDouble(double value) {
+                return atan(value);
+            }
         };
-        private static final MolangValue.Function ACOS = (rawArgs) -> {
-            double[] args = checkArgs("acos", rawArgs, 1);
-            return new MolangValue.Num(acos(args[0]));
+        private static final MolangValue.Function ATAN2 = new Fn2("atan2") {
+            @Override
+            public double applyAsDouble(double y, double x) {
+                return atan2(y, x);
+            }
         };
-        private static final MolangValue.Function ASIN = (rawArgs) -> {
-            double[] args = checkArgs("asin", rawArgs, 1);
-            return new MolangValue.Num(asin(args[0]));
+        private static final MolangValue.Function CEIL = new Fn1("ceil") {
+            @Override
+            public double applyAsDouble(double value) {
+                return ceil(value);
+            }
         };
-        private static final MolangValue.Function ATAN = (rawArgs) -> {
-            double[] args = checkArgs("atan", rawArgs, 1);
-            return new MolangValue.Num(atan(args[0]));
+        private static final MolangValue.Function CLAMP = new Fn3("clamp") {
+            @Override
+            public double applyAsDouble(double value, double min, double max) {
+                return clamp(value, min, max);
+            }
         };
-        private static final MolangValue.Function ATAN2 = (rawArgs) -> {
-            double[] args = checkArgs("atan2", rawArgs, 2);
-            return new MolangValue.Num(atan2(args[0], args[1]));
+        private static final MolangValue.Function COPY_SIGN = new Fn2("copy_sign") {
+            @Override
+            public double applyAsDouble(double a, double b) {
+                return copySign(a, b);
+            }
+        };
+        private static final MolangValue.Function COS = new Fn1("cos") {
+            @Override
+            public double applyAsDouble(double value) {
+                return cos(value);
+            }
+        };
+        private static final MolangValue.Function DIE_ROLL = new RandomFn3("die_roll") {
+            @Override
+            public double applyAsDouble(RandomGenerator random, double num, double low, double high) {
+                return dieRoll(random, num, low, high);
+            }
+        };
+        private static final MolangValue.Function DIE_ROLL_INTEGER = new RandomFn3("die_roll_integer") {
+            @Override
+            public double applyAsDouble(RandomGenerator random, double num, double low, double high) {
+                return dieRollInteger(random, num, low, high);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_BACK = new Fn3("ease_in_back") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInBack(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_BOUNCE = new Fn3("ease_in_bounce") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInBounce(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_CIRC = new Fn3("ease_in_circ") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInCirc(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_CUBIC = new Fn3("ease_in_cubic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInCubic(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_ELASTIC = new Fn3("ease_in_elastic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInElastic(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_EXPO = new Fn3("ease_in_expo") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInExpo(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_BACK_OUT = new Fn3("ease_in_back_out") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInBackOut(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_BOUNCE = new Fn3("ease_in_out_bounce") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutBounce(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_CIRC = new Fn3("ease_in_out_circ") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutCirc(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_CUBIC = new Fn3("ease_in_out_cubic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutCubic(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_ELASTIC = new Fn3("ease_in_out_elastic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutElastic(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_EXPO = new Fn3("ease_in_out_expo") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutExpo(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_QUAD = new Fn3("ease_in_out_quad") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutQuad(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_QUART = new Fn3("ease_in_out_quart") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutQuart(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_QUINT = new Fn3("ease_in_out_quint") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutQuint(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_OUT_SINE = new Fn3("ease_in_out_sine") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInOutSine(start, end, zeroToOne);
+            }
+        };
+        private static final MolangValue.Function EASE_IN_QUAD = new Fn3("ease_in_quad") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInQuad(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function CEIL = (rawArgs) -> {
-            double[] args = checkArgs("ceil", rawArgs, 1);
-            return new MolangValue.Num(ceil(args[0]));
+        private static final MolangValue.Function EASE_IN_QUART = new Fn3("ease_in_quart") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInQuart(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function CLAMP = (rawArgs) -> {
-            double[] args = checkArgs("clamp", rawArgs, 3);
-            return new MolangValue.Num(clamp(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_IN_QUINT = new Fn3("ease_in_quint") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInQuint(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function COPY_SIGN = (rawArgs) -> {
-            double[] args = checkArgs("copy_sign", rawArgs, 2);
-            return new MolangValue.Num(copySign(args[0], args[1]));
+        private static final MolangValue.Function EASE_IN_SINE = new Fn3("ease_in_sine") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeInSine(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function COS = (rawArgs) -> {
-            double[] args = checkArgs("cos", rawArgs, 1);
-            return new MolangValue.Num(cos(args[0]));
+        private static final MolangValue.Function EASE_OUT_BACK = new Fn3("ease_out_back") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutBack(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function DIE_ROLL = (rawArgs) -> {
-            double[] args = checkArgs("die_roll", rawArgs, 3);
-            return new MolangValue.Num(dieRoll(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_BOUNCE = new Fn3("ease_out_bounce") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutBounce(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function DIE_ROLL_INTEGER = (rawArgs) -> {
-            double[] args = checkArgs("die_roll_integer", rawArgs, 3);
-            return new MolangValue.Num(dieRollInteger(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_CIRC = new Fn3("ease_out_circ") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutCirc(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_BACK = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_back", rawArgs, 3);
-            return new MolangValue.Num(easeInBack(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_CUBIC = new Fn3("ease_out_cubic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutCubic(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_BOUNCE = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_bounce", rawArgs, 3);
-            return new MolangValue.Num(easeInBounce(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_ELASTIC = new Fn3("ease_out_elastic") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutElastic(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_CIRC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_circ", rawArgs, 3);
-            return new MolangValue.Num(easeInCirc(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_EXPO = new Fn3("ease_out_expo") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutExpo(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_CUBIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_cubic", rawArgs, 3);
-            return new MolangValue.Num(easeInCubic(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_QUAD = new Fn3("ease_out_quad") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutQuad(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_ELASTIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_elastic", rawArgs, 3);
-            return new MolangValue.Num(easeInElastic(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_QUART = new Fn3("ease_out_quart") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutQuart(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_EXPO = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_expo", rawArgs, 3);
-            return new MolangValue.Num(easeInExpo(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_QUINT = new Fn3("ease_out_quint") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutQuint(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_BACK_OUT = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_back_out", rawArgs, 3);
-            return new MolangValue.Num(easeInBackOut(args[0], args[1], args[2]));
+        private static final MolangValue.Function EASE_OUT_SINE = new Fn3("ease_out_sine") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return easeOutSine(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_BOUNCE = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_bounce", rawArgs, 3);
-            return new MolangValue.Num(easeInOutBounce(args[0], args[1], args[2]));
+        private static final MolangValue.Function EXP = new Fn1("exp") {
+            @Override
+            public double applyAsDouble(double value) {
+                return exp(value);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_CIRC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_circ", rawArgs, 3);
-            return new MolangValue.Num(easeInOutCirc(args[0], args[1], args[2]));
+        private static final MolangValue.Function FLOOR = new Fn1("floor") {
+            @Override
+            public double applyAsDouble(double value) {
+                return floor(value);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_CUBIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_cubic", rawArgs, 3);
-            return new MolangValue.Num(easeInOutCubic(args[0], args[1], args[2]));
+        private static final MolangValue.Function HERMITE_BLEND = new Fn1("hermite_blend") {
+            @Override
+            public double applyAsDouble(double value) {
+                return hermiteBlend(value);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_ELASTIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_elastic", rawArgs, 3);
-            return new MolangValue.Num(easeInOutElastic(args[0], args[1], args[2]));
+        private static final MolangValue.Function INVERSE_LERP = new Fn3("inverse_lerp") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return inverseLerp(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_EXPO = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_expo", rawArgs, 3);
-            return new MolangValue.Num(easeInOutExpo(args[0], args[1], args[2]));
+        private static final MolangValue.Function LERP = new Fn3("lerp") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return lerp(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_QUAD = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_quad", rawArgs, 3);
-            return new MolangValue.Num(easeInOutQuad(args[0], args[1], args[2]));
+        private static final MolangValue.Function LERP_ROTATE = new Fn3("lerp_rotate") {
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return lerprotate(start, end, zeroToOne);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_QUART = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_quart", rawArgs, 3);
-            return new MolangValue.Num(easeInOutQuart(args[0], args[1], args[2]));
+        private static final MolangValue.Function LN = new Fn1("ln") {
+            @Override
+            public double applyAsDouble(double value) {
+                return ln(value);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_QUINT = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_quint", rawArgs, 3);
-            return new MolangValue.Num(easeInOutQuint(args[0], args[1], args[2]));
+        private static final MolangValue.Function MAX = new Fn2("max") {
+            @Override
+            public double applyAsDouble(double a, double b) {
+                return max(a, b);
+            }
         };
-        private static final MolangValue.Function EASE_IN_OUT_SINE = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_out_sine", rawArgs, 3);
-            return new MolangValue.Num(easeInOutSine(args[0], args[1], args[2]));
+        private static final MolangValue.Function MIN = new Fn2("min") {
+            @Override
+            public double applyAsDouble(double a, double b) {
+                return min(a, b);
+            }
         };
-        private static final MolangValue.Function EASE_IN_QUAD = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_quad", rawArgs, 3);
-            return new MolangValue.Num(easeInQuad(args[0], args[1], args[2]));
+        private static final MolangValue.Function MIN_ANGLE = new Fn1("min_angle") {
+            @Override
+            public double applyAsDouble(double value) {
+                return minAngle(value);
+            }
         };
-        private static final MolangValue.Function EASE_IN_QUART = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_quart", rawArgs, 3);
-            return new MolangValue.Num(easeInQuart(args[0], args[1], args[2]));
+        private static final MolangValue.Function MOD = new Fn2("mod") {
+            @Override
+            public double applyAsDouble(double value, double denominator) {
+                return mod(value, denominator);
+            }
         };
-        private static final MolangValue.Function EASE_IN_QUINT = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_quint", rawArgs, 3);
-            return new MolangValue.Num(easeInQuint(args[0], args[1], args[2]));
+        private static final MolangValue.Function PI = new Fn0("pi") {
+            @Override
+            public double applyAsDouble() {
+                return pi();
+            }
         };
-        private static final MolangValue.Function EASE_IN_SINE = (rawArgs) -> {
-            double[] args = checkArgs("ease_in_sine", rawArgs, 3);
-            return new MolangValue.Num(easeInSine(args[0], args[1], args[2]));
+        private static final MolangValue.Function POW = new Fn2("pow") {
+            @Override
+            public double applyAsDouble(double base, double exponent) {
+                return pow(base, exponent);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_BACK = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_back", rawArgs, 3);
-            return new MolangValue.Num(easeOutBack(args[0], args[1], args[2]));
+        private static final MolangValue.Function RANDOM = new RandomFn2("random") {
+            @Override
+            public double applyAsDouble(RandomGenerator random, double low, double high, double unused) {
+                return random(random, low, high);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_BOUNCE = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_bounce", rawArgs, 3);
-            return new MolangValue.Num(easeOutBounce(args[0], args[1], args[2]));
+        private static final MolangValue.Function RANDOM_INTEGER = new RandomFn2("random_integer") {
+            @Override
+            public double applyAsDouble(RandomGenerator random, double low, double high, double unused) {
+                return randomInteger(random, low, high);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_CIRC = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_circ", rawArgs, 3);
-            return new MolangValue.Num(easeOutCirc(args[0], args[1], args[2]));
+        private static final MolangValue.Function ROUND = new Fn1("round") {
+            @Override
+            public double applyAsDouble(double value) {
+                return round(value);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_CUBIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_cubic", rawArgs, 3);
-            return new MolangValue.Num(easeOutCubic(args[0], args[1], args[2]));
+        private static final MolangValue.Function SIGN = new Fn1("sign") {
+            @Override
+            public double applyAsDouble(double value) {
+                return sign(value);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_ELASTIC = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_elastic", rawArgs, 3);
-            return new MolangValue.Num(easeOutElastic(args[0], args[1], args[2]));
+        private static final MolangValue.Function SIN = new Fn1("sin") {
+            @Override
+            public double applyAsDouble(double value) {
+                return sin(value);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_EXPO = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_expo", rawArgs, 3);
-            return new MolangValue.Num(easeOutExpo(args[0], args[1], args[2]));
+        private static final MolangValue.Function SQRT = new Fn1("sqrt") {
+            @Override
+            public double applyAsDouble(double value) {
+                return sqrt(value);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_QUAD = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_quad", rawArgs, 3);
-            return new MolangValue.Num(easeOutQuad(args[0], args[1], args[2]));
+        private static final MolangValue.Function TRUNC = new Fn1("trunc") {
+            @Override
+            public double applyAsDouble(double value) {
+                return trunc(value);
+            }
         };
-        private static final MolangValue.Function EASE_OUT_QUART = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_quart", rawArgs, 3);
-            return new MolangValue.Num(easeOutQuart(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function EASE_OUT_QUINT = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_quint", rawArgs, 3);
-            return new MolangValue.Num(easeOutQuint(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function EASE_OUT_SINE = (rawArgs) -> {
-            double[] args = checkArgs("ease_out_sine", rawArgs, 3);
-            return new MolangValue.Num(easeOutSine(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function EXP = (rawArgs) -> {
-            double[] args = checkArgs("exp", rawArgs, 1);
-            return new MolangValue.Num(exp(args[0]));
-        };
-        private static final MolangValue.Function FLOOR = (rawArgs) -> {
-            double[] args = checkArgs("floor", rawArgs, 1);
-            return new MolangValue.Num(floor(args[0]));
-        };
-        private static final MolangValue.Function HERMITE_BLEND = (rawArgs) -> {
-            double[] args = checkArgs("hermite_blend", rawArgs, 1);
-            return new MolangValue.Num(hermiteBlend(args[0]));
-        };
-        private static final MolangValue.Function INVERSE_LERP = (rawArgs) -> {
-            double[] args = checkArgs("inverse_lerp", rawArgs, 3);
-            return new MolangValue.Num(inverseLerp(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function LERP = (rawArgs) -> {
-            double[] args = checkArgs("lerp", rawArgs, 3);
-            return new MolangValue.Num(lerp(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function LERP_ROTATE = (rawArgs) -> {
-            double[] args = checkArgs("lerp_rotate", rawArgs, 3);
-            return new MolangValue.Num(lerprotate(args[0], args[1], args[2]));
-        };
-        private static final MolangValue.Function LN = (rawArgs) -> {
-            double[] args = checkArgs("ln", rawArgs, 1);
-            return new MolangValue.Num(ln(args[0]));
-        };
-        private static final MolangValue.Function MAX = (rawArgs) -> {
-            double[] args = checkArgs("max", rawArgs, 2);
-            return new MolangValue.Num(max(args[0], args[1]));
-        };
-        private static final MolangValue.Function MIN = (rawArgs) -> {
-            double[] args = checkArgs("min", rawArgs, 2);
-            return new MolangValue.Num(min(args[0], args[1]));
-        };
-        private static final MolangValue.Function MIN_ANGLE = (rawArgs) -> {
-            double[] args = checkArgs("min_angle", rawArgs, 1);
-            return new MolangValue.Num(minAngle(args[0]));
-        };
-        private static final MolangValue.Function MOD = (rawArgs) -> {
-            double[] args = checkArgs("mod", rawArgs, 2);
-            return new MolangValue.Num(mod(args[0], args[1]));
-        };
-        private static final MolangValue.Function PI = (rawArgs) -> {
-            checkArgs("pi", rawArgs, 0);
-            return new MolangValue.Num(pi());
-        };
-        private static final MolangValue.Function POW = (rawArgs) -> {
-            double[] args = checkArgs("pow", rawArgs, 2);
-            return new MolangValue.Num(pow(args[0], args[1]));
-        };
-        private static final MolangValue.Function RANDOM = (rawArgs) -> {
-            double[] args = checkArgs("random", rawArgs, 2);
-            return new MolangValue.Num(random(args[0], args[1]));
-        };
-        private static final MolangValue.Function RANDOM_INTEGER = (rawArgs) -> {
-            double[] args = checkArgs("random_integer", rawArgs, 2);
-            return new MolangValue.Num(randomInteger(args[0], args[1]));
-        };
-        private static final MolangValue.Function ROUND = (rawArgs) -> {
-            double[] args = checkArgs("round", rawArgs, 1);
-            return new MolangValue.Num(round(args[0]));
-        };
-        private static final MolangValue.Function SIGN = (rawArgs) -> {
-            double[] args = checkArgs("sign", rawArgs, 1);
-            return new MolangValue.Num(sign(args[0]));
-        };
-        private static final MolangValue.Function SIN = (rawArgs) -> {
-            double[] args = checkArgs("sin", rawArgs, 1);
-            return new MolangValue.Num(sin(args[0]));
-        };
-        private static final MolangValue.Function SQRT = (rawArgs) -> {
-            double[] args = checkArgs("sqrt", rawArgs, 1);
-            return new MolangValue.Num(sqrt(args[0]));
-        };
-        private static final MolangValue.Function TRUNC = (rawArgs) -> {
-            double[] args = checkArgs("trunc", rawArgs, 1);
-            return new MolangValue.Num(trunc(args[0]));
-        };
-
-        @Override
-        public @NotNull MolangValue get(@NotNull String field) {
-            return switch (field) {
-                case "abs" -> ABS;
-                case "acos" -> ACOS;
-                case "asin" -> ASIN;
-                case "atan" -> ATAN;
-                case "atan2" -> ATAN2;
-                case "ceil" -> CEIL;
-                case "clamp" -> CLAMP;
-                case "copy_sign" -> COPY_SIGN;
-                case "cos" -> COS;
-                case "die_roll" -> DIE_ROLL;
-                case "die_roll_integer" -> DIE_ROLL_INTEGER;
-                case "ease_in_back" -> EASE_IN_BACK;
-                case "ease_in_bounce" -> EASE_IN_BOUNCE;
-                case "ease_in_circ" -> EASE_IN_CIRC;
-                case "ease_in_cubic" -> EASE_IN_CUBIC;
-                case "ease_in_elastic" -> EASE_IN_ELASTIC;
-                case "ease_in_expo" -> EASE_IN_EXPO;
-                case "ease_in_back_out" -> EASE_IN_BACK_OUT;
-                case "ease_in_out_bounce" -> EASE_IN_OUT_BOUNCE;
-                case "ease_in_out_circ" -> EASE_IN_OUT_CIRC;
-                case "ease_in_out_cubic" -> EASE_IN_OUT_CUBIC;
-                case "ease_in_out_elastic" -> EASE_IN_OUT_ELASTIC;
-                case "ease_in_out_expo" -> EASE_IN_OUT_EXPO;
-                case "ease_in_out_quad" -> EASE_IN_OUT_QUAD;
-                case "ease_in_out_quart" -> EASE_IN_OUT_QUART;
-                case "ease_in_out_quint" -> EASE_IN_OUT_QUINT;
-                case "ease_in_out_sine" -> EASE_IN_OUT_SINE;
-                case "ease_in_quad" -> EASE_IN_QUAD;
-                case "ease_in_quart" -> EASE_IN_QUART;
-                case "ease_in_quint" -> EASE_IN_QUINT;
-                case "ease_in_sine" -> EASE_IN_SINE;
-                case "ease_out_back" -> EASE_OUT_BACK;
-                case "ease_out_bounce" -> EASE_OUT_BOUNCE;
-                case "ease_out_circ" -> EASE_OUT_CIRC;
-                case "ease_out_elastic" -> EASE_OUT_ELASTIC;
-                case "ease_out_expo" -> EASE_OUT_EXPO;
-                case "ease_out_quad" -> EASE_OUT_QUAD;
-                case "ease_out_quart" -> EASE_OUT_QUART;
-                case "ease_out_quint" -> EASE_OUT_QUINT;
-                case "ease_out_sine" -> EASE_OUT_SINE;
-                case "exp" -> EXP;
-                case "floor" -> FLOOR;
-                case "hermite_blend" -> HERMITE_BLEND;
-                case "inverse_lerp" -> INVERSE_LERP;
-                case "lerp" -> LERP;
-                case "lerprotate" -> LERP_ROTATE;
-                case "ln" -> LN;
-                case "max" -> MAX;
-                case "min" -> MIN;
-                case "min_angle" -> MIN_ANGLE;
-                case "mod" -> MOD;
-                case "pi" -> PI;
-                case "pow" -> POW;
-                case "random" -> RANDOM;
-                case "random_integer" -> RANDOM_INTEGER;
-                case "round" -> ROUND;
-                case "sign" -> SIGN;
-                case "sin" -> SIN;
-                case "sqrt" -> SQRT;
-                case "trunc" -> TRUNC;
-                default -> NIL;
-            };
+
+        static MolangModule module() {
+            return MolangModule.builder("math")
+                    .pure("abs", ABS)
+                    .pure("acos", ACOS)
+                    .pure("asin", ASIN)
+                    .pure("atan", ATAN)
+                    .pure("atan2", ATAN2)
+                    .pure("ceil", CEIL)
+                    .pure("clamp", CLAMP)
+                    .pure("copy_sign", COPY_SIGN)
+                    .pure("cos", COS)
+                    .nondeterministic("die_roll", DIE_ROLL)
+                    .nondeterministic("die_roll_integer", DIE_ROLL_INTEGER)
+                    .pure("ease_in_back", EASE_IN_BACK)
+                    .pure("ease_in_bounce", EASE_IN_BOUNCE)
+                    .pure("ease_in_circ", EASE_IN_CIRC)
+                    .pure("ease_in_cubic", EASE_IN_CUBIC)
+                    .pure("ease_in_elastic", EASE_IN_ELASTIC)
+                    .pure("ease_in_expo", EASE_IN_EXPO)
+                    .pure("ease_in_back_out", EASE_IN_BACK_OUT)
+                    .pure("ease_in_out_bounce", EASE_IN_OUT_BOUNCE)
+                    .pure("ease_in_out_circ", EASE_IN_OUT_CIRC)
+                    .pure("ease_in_out_cubic", EASE_IN_OUT_CUBIC)
+                    .pure("ease_in_out_elastic", EASE_IN_OUT_ELASTIC)
+                    .pure("ease_in_out_expo", EASE_IN_OUT_EXPO)
+                    .pure("ease_in_out_quad", EASE_IN_OUT_QUAD)
+                    .pure("ease_in_out_quart", EASE_IN_OUT_QUART)
+                    .pure("ease_in_out_quint", EASE_IN_OUT_QUINT)
+                    .pure("ease_in_out_sine", EASE_IN_OUT_SINE)
+                    .pure("ease_in_quad", EASE_IN_QUAD)
+                    .pure("ease_in_quart", EASE_IN_QUART)
+                    .pure("ease_in_quint", EASE_IN_QUINT)
+                    .pure("ease_in_sine", EASE_IN_SINE)
+                    .pure("ease_out_back", EASE_OUT_BACK)
+                    .pure("ease_out_bounce", EASE_OUT_BOUNCE)
+                    .pure("ease_out_circ", EASE_OUT_CIRC)
+                    .pure("ease_out_elastic", EASE_OUT_ELASTIC)
+                    .pure("ease_out_expo", EASE_OUT_EXPO)
+                    .pure("ease_out_quad", EASE_OUT_QUAD)
+                    .pure("ease_out_quart", EASE_OUT_QUART)
+                    .pure("ease_out_quint", EASE_OUT_QUINT)
+                    .pure("ease_out_sine", EASE_OUT_SINE)
+                    .pure("exp", EXP)
+                    .pure("floor", FLOOR)
+                    .pure("hermite_blend", HERMITE_BLEND)
+                    .pure("inverse_lerp", INVERSE_LERP)
+                    .pure("lerp", LERP)
+                    .pure("lerprotate", LERP_ROTATE)
+                    .pure("ln", LN)
+                    .pure("max", MAX)
+                    .pure("min", MIN)
+                    .pure("min_angle", MIN_ANGLE)
+                    .pure("mod", MOD)
+                    .pure("pi", PI)
+                    .pure("pow", POW)
+                    .nondeterministic("random", RANDOM)
+                    .nondeterministic("random_integer", RANDOM_INTEGER)
+                    .pure("round", ROUND)
+                    .pure("sign", SIGN)
+                    .pure("sin", SIN)
+                    .pure("sqrt", SQRT)
+                    .pure("trunc", TRUNC)
+                    .build();
+        }
+
+        static MolangModule approximate(MolangModule exact, boolean easing, boolean trigonometry) {
+            final MolangModule.Builder builder = MolangModule.builder(exact.name());
+            for (ModuleFunction function : exact.functions()) {
+                final EasingFunction ease = easing ? ApproximateEasing.BY_NAME.get(function.name()) : null;
+                final MolangValue.Function trig = trigonometry ? FAST_TRIGONOMETRY.get(function.name()) : null;
+                if (ease != null) function = ModuleFunction.pure(function.name(), new Ease(function.name(), ease));
+                else if (trig != null) function = ModuleFunction.pure(function.name(), trig);
+                builder.function(function);
+            }
+            return builder.build();
         }
 
-        private static double[] checkArgs(@NotNull String name, @NotNull List<MolangValue> args, int expected) {
-            if (args.size() != expected)
-                throw new MolangContentException("Expected %d arguments got %d for %s".formatted(expected, args.size(), name));
-            double[] result = new double[expected];
-            for (int i = 0; i < expected; i++) {
-                // TODO: this needs to generate a content error...
-                result[i] = args.get(i) instanceof MolangValue.Num(double value) ? value : 0.0;
+        private static final Map<String, MolangValue.Function> FAST_TRIGONOMETRY = Map.of(
+                "acos", new Fn1("acos") {
+                    @Override
+                    public double applyAsDouble(double value) {
+                        assertion(value >= -1 && value <= 1, "acos: value must be in the range [-1, 1]");
+                        return FastTrig.acos(value);
+                    }
+                },
+                "asin", new Fn1("asin") {
+                    @Override
+                    public double applyAsDouble(double value) {
+                        assertion(value >= -1 && value <= 1, "asin: value must be in the range [-1, 1]");
+                        return FastTrig.asin(value);
+                    }
+                },
+                "atan", new Fn1("atan") {
+                    @Override
+                    public double applyAsDouble(double value) {
+                        return FastTrig.atan(value);
+                    }
+                },
+                "atan2", new Fn2("atan2") {
+                    @Override
+                    public double applyAsDouble(double y, double x) {
+                        return FastTrig.atan2(y, x);
+                    }
+                },
+                "cos", new Fn1("cos") {
+                    @Override
+                    public double applyAsDouble(double value) {
+                        return FastTrig.cos(value);
+                    }
+                },
+                "sin", new Fn1("sin") {
+                    @Override
+                    public double applyAsDouble(double value) {
+                        return FastTrig.sin(value);
+                    }
+                }
+        );
+
+        private static final class Ease extends Fn3 {
+            private final EasingFunction easing;
+
+            Ease(String name, EasingFunction easing) {
+                super(name);
+                this.easing = easing;
+            }
+
+            @Override
+            public double applyAsDouble(double start, double end, double zeroToOne) {
+                return start + (end - start) * easing.apply(zeroToOne);
+            }
+        }
+
+        // Named so that arity errors and function exceptions report the function name.
+        private abstract static class Fn0 implements MolangValue.Function0 {
+            private final String name;
+
+            Fn0(String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        }
+
+        private abstract static class Fn1 implements MolangValue.Function1 {
+            private final String name;
+
+            Fn1(String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        }
+
+        private abstract static class Fn2 implements MolangValue.Function2 {
+            private final String name;
+
+            Fn2(String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        }
+
+        private abstract static class RandomFn2 extends Fn2 implements RandomFunction {
+            RandomFn2(String name) {
+                super(name);
+            }
+
+            @Override
+            public double applyAsDouble(double a, double b) {
+                return applyAsDouble(ThreadLocalRandom.current(), a, b, 0);
+            }
+        }
+
+        private abstract static class RandomFn3 extends Fn3 implements RandomFunction {
+            RandomFn3(String name) {
+                super(name);
+            }
+
+            @Override
+            public double applyAsDouble(double a, double b, double c) {
+                return applyAsDouble(ThreadLocalRandom.current(), a, b, c);
+            }
+        }
+
+        private abstract static class Fn3 implements MolangValue.Function3 {
+            private final String name;
+
+            Fn3(String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String toString() {
+                return name;
             }
-            return result;
         }
     }
 }
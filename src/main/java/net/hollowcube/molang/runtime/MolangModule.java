@@ -0,0 +1,81 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.eval.MolangValue;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/// A namespace of functions (eg `math`) registered with a [ModuleRegistry].
+///
+/// Each function declares its arity, purity and determinism (see [ModuleFunction]), so the optimizer can fold calls
+/// with constant arguments and compiled backends can resolve the functions ahead of time.
+public final class MolangModule implements MolangValue.Holder {
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final Map<String, ModuleFunction> functions = new LinkedHashMap<>();
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder pure(String name, MolangValue.Function function) {
+            return function(ModuleFunction.pure(name, function));
+        }
+
+        public Builder nondeterministic(String name, MolangValue.Function function) {
+            return function(ModuleFunction.nondeterministic(name, function));
+        }
+
+        public Builder impure(String name, MolangValue.Function function) {
+            return function(ModuleFunction.impure(name, function));
+        }
+
+        public Builder function(ModuleFunction function) {
+            if (functions.putIfAbsent(function.name(), function) != null)
+                throw new IllegalArgumentException("duplicate function in " + name + ": " + function.name());
+            return this;
+        }
+
+        public MolangModule build() {
+            return new MolangModule(name, Map.copyOf(functions));
+        }
+    }
+
+    private final String name;
+    private final Map<String, ModuleFunction> functions;
+
+    private MolangModule(String name, Map<String, ModuleFunction> functions) {
+        this.name = name;
+        this.functions = functions;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public @Nullable ModuleFunction function(String name) {
+        return functions.get(name);
+    }
+
+    public Collection<ModuleFunction> functions() {
+        return functions.values();
+    }
+
+    @Override
+    public MolangValue get(String field) {
+        final ModuleFunction function = functions.get(field);
+        return function != null ? function.function() : MolangValue.NIL;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
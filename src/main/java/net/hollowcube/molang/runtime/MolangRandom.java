@@ -0,0 +1,36 @@
+package net.hollowcube.molang.runtime;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/// Seeded random generators for reproducible evaluation, to be passed to
+/// [net.hollowcube.molang.eval.MolangEvaluator#setRandom(RandomGenerator)].
+///
+/// Give every entity its own [#stream(long, long)] of a world or replay seed: its draws then only depend on the seed,
+/// its id and its own evaluations, not on the order in which entities are created or evaluated. Generators may be
+/// split further with [RandomGenerator.SplittableGenerator#split()].
+public final class MolangRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /// A generator whose sequence is determined by the seed.
+    public static RandomGenerator.SplittableGenerator seeded(long seed) {
+        return new SplittableRandom(seed);
+    }
+
+    /// An independent generator for one stream (eg an entity id) of a seed. The same seed and stream always produce
+    /// the same sequence.
+    public static RandomGenerator.SplittableGenerator stream(long seed, long stream) {
+        // Consecutive SplittableRandom seeds produce overlapping sequences, so the seed of the stream is scrambled.
+        return new SplittableRandom(mix(seed + mix(stream + GOLDEN_GAMMA)));
+    }
+
+    // The finalizer of MurmurHash3, as used by SplittableRandom.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private MolangRandom() {
+    }
+}
@@ -0,0 +1,15 @@
+package net.hollowcube.molang.runtime;
+
+import java.util.random.RandomGenerator;
+
+/// A [net.hollowcube.molang.eval.MolangValue.NumericFunction] of at most 3 arguments which draws from the random
+/// generator of the evaluator calling it, see [net.hollowcube.molang.eval.MolangEvaluator#setRandom(RandomGenerator)].
+///
+/// Evaluators call [#applyAsDouble(RandomGenerator, double, double, double)] rather than the numeric function, with
+/// the arguments past its arity set to 0. Calling the numeric function itself (eg outside an evaluator) draws from
+/// [java.util.concurrent.ThreadLocalRandom]. Random functions are never deterministic.
+public interface RandomFunction {
+
+    double applyAsDouble(RandomGenerator random, double a, double b, double c);
+
+}
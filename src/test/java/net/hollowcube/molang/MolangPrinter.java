@@ -21,6 +21,9 @@ final class MolangPrinter {
                     args.stream().map(MolangPrinter::print).collect(Collectors.joining(" ")));
             case MolangExpr.Block(var exprs) -> exprs.isEmpty() ? "{ }" : String.format("{ %s }", exprs.stream()
                     .map(MolangPrinter::print).collect(Collectors.joining("; ")));
+            case MolangExpr.Shared(var index, var inner) -> String.format("(#%d %s)", index, print(inner));
+            case MolangExpr.Unrolled(var loop, var iterations, var times, var body) ->
+                    String.format("(unrolled %d %d %s)", iterations, times, print(body));
         };
     }
 
@@ -0,0 +1,95 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.MolangBulkParser.Source;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangBulkParser {
+
+    @Test
+    public void testResultsAreInInputOrder() {
+        var results = MolangBulkParser.parseAll(List.of(
+                Source.of("1 + 2"), Source.of("q.a"), new Source("q.a; return 1 + 2;", true)));
+        assertEquals(3, results.size());
+        assertEquals(new MolangExpr.Num(3), results.get(0).exprOrThrow());
+        assertEquals(MolangExpr.parseOrThrow("q.a"), results.get(1).exprOrThrow());
+        assertEquals(MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow("q.a; return 1 + 2;", true)),
+                results.get(2).exprOrThrow());
+        assertEquals(Source.of("q.a"), results.get(1).source());
+    }
+
+    @Test
+    public void testFailuresDoNotAbortTheBatch() {
+        var results = MolangBulkParser.parseAll(List.of(Source.of("1 +"), Source.of("2"), Source.of("3 $ 4")));
+        assertTrue(results.get(0).failed());
+        assertThrows(RuntimeException.class, () -> results.get(0).exprOrThrow());
+        assertNull(results.get(0).expr());
+        assertFalse(results.get(1).failed());
+        assertEquals(new MolangExpr.Num(2), results.get(1).exprOrThrow());
+        assertTrue(results.get(2).failed());
+
+        // The original exception, as thrown by the parser.
+        var expected = assertThrows(RuntimeException.class, () -> MolangExpr.parseOrThrow("3 $ 4"));
+        assertEquals(expected.getClass(), results.get(2).failure().getClass());
+        assertEquals(expected.getMessage(), results.get(2).failure().getMessage());
+    }
+
+    @Test
+    public void testDeepNestingDoesNotAbortTheBatch() {
+        var nested = "(".repeat(1_000_000) + "1" + ")".repeat(1_000_000);
+        var results = MolangBulkParser.parseAll(List.of(Source.of(nested), Source.of("2")));
+        assertTrue(results.get(0).failed());
+        assertInstanceOf(StackOverflowError.class, results.get(0).failure().getCause());
+        assertEquals(new MolangExpr.Num(2), results.get(1).exprOrThrow());
+    }
+
+    @Test
+    public void testDuplicatesShareResults() {
+        var results = MolangBulkParser.parseAll(List.of(
+                Source.of("math.sin(q.x)"), new Source("math.sin(q.x)", true), Source.of("math.sin(q.x)"),
+                Source.of("1 +"), Source.of("1 +")));
+        assertSame(results.get(0), results.get(2));
+        assertNotSame(results.get(0), results.get(1));
+        assertEquals(results.get(0).exprOrThrow(), results.get(1).exprOrThrow());
+        assertSame(results.get(3).failure(), results.get(4).failure());
+    }
+
+    @Test
+    public void testManySourcesInParallel() {
+        var sources = new ArrayList<Source>();
+        for (int i = 0; i < 5_000; i++) {
+            sources.add(Source.of("q.anim_time * " + (i % 700) + " + math.cos(v.x)"));
+            if (i % 97 == 0) sources.add(Source.of("math.sin(" + i));
+        }
+
+        var pool = new ForkJoinPool(4);
+        try {
+            var results = MolangBulkParser.parseAll(sources, ModuleRegistry.DEFAULT, pool);
+            assertEquals(sources.size(), results.size());
+            for (int i = 0; i < sources.size(); i++) {
+                var source = sources.get(i);
+                var result = results.get(i);
+                assertEquals(source, result.source());
+                if (source.source().endsWith(")")) {
+                    var expected = MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow(source.source()));
+                    assertEquals(expected, result.exprOrThrow());
+                } else {
+                    assertTrue(result.failed(), source.source());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(List.of(), MolangBulkParser.parseAll(List.of()));
+    }
+}
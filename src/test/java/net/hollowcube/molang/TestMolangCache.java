@@ -0,0 +1,128 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangEvaluator;
+import net.hollowcube.molang.eval.MolangValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangCache {
+
+    @Test
+    public void testParseIsCachedAndOptimized() {
+        var cache = new MolangCache(16);
+        var first = cache.parse("1 + 2");
+        assertEquals(new MolangExpr.Num(3), first);
+        assertSame(first, cache.parse("1 + 2"));
+        assertEquals(new MolangCache.Stats(1, 1, 0, 0), cache.stats());
+    }
+
+    @Test
+    public void testMultilineIsSeparateKey() {
+        var cache = new MolangCache(16);
+        cache.parse("1;", true);
+        cache.parse("1;", true);
+        cache.parse("1;", false);
+        assertEquals(2, cache.size());
+        assertEquals(new MolangCache.Stats(1, 2, 0, 0), cache.stats());
+    }
+
+    @Test
+    public void testFailuresAreCached() {
+        var cache = new MolangCache(16);
+        var first = assertThrows(RuntimeException.class, () -> cache.parse("1 +"));
+        var second = assertThrows(RuntimeException.class, () -> cache.parse("1 +"));
+        assertSame(first, second);
+        assertEquals(new MolangCache.Stats(1, 1, 0, 1), cache.stats());
+    }
+
+    @Test
+    public void testEviction() {
+        var cache = new MolangCache(1);
+        cache.parse("1");
+        cache.parse("2");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.stats().evictions());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeightedEviction() {
+        var cache = new MolangCache(4, String::length, null);
+        cache.parse("12345");
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    public void testCompile() {
+        var cache = new MolangCache(16, source -> 1, MolangBackend.CLOSURE);
+        var compiled = cache.compile("q.x ?? 2 * 3");
+        assertSame(compiled, cache.compile("q.x ?? 2 * 3"));
+        assertEquals(6, compiled.eval(new MolangEvaluator(Map.of())));
+
+        assertThrows(IllegalStateException.class, () -> new MolangCache(16).compile("1"));
+    }
+
+    @Test
+    public void testSpecializedVariants() {
+        var cache = new MolangCache(16, source -> 1, MolangBackend.CLOSURE);
+        var source = "q.variant == 2 ? q.x * 2 : q.x";
+        var bindings = Map.<String, MolangValue>of(
+                "q.variant", new MolangValue.Num(2),
+                "q.is_baby", new MolangValue.Num(1));
+        var first = cache.parse(source, bindings);
+        assertEquals("q.x * 2.0", first.toString());
+        // Bindings the source does not read do not make a separate variant.
+        assertSame(first, cache.parse(source, Map.of("q.variant", new MolangValue.Num(2))));
+        assertSame(cache.parse(source), cache.parse(source, Map.of("q.is_baby", new MolangValue.Num(1))));
+        assertEquals("q.x", cache.parse(source, Map.of("q.variant", new MolangValue.Num(3))).toString());
+        assertEquals(3, cache.size());
+
+        var compiled = cache.compile(source, Map.of("q.variant", new MolangValue.Num(2)));
+        assertSame(compiled, cache.compile(source, Map.of("q.variant", new MolangValue.Num(2))));
+        var query = MolangValue.Holder.holder(Map.of("x", new MolangValue.Num(1.5)));
+        assertEquals(3.0, compiled.eval(new MolangEvaluator(Map.of("q", query))));
+    }
+
+    @Test
+    public void testSpecializedStats() {
+        var cache = new MolangCache(16);
+        var source = "q.variant == 2 ? q.x * 2 : q.x";
+        cache.parse(source, Map.of("q.variant", new MolangValue.Num(2)));
+        cache.parse(source, Map.of("q.variant", new MolangValue.Num(2)));
+        cache.parse(source, Map.of("q.variant", new MolangValue.Num(3)));
+        assertEquals(new MolangCache.Stats(1, 2, 0, 0), cache.stats());
+
+        // Without relevant bindings the request is a lookup of the source itself.
+        cache.parse(source, Map.of("q.is_baby", new MolangValue.Num(1)));
+        assertThrows(RuntimeException.class, () -> cache.parse("1 +", Map.of("q.is_baby", new MolangValue.Num(1))));
+        assertEquals(new MolangCache.Stats(2, 3, 0, 1), cache.stats());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        var cache = new MolangCache(1024);
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (int thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++)
+                        assertEquals(new MolangExpr.Num(i % 100), cache.parse(String.valueOf(i % 100)));
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(100, cache.size());
+        var stats = cache.stats();
+        assertEquals(8000, stats.hits() + stats.misses());
+    }
+}
@@ -1,9 +1,12 @@
 package net.hollowcube.molang;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.util.Random;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -23,6 +26,67 @@ public class TestMolangLexer {
         assertNull(eof);
     }
 
+    @Test
+    public void testTokenOffsets() {
+        var lexer = new MolangLexer("  q.anim_time >= 12.5\n\t? a1 : -b ");
+        var tokens = new StringBuilder();
+        for (int i = 0; i < lexer.size(); i++)
+            tokens.append(lexer.start(i)).append('-').append(lexer.end(i)).append(' ');
+        assertEquals("2-3 3-4 4-13 14-16 17-21 23-24 25-27 28-29 30-31 31-32 ", tokens.toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0", "7", "123.", "0.1", "0.3", "123.456", "000123.4500", "9007199254740991", "9007199254740993",
+            "12345678901234567890", "0.1234567890123456789012", "1.00000000000000000000000001",
+            "179769313486231570000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+                    + "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+                    + "000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+                    + "00000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"
+    })
+    public void testNumbers(String input) {
+        var lexer = new MolangLexer(input);
+        assertEquals(MolangLexer.Tok.NUMBER, lexer.next());
+        assertEquals(Double.parseDouble(input), lexer.number());
+    }
+
+    @Test
+    public void testRandomNumbers() {
+        var random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            var input = random.nextLong(1L << 62) / (long) Math.pow(10, random.nextInt(19))
+                    + (random.nextBoolean() ? "." + random.nextLong(1L << 62) / (long) Math.pow(10, random.nextInt(19))
+                    : "");
+            var lexer = new MolangLexer(input);
+            lexer.next();
+            assertEquals(Double.parseDouble(input), lexer.number(), input);
+        }
+    }
+
+    @Test
+    public void testIdentsAreInterned() {
+        var first = new MolangLexer("q.anim_time");
+        var second = new MolangLexer("1 + q.anim_time");
+        first.next();
+        first.next();
+        first.next();
+        second.next();
+        second.next();
+        second.next();
+        second.next();
+        second.next();
+        assertEquals("anim_time", first.ident());
+        assertSame(first.ident(), second.ident());
+    }
+
+    @Test
+    public void testTrailingWhitespace() {
+        var lexer = new MolangLexer("a \n");
+        assertEquals(MolangLexer.Tok.IDENT, lexer.next());
+        assertNull(lexer.next());
+        assertEquals(new MolangExpr.Num(1), MolangExpr.parseOrThrow(" 1 "));
+    }
+
     private static Stream<Arguments> individualSymbols() {
         return Stream.of(
                 Arguments.of("+", MolangLexer.Tok.PLUS),
@@ -1,14 +1,47 @@
 package net.hollowcube.molang;
 
+import net.hollowcube.molang.MolangOptimizer.Pass;
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangEvaluator;
+import net.hollowcube.molang.eval.MolangRuntime;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.runtime.MolangModule;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class TestMolangOptimizer {
+    private static final ModuleRegistry MODULES = ModuleRegistry.builder()
+            .module(MolangModule.builder("noise")
+                    .pure("add", (MolangValue.Function2) Double::sum)
+                    .pure("sum", args -> new MolangValue.Num(args.stream()
+                            .mapToDouble(arg -> ((MolangValue.Num) arg).value()).sum()))
+                    .function(ModuleFunction.pure("lookup", (MolangValue.Function1) value -> value * 2).notFoldable())
+                    .nondeterministic("sample", (MolangValue.Function1) value -> value * Math.random())
+                    .impure("emit", (MolangValue.Function1) value -> value)
+                    .build(), "noise", "n")
+            .build();
+    private static final MolangValue QUERY = MolangValue.Holder.holder(Map.of(
+            "x", new MolangValue.Num(2.5),
+            "zero", new MolangValue.Num(0),
+            "s", new MolangValue.Str("zombie"),
+            "emit", (MolangValue.Function1) value -> value
+    ));
 
     @MethodSource("inputPairs")
     @ParameterizedTest(name = "{0}")
@@ -20,6 +53,281 @@ public class TestMolangOptimizer {
         assertEquals(expected, actual);
     }
 
+    @MethodSource("modulePairs")
+    @ParameterizedTest(name = "{0}")
+    public void testModuleFolding(String input, String expected) {
+        var optimized = MolangOptimizer.optimizeAst(new MolangParser(input).parse(), MODULES);
+        assertEquals(expected, MolangPrinter.print(optimized));
+    }
+
+    @MethodSource("passPairs")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testPass(Pass pass, String input, String expected) {
+        // Negative numbers are parsed as negated constants, so they must be folded too.
+        var passes = EnumSet.of(Pass.CONSTANT_FOLDING, pass);
+        var optimized = MolangOptimizer.optimizeAst(new MolangParser(input).parse(), ModuleRegistry.DEFAULT, passes);
+        assertEquals(expected, MolangPrinter.print(optimized));
+    }
+
+    @MethodSource("equivalenceInputs")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testPassesMatchInterpreter(Set<Pass> passes, String input) {
+        var expr = new MolangParser(input).parse();
+        var optimized = MolangOptimizer.optimizeAst(expr, ModuleRegistry.DEFAULT, passes);
+
+        var interpreter = newEvaluator();
+        var expected = interpreter.eval(expr);
+        var evaluator = newEvaluator();
+        // Reassociation may change rounding, everything else must match exactly.
+        assertEquals(expected, evaluator.eval(optimized), passes.contains(Pass.REASSOCIATION) ? 1e-9 : 0.0);
+        assertEquals(interpreter.getErrorCount(), evaluator.getErrorCount());
+    }
+
+    @Test
+    public void testDefaultPassesReadVariablesOnce() {
+        // Squaring by multiplication would call the function twice and report two errors for the missing variable.
+        var expr = new MolangParser("math.pow(v.f, 2) + math.pow(v.missing, 2)").parse();
+        assertSame(expr, MolangOptimizer.optimizeAst(expr));
+
+        int[] calls = {0};
+        var evaluator = newEvaluator();
+        evaluator.setVariable("f", (MolangValue.Function) args -> new MolangValue.Num(++calls[0]));
+        assertEquals(1, evaluator.eval(MolangOptimizer.optimizeAst(expr)));
+        assertEquals(1, calls[0]);
+        assertEquals(1, evaluator.getErrorCount());
+    }
+
+    @Test
+    public void testFixpoint() {
+        var optimized = MolangOptimizer.optimizeAst(new MolangParser("!!(q.x > 1) * (2 - 1) + 0 * 5").parse());
+        assertEquals("(> (. q x) 1.0)", MolangPrinter.print(optimized));
+    }
+
+    @Test
+    public void testUnchangedTreeIsSame() {
+        var expr = new MolangParser("q.x > 1 ? math.sin(q.y * 2) : n.emit(q.z + 1)").parse();
+        assertSame(expr, MolangOptimizer.optimizeAst(expr, MODULES, EnumSet.allOf(Pass.class)));
+    }
+
+    @Test
+    public void testUnchangedSubtreeIsShared() {
+        var expr = (MolangExpr.Binary) new MolangParser("math.sin(q.y * 2) + (1 + 2)").parse();
+        var optimized = (MolangExpr.Binary) MolangOptimizer.optimizeAst(expr);
+        assertSame(expr.lhs(), optimized.lhs());
+        assertEquals("3.0", MolangPrinter.print(optimized.rhs()));
+    }
+
+    @MethodSource("sharePairs")
+    @ParameterizedTest(name = "{0}")
+    public void testShareCommonSubexpressions(String input, String expected) {
+        var shared = MolangOptimizer.shareCommonSubexpressions(new MolangParser(input).parse());
+        assertEquals(expected, MolangPrinter.print(shared));
+    }
+
+    @Test
+    public void testImpureQueriesAreNotShared() {
+        var expr = new MolangParser("q.x * 2 + q.x * 2 + math.sin(v.x * 2) + math.sin(v.x * 2)").parse();
+        var shared = MolangOptimizer.shareCommonSubexpressions(expr, ModuleRegistry.DEFAULT, false);
+        assertEquals("(+ (+ (+ (* (. q x) 2.0) (* (. q x) 2.0)) (#0 (? (. math sin) (* (. v x) 2.0)))) "
+                + "(#0 (? (. math sin) (* (. v x) 2.0))))", MolangPrinter.print(shared));
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testSharedEvaluatedOncePerEvaluation(MolangBackend backend) {
+        var calls = new AtomicInteger();
+        var query = MolangValue.Holder.holder(Map.of(
+                "count", (MolangValue.Function0) () -> calls.incrementAndGet() > 0 ? 2 : 0,
+                "s", new MolangValue.Str("zombie")
+        ));
+        var expr = new MolangParser("q.count * 3 + math.sqrt(q.count * 3) - q.count * 3 + (q.s * 2) * (q.s * 2)").parse();
+        var expected = new MolangRuntime(Map.of("q", query)).newFrame().eval(expr);
+        assertEquals(3, calls.getAndSet(0));
+
+        var compiled = backend.compile(MolangOptimizer.shareCommonSubexpressions(expr));
+        var evaluator = new MolangRuntime(Map.of("q", query)).newFrame();
+        for (int i = 1; i <= 2; i++) {
+            assertEquals(expected, compiled.eval(evaluator));
+            assertEquals(i, calls.get());
+            // Both operands of `(q.s * 2) * (q.s * 2)` are the same invalid product, which is now reported once.
+            assertEquals(1, evaluator.getErrorCount());
+        }
+    }
+
+    @Test
+    public void testPartialUnroll() {
+        var expr = new MolangParser("loop(100, {q.x;})").parse();
+        var passes = EnumSet.of(Pass.LOOP_UNROLLING);
+        var unrolled = (MolangExpr.Unrolled) MolangOptimizer.optimizeAst(expr, ModuleRegistry.DEFAULT, passes);
+        assertEquals(100, unrolled.iterations());
+        assertEquals(5, unrolled.times());
+        assertEquals(20, unrolled.body().exprs().size());
+        assertSame(expr, unrolled.loop());
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testUnrolledLoopsMatchInterpreter(MolangBackend backend) {
+        var calls = new AtomicInteger();
+        var query = MolangValue.Holder.holder(Map.of(
+                "tick", (MolangValue.Function0) calls::incrementAndGet,
+                "x", new MolangValue.Num(2.5)
+        ));
+        for (var input : List.of("loop(3, {q.tick;})", "loop(100, {q.tick; math.sin(v.x * 90);})",
+                "loop(1024, {q.tick;})", "loop(1025, {q.tick;})", "loop(300, {loop(5, {q.tick;});})",
+                "loop(2, {q.x * 2;}) ?? loop(3, {q.tick;})", "loop(q.x, {q.tick;})", "loop(-1, {q.tick;})")) {
+            var expr = new MolangParser(input).parse();
+            var interpreter = new MolangRuntime(Map.of("q", query)).newFrame();
+            interpreter.setVariable("x", new MolangValue.Num(3));
+            var expected = interpreter.eval(expr);
+            var expectedCalls = calls.getAndSet(0);
+
+            var optimized = MolangOptimizer.optimizeAst(expr);
+            var shared = MolangOptimizer.shareCommonSubexpressions(optimized, ModuleRegistry.DEFAULT, false);
+            var compiled = backend.compile(shared);
+            var evaluator = new MolangRuntime(Map.of("q", query)).newFrame();
+            evaluator.setVariable("x", new MolangValue.Num(3));
+            assertEquals(expected, compiled.eval(evaluator), input);
+            assertEquals(expectedCalls, calls.getAndSet(0), input);
+            assertEquals(interpreter.getErrorCount(), evaluator.getErrorCount(), input);
+        }
+    }
+
+    @MethodSource("specializePairs")
+    @ParameterizedTest(name = "{0}")
+    public void testSpecialize(String input, Map<String, MolangValue> bindings, String expected) {
+        var expr = new MolangParser(input).parse();
+        var specialized = MolangOptimizer.specialize(expr, bindings);
+        assertEquals(expected, MolangPrinter.print(specialized));
+
+        // The residual expression has the same result wherever the bindings hold.
+        var query = MolangValue.Holder.holder(Map.of(
+                "variant", new MolangValue.Num(2),
+                "is_baby", new MolangValue.Num(1),
+                "name", new MolangValue.Str("zombie"),
+                "other", new MolangValue.Str("zombie"),
+                "x", new MolangValue.Num(2.5),
+                "scale", (MolangValue.Function1) value -> value * 3
+        ));
+        var interpreter = new MolangRuntime(Map.of("query", query, "q", query)).newFrame();
+        interpreter.setVariable("scale", new MolangValue.Num(1.5));
+        var evaluator = new MolangRuntime(Map.of("query", query, "q", query)).newFrame();
+        assertEquals(interpreter.eval(expr), evaluator.eval(specialized));
+        assertEquals(interpreter.getErrorCount(), evaluator.getErrorCount());
+    }
+
+    @Test
+    public void testSpecializeInvalidBindings() {
+        var expr = new MolangParser("q.x + t.y").parse();
+        assertThrows(IllegalArgumentException.class, () -> MolangOptimizer.specialize(expr, Map.of("q.x", QUERY)));
+        assertThrows(IllegalArgumentException.class, () -> MolangOptimizer.specialize(expr,
+                Map.of("t.y", new MolangValue.Num(1))));
+        assertThrows(IllegalArgumentException.class, () -> MolangOptimizer.specialize(expr,
+                Map.of("x", new MolangValue.Num(1))));
+        assertThrows(IllegalArgumentException.class, () -> MolangOptimizer.specialize(expr,
+                Map.of("v.x", new MolangValue.Num(1), "variable.x", new MolangValue.Num(2))));
+    }
+
+    private static MolangEvaluator newEvaluator() {
+        var evaluator = new MolangRuntime(Map.of("query", QUERY, "q", QUERY)).newFrame();
+        evaluator.setVariable("x", new MolangValue.Num(3));
+        return evaluator;
+    }
+
+    private static Stream<Arguments> passPairs() {
+        return Stream.of(
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "(q.x > 1) * 1", "(> (. q x) 1.0)"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "q.x * 1", "(* (. q x) 1.0)"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "q.x * 1 + 2", "(+ (. q x) 2.0)"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "2 - (0 + q.x)", "(- 2.0 (. q x))"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "q.x / (q.y - 0)", "(/ (. q x) (. q y))"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "(q.x / 1) / q.y", "(/ (/ (. q x) 1.0) (. q y))"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "!!(q.x > 1)", "(> (. q x) 1.0)"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "!!q.x", "(! (! (. q x)))"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "-(-(q.x * 2))", "(* (. q x) 2.0)"),
+                Arguments.of(Pass.ALGEBRAIC_SIMPLIFICATION, "q.x * 0", "(* (. q x) 0.0)"),
+                Arguments.of(Pass.REASSOCIATION, "(q.x + 1) + 2", "(+ (. q x) 3.0)"),
+                Arguments.of(Pass.REASSOCIATION, "2 + (1 + q.x)", "(+ (. q x) 3.0)"),
+                Arguments.of(Pass.REASSOCIATION, "(q.x - 1) - 2", "(+ (. q x) -3.0)"),
+                Arguments.of(Pass.REASSOCIATION, "((q.x + 1) - 2) + 3", "(+ (. q x) 2.0)"),
+                Arguments.of(Pass.REASSOCIATION, "(q.x * 2) * 3", "(* (. q x) 6.0)"),
+                Arguments.of(Pass.REASSOCIATION, "(q.x / 2) * 3", "(* (/ (. q x) 2.0) 3.0)"),
+                Arguments.of(Pass.REASSOCIATION, "2 - (q.x + 1)", "(- 2.0 (+ (. q x) 1.0))"),
+                Arguments.of(Pass.STRENGTH_REDUCTION, "q.x / 4", "(* (. q x) 0.25)"),
+                Arguments.of(Pass.STRENGTH_REDUCTION, "q.x / 3", "(/ (. q x) 3.0)"),
+                Arguments.of(Pass.STRENGTH_REDUCTION, "(q.x + 1) * -1", "(- (+ (. q x) 1.0))"),
+                Arguments.of(Pass.STRENGTH_REDUCTION, "q.x * -1", "(* (. q x) -1.0)"),
+                Arguments.of(Pass.STRENGTH_REDUCTION, "math.pow(v.x, 2)", "(? (. math pow) (. v x) 2.0)"),
+                Arguments.of(Pass.POW_EXPANSION, "math.pow(v.x, 2)", "(* (. v x) (. v x))"),
+                Arguments.of(Pass.POW_EXPANSION, "m.pow(t.x, 2)", "(* (. t x) (. t x))"),
+                Arguments.of(Pass.POW_EXPANSION, "math.pow(q.x, 2)", "(? (. math pow) (. q x) 2.0)"),
+                Arguments.of(Pass.DEAD_STATEMENT_ELIMINATION, "{1; q.x; foo;}", "{ (. q x) }"),
+                Arguments.of(Pass.DEAD_STATEMENT_ELIMINATION, "{q.x; return; q.y;}", "{ (. q x); return }"),
+                Arguments.of(Pass.DEAD_STATEMENT_ELIMINATION, "{break; 1;}", "{ break }"),
+                Arguments.of(Pass.DEAD_STATEMENT_ELIMINATION, "loop(2, {1; q.x;})", "(? loop 2.0 { (. q x) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(3, {q.x;})", "(unrolled 3 1 { (. q x); (. q x); (. q x) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(2.5, {q.x;})", "(unrolled 2 1 { (. q x); (. q x) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(0, {q.x;})", "{ }"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(3, {q.x; break;})", "(? loop 3.0 { (. q x); break })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(3, {loop(2, {q.x;});})",
+                        "(? loop 3.0 { (unrolled 2 1 { (. q x); (. q x) }) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(2000, {q.x;})", "(? loop 2000.0 { (. q x) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(q.n, {q.x;})", "(? loop (. q n) { (. q x) })"),
+                Arguments.of(Pass.LOOP_UNROLLING, "loop(3, q.x)", "(? loop 3.0 (. q x))")
+        );
+    }
+
+    private static Stream<Arguments> specializePairs() {
+        var variant = Map.of("q.variant", new MolangValue.Num(2));
+        return Stream.of(
+                Arguments.of("q.variant == 2 ? q.x * 2 : q.y", variant, "(* (. q x) 2.0)"),
+                Arguments.of("q.variant > 2 ? q.x * 2 : math.sin(q.variant * 45)", variant, "1.0"),
+                Arguments.of("query.variant + q.variant", variant, "(+ (. query variant) 2.0)"),
+                Arguments.of("v.scale * 2 + variable.scale", Map.of("variable.scale", new MolangValue.Num(1.5)), "4.5"),
+                Arguments.of("q.is_baby ? 0.5 : q.x", Map.of("q.is_baby", new MolangValue.Num(1)), "0.5"),
+                Arguments.of("q.name == q.other ? 1 : 2", Map.of("q.name", new MolangValue.Str("zombie"),
+                        "q.other", new MolangValue.Str("zombie")), "1.0"),
+                Arguments.of("q.scale(q.variant) + q.variant", variant, "(+ (? (. q scale) 2.0) 2.0)"),
+                Arguments.of("loop(q.variant, {q.x;})", variant, "(unrolled 2 1 { (. q x); (. q x) })"),
+                Arguments.of("q.x * 2", variant, "(* (. q x) 2.0)")
+        );
+    }
+
+    private static Stream<Arguments> sharePairs() {
+        return Stream.of(
+                Arguments.of("math.sin(q.t * 90) + math.sin(q.t * 90)",
+                        "(+ (#0 (? (. math sin) (* (. q t) 90.0))) (#0 (? (. math sin) (* (. q t) 90.0))))"),
+                Arguments.of("math.sin(q.t * 90) * 2 + math.cos(q.t * 90)",
+                        "(+ (* (? (. math sin) (#0 (* (. q t) 90.0))) 2.0) (? (. math cos) (#0 (* (. q t) 90.0))))"),
+                Arguments.of("q.t + q.t", "(+ (#0 (. q t)) (#0 (. q t)))"),
+                Arguments.of("q.emit(1) + q.emit(1)", "(+ (#0 (? (. q emit) 1.0)) (#0 (? (. q emit) 1.0)))"),
+                Arguments.of("v.x + v.x", "(+ (. v x) (. v x))"),
+                Arguments.of("q.t * 2 + v.x", "(+ (* (. q t) 2.0) (. v x))"),
+                Arguments.of("math.random(0, 1) + math.random(0, 1)",
+                        "(+ (? (. math random) 0.0 1.0) (? (. math random) 0.0 1.0))"),
+                Arguments.of("loop(2, {q.t;}) ?? loop(2, {q.t;})",
+                        "(?? (? loop 2.0 { (#0 (. q t)) }) (? loop 2.0 { (#0 (. q t)) }))"),
+                Arguments.of("loop(4, {math.sin(v.x * 2);})", "(? loop 4.0 { (#0 (? (. math sin) (* (. v x) 2.0))) })"),
+                Arguments.of("loop(q.n, {loop(2, {q.t;});})", "(? loop (. q n) { (? loop 2.0 { (#0 (. q t)) }) })"),
+                Arguments.of("loop(3, {q.t;}) + q.t", "(+ (? loop 3.0 { (#0 (. q t)) }) (#0 (. q t)))")
+        );
+    }
+
+    private static Stream<Arguments> equivalenceInputs() {
+        var passSets = Stream.concat(
+                Stream.of(Pass.values()).map(pass -> (Set<Pass>) EnumSet.of(pass)),
+                Stream.of(MolangOptimizer.DEFAULT_PASSES, EnumSet.allOf(Pass.class))).toList();
+        return passSets.stream().flatMap(passes -> Stream.of(
+                "q.x * 1 + 2", "q.s * 1 + 2", "(q.s / 1) / q.zero", "q.x / (q.s * 1)", "-(q.s + 0)", "!!(q.x > 1)",
+                "!!q.s", "-(-q.x)", "-(-q.s)", "(q.s - 0) > 1", "(q.missing * 1) ?? 5", "(q.s + 1) + 2", "2 + (1 + q.x)",
+                "(q.x - 1) - 2", "(q.x * 2) * 3", "q.s * 2 * 3", "q.x / 4", "q.s / 0.5", "q.x * -1 + 1", "q.s * -1",
+                "math.pow(v.x, 2)", "{1; q.x; return; q.emit(1);}", "loop(3, {1; v.x * 1; q.emit(2);})",
+                "(1 > 2) * 0 + q.x", "q.zero && (q.s * 1)", "(q.s * 1) && 1", "math.lerp(0, 10, 0.5) * q.x / 2",
+                "q.s == (q.s * 1)", "q.x > 2 ? (q.x + 0) * 1 : q.s / 1", "loop(4, {q.emit(1); 1;})",
+                "loop(0, {q.emit(1);})", "loop(1100, {q.emit(1);})", "loop(300, {loop(5, {q.emit(1);});})"
+        ).map(input -> Arguments.of(passes, input)));
+    }
+
     private static Stream<Arguments> inputPairs() {
         return Stream.of(
                 Arguments.of("basic number",
@@ -37,4 +345,19 @@ public class TestMolangOptimizer {
         );
     }
 
+    private static Stream<Arguments> modulePairs() {
+        return Stream.of(
+                Arguments.of("noise.add(1, 2)", "3.0"),
+                Arguments.of("n.add(1, 2) * 2", "6.0"),
+                Arguments.of("n.sum(1, 2, 3)", "6.0"),
+                Arguments.of("n.add(1)", "(? (. n add) 1.0)"),
+                Arguments.of("n.add(q.x, 2)", "(? (. n add) (. q x) 2.0)"),
+                Arguments.of("n.lookup(1)", "(? (. n lookup) 1.0)"),
+                Arguments.of("n.sample(1)", "(? (. n sample) 1.0)"),
+                Arguments.of("n.emit(1)", "(? (. n emit) 1.0)"),
+                Arguments.of("math.random(0, 1)", "(? (. math random) 0.0 1.0)"),
+                Arguments.of("math.abs(-1)", "1.0")
+        );
+    }
+
 }
@@ -0,0 +1,168 @@
+package net.hollowcube.molang;
+
+import net.hollowcube.molang.MolangBulkParser.Result;
+import net.hollowcube.molang.MolangBulkParser.Source;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import net.hollowcube.molang.runtime.MolangMath;
+import net.hollowcube.molang.runtime.MolangModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangPackCache {
+    private static final List<Source> SOURCES = List.of(
+            Source.of("1 + 2 * q.x"),
+            Source.of("!q.is_on_ground ? math.lerp(0, 1, q.anim_time) : -5"),
+            new Source("q.tick; return q.x ?? 2;", true),
+            Source.of("math.sin(q.anim_time * 90) * 10 + math.sin(q.anim_time * 90)"),
+            Source.of("1 +"),
+            Source.of("1 + 2 * q.x"),
+            Source.of("q.hello(1, 2).z"),
+            Source.of("loop(3, {q.tick;})"));
+
+    @TempDir
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() {
+        file = directory.resolve("pack.bin");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        var results = MolangBulkParser.parseAll(SOURCES);
+        MolangPackCache.write(file, results);
+        var cache = MolangPackCache.open(file, SOURCES);
+        assertNotNull(cache);
+        assertEquals(SOURCES.size(), cache.size());
+        for (int i = 0; i < SOURCES.size(); i++) {
+            if (results.get(i).failed()) continue;
+            assertEquals(results.get(i).exprOrThrow(), cache.get(i));
+            assertEquals(results.get(i), cache.result(i));
+            // Decoded once.
+            assertSame(cache.get(i), cache.get(i));
+        }
+        assertInstanceOf(MolangExpr.Unrolled.class, cache.get(7));
+    }
+
+    @Test
+    public void testFailuresAreParsedAgain() throws IOException {
+        MolangPackCache.write(file, MolangBulkParser.parseAll(SOURCES));
+        var cache = MolangPackCache.open(file, SOURCES);
+        assertNotNull(cache);
+        var expected = assertThrows(RuntimeException.class, () -> MolangExpr.parseOrThrow("1 +"));
+        var actual = assertThrows(RuntimeException.class, () -> cache.get(4));
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertTrue(cache.result(4).failed());
+    }
+
+    @Test
+    public void testSharedSubexpressionsKeepTheirIdentity() throws IOException {
+        var expr = MolangOptimizer.shareCommonSubexpressions(MolangExpr.parseOrThrow(SOURCES.get(3).source()));
+        MolangPackCache.write(file, List.of(new Result(SOURCES.get(3), expr, null)));
+        var cache = MolangPackCache.open(file, List.of(SOURCES.get(3)));
+        assertNotNull(cache);
+
+        var decoded = (MolangExpr.Binary) cache.get(0);
+        assertEquals(expr, decoded);
+        var lhs = (MolangExpr.Binary) decoded.lhs();
+        assertInstanceOf(MolangExpr.Shared.class, lhs.lhs());
+        assertSame(lhs.lhs(), decoded.rhs());
+    }
+
+    @Test
+    public void testStringLiterals() throws IOException {
+        var expr = new MolangExpr.Binary(MolangExpr.Binary.Op.EQ,
+                new MolangExpr.Str("ünïcode"), new MolangExpr.Str(""));
+        MolangPackCache.write(file, List.of(new Result(SOURCES.get(0), expr, null)));
+        var cache = MolangPackCache.open(file, List.of(SOURCES.get(0)));
+        assertNotNull(cache);
+        assertEquals(expr, cache.get(0));
+    }
+
+    @Test
+    public void testStaleFilesAreNotOpened() throws IOException {
+        assertNull(MolangPackCache.open(file, SOURCES));
+
+        MolangPackCache.write(file, MolangBulkParser.parseAll(SOURCES));
+        var changed = new ArrayList<>(SOURCES);
+        changed.set(1, Source.of("q.x"));
+        assertNull(MolangPackCache.open(file, changed));
+        assertNull(MolangPackCache.open(file, SOURCES.subList(0, 3)));
+        changed = new ArrayList<>(SOURCES);
+        changed.set(0, new Source(SOURCES.get(0).source(), true));
+        assertNull(MolangPackCache.open(file, changed));
+
+        // Another version of the encoding.
+        var bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(4, MolangPackCache.VERSION + 1);
+        Files.write(file, bytes);
+        assertNull(MolangPackCache.open(file, SOURCES));
+    }
+
+    @Test
+    public void testOtherRegistriesAreStale() throws IOException {
+        MolangPackCache.write(file, MolangBulkParser.parseAll(SOURCES));
+        assertNotNull(MolangPackCache.open(file, SOURCES, ModuleRegistry.builder().build()));
+
+        var abs = (MolangValue.Function) MolangMath.MODULE.get("abs");
+        var registries = List.of(
+                ModuleRegistry.builder().approximateTrigonometry(true).build(),
+                ModuleRegistry.builder().approximateEasing(true).build(),
+                ModuleRegistry.builder().module(MolangModule.builder("extra").pure("f", abs).build(), "extra").build(),
+                ModuleRegistry.builder().module(MolangModule.builder("extra").impure("f", abs).build(), "extra").build());
+        for (var modules : registries)
+            assertNull(MolangPackCache.open(file, SOURCES, modules));
+
+        // Trees folded for one registry are replaced by those of another.
+        var sources = List.of(Source.of("math.sin(30)"));
+        var pool = new ForkJoinPool(1);
+        try {
+            for (var modules : List.of(ModuleRegistry.DEFAULT, registries.getFirst())) {
+                var expected = MolangBulkParser.parseAll(sources, modules, pool).getFirst().exprOrThrow();
+                assertEquals(expected, MolangPackCache.load(file, sources, modules, pool).get(0));
+            }
+            assertNull(MolangPackCache.open(file, sources));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadWritesThenReuses() throws IOException {
+        var pool = new ForkJoinPool(2);
+        try {
+            var loaded = MolangPackCache.load(file, SOURCES, ModuleRegistry.DEFAULT, pool);
+            var expected = MolangBulkParser.parseAll(SOURCES);
+            assertEquals(expected.get(1).exprOrThrow(), loaded.get(1));
+            assertNotNull(MolangPackCache.open(file, SOURCES));
+
+            // An up to date file is used as is.
+            var results = new ArrayList<>(expected);
+            results.set(1, new Result(SOURCES.get(1), new MolangExpr.Num(42), null));
+            MolangPackCache.write(file, results);
+            var reused = MolangPackCache.load(file, SOURCES, ModuleRegistry.DEFAULT, pool);
+            assertEquals(new MolangExpr.Num(42), reused.get(1));
+
+            // A stale one is replaced.
+            var changed = List.of(Source.of("2 * 3"));
+            var replaced = MolangPackCache.load(file, changed, ModuleRegistry.DEFAULT, pool);
+            assertEquals(new MolangExpr.Num(6), replaced.get(0));
+            assertNull(MolangPackCache.open(file, SOURCES));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import net.hollowcube.molang.runtime.ContentError;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangCompiler {
+    private static final MolangValue QUERY = MolangValue.Holder.holder(Map.of(
+            "anim_time", new MolangValue.Num(2.5),
+            "name", new MolangValue.Str("zombie"),
+            "double", (MolangValue.Function) args -> new MolangValue.Num(
+                    ((MolangValue.Num) args.getFirst()).value() * 2),
+            "add", (MolangValue.Function2) Double::sum
+    ));
+
+    @MethodSource("inputs")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testMatchesInterpreter(MolangBackend backend, String input) {
+        var expr = MolangExpr.parseOrThrow(input);
+        var compiled = backend.compile(expr);
+
+        var interpreter = new MolangEvaluator(Map.of("query", QUERY, "q", QUERY));
+        var expected = interpreter.eval(expr);
+        var expectedErrors = describe(interpreter.getErrors());
+
+        var evaluator = new MolangEvaluator(Map.of("query", QUERY, "q", QUERY));
+        assertEquals(expected, compiled.eval(evaluator));
+        assertEquals(expectedErrors, describe(evaluator.getErrors()));
+    }
+
+    @MethodSource("errorInputs")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testErrorNodes(MolangBackend backend, String input) {
+        var evaluator = new MolangEvaluator(Map.of("query", QUERY, "q", QUERY));
+        backend.compile(MolangExpr.parseOrThrow(input)).eval(evaluator);
+
+        assertFalse(evaluator.getErrors().isEmpty());
+        for (var error : evaluator.getErrors())
+            assertNotNull(error.node(), error.message());
+    }
+
+    @MethodSource("inputs")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testOptimizedMatchesInterpreter(MolangBackend backend, String input) {
+        var expr = MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow(input));
+        var compiled = backend.compile(expr);
+
+        var evaluator = new MolangEvaluator(Map.of("query", QUERY, "q", QUERY));
+        assertEquals(new MolangEvaluator(Map.of("query", QUERY, "q", QUERY)).eval(expr), compiled.eval(evaluator));
+    }
+
+    // Operands may be reported boxed or unboxed depending on the backend, so only their message is compared.
+    private static List<String> describe(List<ContentError> errors) {
+        return errors.stream().map(error -> error.code() + " at " + error.node() + ": " + error.message()).toList();
+    }
+
+    private static Stream<Arguments> inputs() {
+        return Stream.of(MolangBackend.values()).flatMap(backend -> Stream.of(
+                "1", "1+4", "(4+3)*2", "10/4", "1/0", "-(2-5)",
+                "2*math.pi", "math.lerp(0, 10, q.anim_time / 5)", "m.ease_in_out_cubic(0, 1, 0.75)",
+                "1 && 0", "1 || 0 || 0", "!1", "!0", "!(q.anim_time > 2)",
+                "3 >= 3", "3 > 3", "2 <= 3", "2 < 3", "1 == 1", "1 != 1",
+                "q.anim_time", "q.anim_time * 2 + 1", "q.missing ?? 7", "q.anim_time ?? 7",
+                "q.name == q.name", "q.name != q.missing", "q.name + 1", "q.name ? 1 : 2",
+                "q.anim_time > 2 ? q.anim_time : -1", "q.double(4)", "q.missing(1)", "q.double(q.missing)",
+                "{1; 2;}", "loop(3, {break;})", "break", "math.sqrt(q.anim_time) > 1 ? 5 : q.name",
+                "math.pi", "math.clamp(q.anim_time, 0)", "math.lerp(q.missing, 1, 0.5)",
+                "loop(3, {loop(3, {q.double(1); break;}); q.double(2);})", "loop(5, {q.anim_time > 2 ? return : 1;}) + 1",
+                "{1; return; 2;}", "1 + return", "loop(3, {(q.anim_time > 1 ? break : 0) + q.double(1);})", "continue + 1",
+                "math.lerp(1, 2)", "math.abs(q.name)", "math.max(q.missing, -1)", "math.min(q.anim_time, q.double(1))",
+                "q.add(1, q.anim_time)", "q.add(1)", "q.add(q.name, 2)", "math.abs(loop(1, {break;}))",
+                "q.name(1)", "q.anim_time.x", "math.acos(2)", "math.acos(q.anim_time)", "loop(1)",
+                "loop(2000, {q.double(1);})", "q.anim_time / 0", "v.x / q.missing"
+        ).map(input -> Arguments.of(backend, input)));
+    }
+
+    private static Stream<Arguments> errorInputs() {
+        return Stream.of(MolangBackend.values()).flatMap(backend -> Stream.of(
+                "1 / 0", "q.anim_time / 0", "q.name", "q.name(1)", "q.anim_time.x", "math.acos(2)",
+                "math.acos(q.anim_time)", "math.lerp(1, 2)", "q.double(q.name)", "loop(1)", "loop(2000, {q.double(1);})"
+        ).map(input -> Arguments.of(backend, input)));
+    }
+
+}
@@ -0,0 +1,166 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import net.hollowcube.molang.runtime.MolangModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangDependencies {
+    private static final ModuleRegistry MODULES = ModuleRegistry.builder()
+            .module(MolangModule.builder("noise")
+                    .pure("add", (MolangValue.Function2) Double::sum)
+                    .impure("emit", (MolangValue.Function1) value -> value)
+                    .build(), "noise", "n")
+            .build();
+
+    private record Entity(double animTime) {
+    }
+
+    @MethodSource("dependencyPairs")
+    @ParameterizedTest(name = "{0}")
+    public void testDependencies(String input, String queries, String variables, String temps, String effects,
+                                 boolean deterministic) {
+        var dependencies = MolangDependencies.of(MolangExpr.parseOrThrow(input), MODULES);
+        assertEquals(queries, dependencies.queries().stream().map(MolangExpr::toString).sorted()
+                .collect(Collectors.joining(" ")));
+        assertEquals(variables, String.join(" ", dependencies.variables().stream().sorted().toList()));
+        assertEquals(temps, String.join(" ", dependencies.temps().stream().sorted().toList()));
+        assertEquals(effects, dependencies.effects().stream().map(MolangExpr::toString).sorted()
+                .collect(Collectors.joining(" ")));
+        assertEquals(deterministic, dependencies.deterministic());
+    }
+
+    @Test
+    public void testOptimizedDependencies() {
+        var expr = MolangExpr.parseOrThrow("loop(4, {math.sin(v.x * 90) + q.anim_time;}) + math.sin(v.x * 90)");
+        var optimized = MolangOptimizer.shareCommonSubexpressions(MolangOptimizer.optimizeAst(expr));
+        assertEquals(MolangDependencies.of(expr), MolangDependencies.of(optimized));
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testIncrementalSkipsUnchanged(MolangBackend backend) {
+        var reads = new AtomicInteger();
+        var query = QueryNamespace.<Entity>builder()
+                .number("anim_time", entity -> {
+                    reads.incrementAndGet();
+                    return entity.animTime();
+                })
+                .build();
+        var runtime = new MolangRuntime(Map.of(), new SlotLayout(), Map.of("query", query, "q", query));
+        var compiled = backend.compile(MolangExpr.parseOrThrow("q.anim_time * 2 + v.x"), runtime);
+        var frame = runtime.newFrame();
+        var entity = new Entity(1.5);
+        frame.setContext(entity);
+        frame.setVariable("x", new MolangValue.Num(1));
+
+        assertEquals(4.0, compiled.evalIncremental(frame));
+        assertEquals(4.0, compiled.evalIncremental(frame));
+        assertEquals(1, reads.get());
+
+        // Setting the same value or the same context changes nothing.
+        frame.setVariable("x", new MolangValue.Num(1));
+        frame.setContext(entity);
+        frame.markQueryChanged("health");
+        assertEquals(4.0, compiled.evalIncremental(frame));
+        assertEquals(1, reads.get());
+
+        frame.setVariable("x", new MolangValue.Num(2));
+        assertEquals(5.0, compiled.evalIncremental(frame));
+        assertEquals(2, reads.get());
+
+        frame.markQueryChanged("anim_time");
+        assertEquals(5.0, compiled.evalIncremental(frame));
+        assertEquals(3, reads.get());
+
+        frame.setContext(new Entity(2.5));
+        assertEquals(7.0, compiled.evalIncremental(frame));
+        assertEquals(4, reads.get());
+
+        // Plain evaluations are unaffected.
+        assertEquals(7.0, compiled.eval(frame));
+        assertEquals(5, reads.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testIncrementalIsPerFrame(MolangBackend backend) {
+        var compiled = backend.compile(MolangExpr.parseOrThrow("v.x * 2"));
+        var runtime = new MolangRuntime(Map.of());
+        var first = runtime.newFrame();
+        var second = runtime.newFrame();
+        first.setVariable("x", new MolangValue.Num(1));
+        second.setVariable("x", new MolangValue.Num(2));
+
+        assertEquals(2.0, compiled.evalIncremental(first));
+        assertEquals(4.0, compiled.evalIncremental(second));
+        assertEquals(2.0, compiled.evalIncremental(first));
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testIncrementalAlwaysEvaluates(MolangBackend backend) {
+        var calls = new AtomicInteger();
+        MolangValue.Function count = args -> new MolangValue.Num(calls.incrementAndGet());
+        var modules = ModuleRegistry.builder()
+                .module(MolangModule.builder("noise")
+                        .impure("emit", count)
+                        .nondeterministic("sample", count)
+                        .build(), "noise", "n")
+                .build();
+        var query = MolangValue.Holder.holder(Map.of("emit", count));
+        var runtime = new MolangRuntime(Map.of("foo", count, "q", query), new SlotLayout(), Map.of(), modules);
+        var frame = runtime.newFrame();
+        var inputs = Set.of("n.emit(1)", "n.sample(1) * 2", "n.emit", "n.sample + 1", "foo(1)", "q.emit(1) + 1");
+        for (var input : inputs) {
+            var compiled = backend.compile(MolangExpr.parseOrThrow(input), runtime);
+            calls.set(0);
+            compiled.evalIncremental(frame);
+            compiled.evalIncremental(frame);
+            assertEquals(2, calls.get(), input);
+        }
+
+        // Errors are reported by every evaluation, so their results are not reused either.
+        var invalid = backend.compile(MolangExpr.parseOrThrow("v.missing + 1"), runtime);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1.0, invalid.evalIncremental(frame));
+            assertEquals(1, frame.getErrorCount());
+        }
+        var valid = backend.compile(MolangExpr.parseOrThrow("1 + 1"), runtime);
+        valid.evalIncremental(frame);
+        invalid.evalIncremental(frame);
+        assertEquals(2.0, valid.evalIncremental(frame));
+        assertFalse(frame.hasErrors());
+    }
+
+    private static Stream<Arguments> dependencyPairs() {
+        return Stream.of(
+                Arguments.of("1 + 2", "", "", "", "", true),
+                Arguments.of("q.anim_time * 2 + query.health", "q.anim_time query.health", "", "", "", true),
+                Arguments.of("q.is_on_fire(1) ? v.a : t.b", "q.is_on_fire", "a", "b", "q.is_on_fire", true),
+                Arguments.of("q.item.count + variable.x + temp.y", "q.item", "x", "y", "", true),
+                Arguments.of("math.sin(v.x) + math.pi + m.cos(1)", "", "x", "", "", true),
+                Arguments.of("math.random(0, v.max)", "", "max", "", "", false),
+                Arguments.of("n.emit(q.x) + n.add(1, 2)", "q.x", "", "", "n.emit", false),
+                Arguments.of("n.emit + math.random + n.add", "", "", "", "n.emit", false),
+                Arguments.of("loop(v.n, {q.x > 1 ? break : 0;})", "q.x", "n", "", "", true),
+                Arguments.of("foo + bar.baz", "bar.baz", "", "", "", false),
+                Arguments.of("foo(1) + math.pi", "", "", "", "", false),
+                Arguments.of("q.item.count(1) + v.fn(2)", "q.item", "fn", "", "q.item.count v.fn", true),
+                Arguments.of("v + math", "", "", "", "", true)
+        );
+    }
+}
@@ -1,14 +1,21 @@
 package net.hollowcube.molang.eval;
 
+import net.hollowcube.molang.MolangExpr;
 import net.hollowcube.molang.MolangParser;
+import net.hollowcube.molang.runtime.ContentError;
+import net.hollowcube.molang.runtime.MolangMath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class TestMolangEvaluator {
 
@@ -21,6 +28,93 @@ public class TestMolangEvaluator {
         assertEquals(expected, String.valueOf(actual));
     }
 
+    @MethodSource("errorPairs")
+    @ParameterizedTest(name = "{0}")
+    public void testErrors(String input, ContentError.Code code, String message) {
+        var evaluator = new MolangEvaluator(Map.of());
+        evaluator.eval(new MolangParser(input).parse());
+
+        var error = evaluator.getErrors().getFirst();
+        assertEquals(code, error.code());
+        assertEquals(message, error.message());
+    }
+
+    @MethodSource("controlFlowInputs")
+    @ParameterizedTest(name = "{0}")
+    public void testControlFlow(String input, int expectedTicks, int expectedErrors) {
+        int[] ticks = {0};
+        var query = MolangValue.Holder.holder(Map.of("tick",
+                (MolangValue.Function) args -> new MolangValue.Num(++ticks[0])));
+        var evaluator = new MolangEvaluator(Map.of("q", query));
+        evaluator.eval(new MolangParser(input).parse());
+
+        assertEquals(expectedTicks, ticks[0]);
+        assertEquals(expectedErrors, evaluator.getErrorCount());
+    }
+
+    @Test
+    public void testCountErrorMode() {
+        var evaluator = new MolangEvaluator(Map.of());
+        evaluator.setErrorMode(MolangEvaluator.ErrorMode.COUNT);
+
+        evaluator.eval(new MolangParser("1 / 0 + math.missing(1)").parse()); // The nil operand is an error too
+        assertEquals(3, evaluator.getErrorCount());
+        assertTrue(evaluator.hasErrors());
+        assertEquals(List.of(), evaluator.getErrors());
+
+        evaluator.eval(new MolangParser("1").parse());
+        assertFalse(evaluator.hasErrors());
+    }
+
+    @Test
+    @Timeout(10)
+    public void testNestedSharedTernaries() {
+        // Each level refers to the previous one twice, so walking the tree instead of the shared nodes never finishes.
+        MolangExpr expr = new MolangExpr.Num(1);
+        for (int i = 0; i < 64; i++) {
+            var sum = new MolangExpr.Binary(MolangExpr.Binary.Op.PLUS, expr, expr);
+            expr = new MolangExpr.Shared(i, new MolangExpr.Ternary(new MolangExpr.Num(1), sum, new MolangExpr.Num(0)));
+        }
+
+        assertEquals(0x1p64, new MolangEvaluator(Map.of()).eval(expr));
+    }
+
+    @Test
+    public void testNumericClassificationPerExpression() {
+        var query = MolangValue.Holder.holder(Map.of("x", new MolangValue.Num(5)));
+        var evaluator = new MolangEvaluator(Map.of("q", query));
+        var numeric = new MolangParser("v.a ?? 1 ? 2 : 3").parse();
+        var boxed = new MolangParser("0 ? 2 : q.x").parse();
+
+        assertEquals(2, evaluator.eval(numeric));
+        assertEquals(5, evaluator.eval(boxed));
+        assertEquals(2, evaluator.eval(numeric));
+        assertEquals(5, MolangBackend.CLOSURE.compile(boxed).eval(evaluator));
+        assertEquals(2, evaluator.eval(numeric));
+        assertFalse(evaluator.hasErrors());
+    }
+
+    @Test
+    public void testNumericClassificationIsSharedByFrames() {
+        var runtime = new MolangRuntime(Map.of());
+        var exprs = new ArrayList<MolangExpr>();
+        for (int i = 0; i < 200; i++)
+            exprs.add(new MolangParser("v.x > " + i + " ? " + i + " : 1").parse());
+        var first = runtime.newFrame();
+        var second = runtime.newFrame();
+        for (var expr : exprs)
+            assertEquals(1, first.eval(expr));
+
+        // Classified once while the table grew, the other frame reuses the classifications.
+        for (var expr : exprs) {
+            var numeric = runtime.numericNodes(expr);
+            assertSame(numeric, runtime.numericNodes(expr));
+            assertTrue(numeric.root());
+            assertEquals(1, second.eval(expr));
+            assertSame(numeric, runtime.numericNodes(expr));
+        }
+    }
+
     private static Stream<Arguments> inputPairs() {
         return Stream.of(
                 Arguments.of("basic number",
@@ -50,7 +144,43 @@ public class TestMolangEvaluator {
                 Arguments.of("ease_in_out_cubic 1",
                         "m.ease_in_out_cubic(0, 1, 0.5)", "0.5"),
                 Arguments.of("ease_in_out_cubic 2",
-                        "m.ease_in_out_cubic(0, 1, 0.75)", "0.9375")
+                        "m.ease_in_out_cubic(0, 1, 0.75)", "0.9375"),
+                Arguments.of("division by zero",
+                        "1 + 4 / (2 - 2)", "1.0"),
+                Arguments.of("numeric ternary",
+                        "(1 > 2) ? 3 : -(4 * 2)", "-8.0"),
+                Arguments.of("mixed numeric and call",
+                        "math.abs(-3) * 2 + (1 < math.pi)", "7.0"),
+                Arguments.of("nil operand",
+                        "math.missing + 2", "2.0")
+        );
+    }
+
+    private static Stream<Arguments> controlFlowInputs() {
+        // The result of a loop is nil, hence the trailing error in most cases.
+        return Stream.of(
+                Arguments.of("loop(10, {q.tick(1); q.tick(1) > 5 ? break : continue; q.tick(1);})", 6, 1),
+                Arguments.of("loop(3, {loop(3, {q.tick(1); break;}); q.tick(1);})", 6, 1),
+                Arguments.of("loop(3, {loop(3, {q.tick(1); continue; q.tick(1);}); q.tick(1) > 5 ? break : 0;})", 8, 1),
+                Arguments.of("loop(5, {q.tick(1) > 2 ? return : 1;}) + q.tick(1)", 3, 1),
+                Arguments.of("loop(3, {(q.tick(1) > 1 ? break : 0) + q.tick(1);})", 3, 1),
+                Arguments.of("loop(3, {math.abs(break); q.tick(1);})", 0, 1),
+                Arguments.of("loop(2000, {q.tick(1);})", MolangEvaluator.MAX_LOOP_COUNTER, 2),
+                Arguments.of("{q.tick(1); return; q.tick(1);}", 1, 1),
+                Arguments.of("break + q.tick(1)", 1, 2)
+        );
+    }
+
+    private static Stream<Arguments> errorPairs() {
+        return Stream.of(
+                Arguments.of("1 / 0", ContentError.Code.DIVISION_BY_ZERO, "Division by zero: 1.0 / 0.0"),
+                Arguments.of("-math", ContentError.Code.INVALID_UNARY_OPERAND, "Cannot apply unary '-' to: " + MolangMath.MODULE),
+                Arguments.of("break", ContentError.Code.BREAK_OUTSIDE_LOOP, "Cannot use break outside of a loop"),
+                Arguments.of("this", ContentError.Code.UNSUPPORTED, "'this' expressions are not supported"),
+                Arguments.of("math.missing(1)", ContentError.Code.NOT_CALLABLE, "Cannot call non-function: undefined"),
+                Arguments.of("math.acos(2)", ContentError.Code.FUNCTION_ERROR, "acos: value must be in the range [-1, 1]"),
+                Arguments.of("math.lerp(1, 2)", ContentError.Code.FUNCTION_ERROR, "Expected 3 arguments got 2 for lerp"),
+                Arguments.of("loop(1)", ContentError.Code.LOOP_ARITY, "loop requires exactly 2 arguments, got: 1")
         );
     }
 
@@ -0,0 +1,104 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.runtime.MolangModule;
+import net.hollowcube.molang.runtime.ModuleRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangRuntime {
+    private static final MolangValue QUERY = MolangValue.Holder.holder(Map.of(
+            "anim_time", new MolangValue.Num(2.5)
+    ));
+
+    @Test
+    public void testReservedNamesAreIgnored() {
+        var runtime = new MolangRuntime(Map.of("v", new MolangValue.Num(1), "math", new MolangValue.Num(2)));
+        var evaluator = runtime.newFrame();
+        evaluator.setVariable("x", new MolangValue.Num(3));
+        assertEquals(3.0, evaluator.eval(MolangExpr.parseOrThrow("v.x")));
+        assertEquals(Math.PI, evaluator.eval(MolangExpr.parseOrThrow("math.pi")));
+    }
+
+    @Test
+    public void testFramesAreIndependent() {
+        var runtime = new MolangRuntime(Map.of("q", QUERY));
+        var first = runtime.newFrame();
+        var second = runtime.newFrame();
+        first.setVariable("x", new MolangValue.Num(1));
+
+        var expr = MolangExpr.parseOrThrow("v.x ?? q.anim_time");
+        assertEquals(1.0, first.eval(expr));
+        assertEquals(2.5, second.eval(expr));
+
+        second.eval(MolangExpr.parseOrThrow("1 / 0"));
+        assertEquals(0, first.getErrors().size());
+        assertEquals(1, second.getErrors().size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testConcurrentEvaluationIsDeterministic(MolangBackend backend) throws Exception {
+        var expr = MolangExpr.parseOrThrow("math.sin(q.anim_time * v.seed) * 10 + (v.seed > 50 ? 1 / 0 : v.seed)");
+        var layout = SlotLayout.resolve(expr);
+        var runtime = new MolangRuntime(Map.of("query", QUERY, "q", QUERY), layout);
+        var compiled = backend.compile(expr, layout);
+
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int thread = 0; thread < 16; thread++) {
+            tasks.add(() -> {
+                var evaluator = runtime.newFrame();
+                for (int i = 0; i < 2000; i++) {
+                    double seed = i % 100;
+                    evaluator.setVariable("seed", new MolangValue.Num(seed));
+                    double expected = Math.sin(Math.toRadians(2.5 * seed)) * 10 + (seed > 50 ? 0 : seed);
+                    assertEquals(expected, compiled.eval(evaluator));
+                    assertEquals(seed > 50 ? 1 : 0, evaluator.getErrors().size());
+                }
+                return null;
+            });
+        }
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (var future : executor.invokeAll(tasks))
+                future.get(); // Rethrows assertion failures
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testModules(MolangBackend backend) {
+        int[] emitted = {0};
+        var modules = ModuleRegistry.builder()
+                .module(MolangModule.builder("noise")
+                        .pure("add", (MolangValue.Function2) Double::sum)
+                        .impure("emit", (MolangValue.Function1) value -> emitted[0] += (int) value)
+                        .build(), "noise", "n")
+                .build();
+        var runtime = new MolangRuntime(Map.of("n", new MolangValue.Num(1)), new SlotLayout(), Map.of(), modules);
+        var expr = MolangExpr.parseOrThrow("n.add(v.x, 2) + noise.emit(3) + n.add(1) + math.abs(-1)");
+        var compiled = backend.compile(expr, runtime);
+
+        var evaluator = runtime.newFrame();
+        evaluator.setVariable("x", new MolangValue.Num(4));
+        assertEquals(10.0, compiled.eval(evaluator));
+        assertEquals(3, emitted[0]);
+        // The wrong argument count is reported by the function, then nil is an invalid operand.
+        assertEquals(2, evaluator.getErrors().size());
+    }
+
+    @Test
+    public void testReservedModuleNamespace() {
+        var module = MolangModule.builder("math").build();
+        assertThrows(IllegalArgumentException.class, () -> ModuleRegistry.builder().module(module, "m"));
+        assertThrows(IllegalArgumentException.class, () -> ModuleRegistry.builder().module(module, "v"));
+    }
+}
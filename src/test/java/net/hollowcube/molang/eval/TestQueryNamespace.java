@@ -0,0 +1,121 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestQueryNamespace {
+    private record Entity(double animTime, double health, String name) {
+    }
+
+    private static final QueryNamespace<Entity> QUERY = QueryNamespace.<Entity>builder()
+            .number("anim_time", Entity::animTime)
+            .number("health", Entity::health)
+            .value("name", entity -> new MolangValue.Str(entity.name()))
+            .value("scale", entity -> (MolangValue.Function) args -> new MolangValue.Num(entity.health() * 2))
+            .build();
+
+    private static MolangRuntime runtime() {
+        return new MolangRuntime(Map.of(), new SlotLayout(), Map.of("query", QUERY, "q", QUERY));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "q.anim_time", "query.health * 2", "q.anim_time > 1 ? q.health : -q.health", "q.missing", "q.missing ?? 3",
+            "q.missing + 1", "q.name", "q.name + 1", "q.name ?? 1", "q.scale", "q.scale(1)", "q.health(1)",
+            "q.missing(1)", "math.clamp(q.anim_time, 0, q.health)", "{q.health; q.name;}", "q.anim_time / (q.health - 20)",
+            "loop(2, {q.health > 10 ? break : 0;}) ?? q.anim_time"
+    })
+    public void testLinkedMatchesInterpreter(String input) {
+        var expr = MolangExpr.parseOrThrow(input);
+        var runtime = runtime();
+        var interpreter = runtime.newFrame();
+        interpreter.setContext(new Entity(2.5, 20, "steve"));
+        var expected = interpreter.eval(expr);
+
+        for (var backend : MolangBackend.values()) {
+            var frame = runtime.newFrame();
+            frame.setContext(new Entity(2.5, 20, "steve"));
+            assertEquals(expected, backend.compile(expr, runtime).eval(frame), backend.name());
+            assertEquals(interpreter.getErrors(), frame.getErrors(), backend.name());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testSharedLinkedFields(MolangBackend backend) {
+        var expr = MolangExpr.parseOrThrow("q.anim_time * 2 + math.sin(q.anim_time * 2) + q.health / (q.anim_time * 2)");
+        var runtime = runtime();
+        var interpreter = runtime.newFrame();
+        interpreter.setContext(new Entity(2.5, 20, "steve"));
+
+        var frame = runtime.newFrame();
+        frame.setContext(new Entity(2.5, 20, "steve"));
+        var compiled = backend.compile(MolangOptimizer.shareCommonSubexpressions(expr), runtime);
+        assertEquals(interpreter.eval(expr), compiled.eval(frame));
+        assertEquals(interpreter.eval(expr), compiled.eval(frame));
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testContextIsPerFrame(MolangBackend backend) {
+        var runtime = runtime();
+        var compiled = backend.compile(MolangExpr.parseOrThrow("q.anim_time * q.health"), runtime);
+        var first = runtime.newFrame();
+        var second = runtime.newFrame();
+        first.setContext(new Entity(2, 3, "a"));
+        second.setContext(new Entity(4, 5, "b"));
+
+        assertEquals(6.0, compiled.eval(first));
+        assertEquals(20.0, compiled.eval(second));
+        second.setContext(new Entity(1, 1, "c"));
+        assertEquals(1.0, compiled.eval(second));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = MolangBackend.class, names = {"CLOSURE", "BYTECODE"})
+    public void testUnknownFieldsLinkToNil(MolangBackend backend) {
+        var runtime = runtime();
+        var compiled = backend.compile(MolangExpr.parseOrThrow("q.missing ?? 3"), runtime);
+        var frame = runtime.newFrame();
+        // Unknown fields never read from the context, so none is needed.
+        assertEquals(3.0, compiled.eval(frame));
+        assertSame(runtime, compiled.runtime());
+    }
+
+    @Test
+    public void testNamespaceShadowsGlobal() {
+        var runtime = new MolangRuntime(Map.of("q", MolangValue.Holder.holder(Map.of("health", new MolangValue.Num(1)))),
+                new SlotLayout(), Map.of("q", QUERY));
+        var frame = runtime.newFrame();
+        frame.setContext(new Entity(0, 7, "a"));
+        assertEquals(7.0, frame.eval(MolangExpr.parseOrThrow("q.health")));
+    }
+
+    @Test
+    public void testMissingContext() {
+        var frame = runtime().newFrame();
+        assertThrows(IllegalStateException.class, () -> frame.eval(MolangExpr.parseOrThrow("q.health")));
+    }
+
+    @Test
+    public void testDifferentRuntime() {
+        var compiled = MolangBackend.CLOSURE.compile(MolangExpr.parseOrThrow("q.health"), runtime());
+        var frame = runtime().newFrame();
+        frame.setContext(new Entity(0, 7, "a"));
+        assertThrows(IllegalArgumentException.class, () -> compiled.eval(frame));
+    }
+
+    @Test
+    public void testDuplicateField() {
+        var builder = QueryNamespace.<Entity>builder().number("health", Entity::health);
+        assertThrows(IllegalArgumentException.class, () -> builder.number("health", Entity::animTime));
+    }
+}
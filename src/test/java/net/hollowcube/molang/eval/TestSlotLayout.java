@@ -0,0 +1,127 @@
+package net.hollowcube.molang.eval;
+
+import net.hollowcube.molang.MolangExpr;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSlotLayout {
+
+    @Test
+    public void testResolveAssignsDenseSlots() {
+        var layout = SlotLayout.resolve(
+                MolangExpr.parseOrThrow("v.a + variable.b * t.a"),
+                MolangExpr.parseOrThrow("v.b + q.c + math.abs(temp.b)")
+        );
+
+        assertEquals(2, layout.size(SlotLayout.Scope.VARIABLE));
+        assertEquals(0, layout.slot(SlotLayout.Scope.VARIABLE, "a"));
+        assertEquals(1, layout.slot(SlotLayout.Scope.VARIABLE, "b"));
+        assertEquals(2, layout.size(SlotLayout.Scope.TEMP));
+        assertEquals(-1, layout.slot(SlotLayout.Scope.VARIABLE, "c"));
+    }
+
+    @Test
+    public void testStorageValues() {
+        var storage = new SlotStorage(new SlotLayout(), SlotLayout.Scope.VARIABLE);
+        assertEquals(MolangValue.NIL, storage.get("x"));
+
+        storage.set("x", new MolangValue.Num(3));
+        storage.set("y", new MolangValue.Str("abc"));
+        assertEquals(new MolangValue.Num(3), storage.get("x"));
+        assertEquals(new MolangValue.Str("abc"), storage.get("y"));
+
+        storage.set("y", new MolangValue.Num(4));
+        assertEquals(new MolangValue.Num(4), storage.get("y"));
+        storage.set("x", MolangValue.NIL);
+        assertEquals(MolangValue.NIL, storage.get("x"));
+    }
+
+    @Test
+    public void testStorageClear() {
+        var storage = new SlotStorage(new SlotLayout(), SlotLayout.Scope.TEMP);
+        storage.set("x", new MolangValue.Num(3));
+        storage.clear();
+        assertEquals(MolangValue.NIL, storage.get("x"));
+
+        storage.set("x", new MolangValue.Num(5));
+        assertEquals(new MolangValue.Num(5), storage.get("x"));
+    }
+
+    @Test
+    public void testStorageNumbers() {
+        var layout = new SlotLayout();
+        var storage = new SlotStorage(layout, SlotLayout.Scope.VARIABLE);
+        storage.set("x", new MolangValue.Num(3));
+        storage.set("y", new MolangValue.Str("abc"));
+        int x = layout.slot(SlotLayout.Scope.VARIABLE, "x"), y = layout.slot(SlotLayout.Scope.VARIABLE, "y");
+        assertTrue(storage.isNumber(x));
+        assertEquals(3.0, storage.getNumber(x));
+        assertFalse(storage.isNumber(y));
+        assertFalse(storage.isNumber(100));
+
+        storage.clear();
+        assertFalse(storage.isNumber(x));
+    }
+
+    @MethodSource("slotOperands")
+    @ParameterizedTest(name = "{0} {1}")
+    public void testSlotOperandsMatchInterpreter(MolangBackend backend, String input) {
+        var expr = MolangExpr.parseOrThrow(input);
+        var layout = SlotLayout.resolve(expr);
+        var compiled = backend.compile(expr, layout);
+        var values = List.of(new MolangValue.Num(3), new MolangValue.Num(0), new MolangValue.Str("a"), MolangValue.NIL,
+                (MolangValue.Function) args -> new MolangValue.Num(5));
+        for (var x : values) {
+            for (var y : values) {
+                var interpreter = new MolangEvaluator(Map.of(), layout);
+                var evaluator = new MolangEvaluator(Map.of(), layout);
+                for (var frame : List.of(interpreter, evaluator)) {
+                    frame.setVariable("x", x);
+                    frame.setVariable("y", y);
+                }
+                assertEquals(interpreter.eval(expr), compiled.eval(evaluator), x + ", " + y);
+                assertEquals(interpreter.getErrorCount(), evaluator.getErrorCount(), x + ", " + y);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testCompiledVariableAccess(MolangBackend backend) {
+        var expr = MolangExpr.parseOrThrow("v.speed * 2 + (v.missing ?? 1)");
+        var layout = SlotLayout.resolve(expr);
+        var compiled = backend.compile(expr, layout);
+
+        var evaluator = new MolangEvaluator(Map.of(), layout);
+        evaluator.setVariable("speed", new MolangValue.Num(4));
+        assertEquals(9.0, compiled.eval(evaluator));
+
+        // Names added after the evaluator was created still work
+        evaluator.setVariable("missing", new MolangValue.Num(10));
+        assertEquals(18.0, compiled.eval(evaluator));
+    }
+
+    @Test
+    public void testCompiledLayoutMismatch() {
+        var expr = MolangExpr.parseOrThrow("v.speed");
+        var compiled = MolangBackend.CLOSURE.compile(expr, SlotLayout.resolve(expr));
+
+        assertThrows(IllegalArgumentException.class, () -> compiled.eval(new MolangEvaluator(Map.of())));
+    }
+
+    private static Stream<Arguments> slotOperands() {
+        return Stream.of(MolangBackend.values()).flatMap(backend -> Stream.of(
+                "v.x + 1", "v.x * v.y", "2 - v.y", "v.x / v.y", "v.x == v.y", "v.x && 1", "-v.x", "!v.y",
+                "v.x ? 1 : 2", "math.abs(v.x)", "math.clamp(v.x, 1, v.y)", "v.x > 1 ? v.y : 3"
+        ).map(input -> Arguments.of(backend, input)));
+    }
+}
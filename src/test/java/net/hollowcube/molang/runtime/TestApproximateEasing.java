@@ -0,0 +1,80 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.MolangCache;
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangRuntime;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.eval.SlotLayout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestApproximateEasing {
+
+    @MethodSource("easings")
+    @ParameterizedTest(name = "{0}")
+    public void testWithinError(String name) {
+        var exact = (MolangValue.Function3) MolangMath.MODULE.get(name);
+        var approximate = (MolangValue.Function3) MolangMath.module(true, false).get(name);
+        for (int i = 0; i <= 100_000; i++) {
+            double t = i / 100_000.0;
+            assertEquals(exact.applyAsDouble(0, 1, t), approximate.applyAsDouble(0, 1, t),
+                    MolangMath.APPROXIMATE_EASING_ERROR, "t = " + t);
+        }
+    }
+
+    @MethodSource("easings")
+    @ParameterizedTest(name = "{0}")
+    public void testExactAtBounds(String name) {
+        var exact = (MolangValue.Function3) MolangMath.MODULE.get(name);
+        var approximate = (MolangValue.Function3) MolangMath.module(true, false).get(name);
+        for (double t : new double[]{0, 1, -0.5, 1.5, Math.nextUp(0.0), Math.nextDown(1.0)})
+            assertEquals(exact.applyAsDouble(-2, 3, t), approximate.applyAsDouble(-2, 3, t), 1e-12, "t = " + t);
+        for (double t : new double[]{0, 1, -0.5, 1.5})
+            assertEquals(exact.applyAsDouble(-2, 3, t), approximate.applyAsDouble(-2, 3, t), "t = " + t);
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testRegistrySwitch(MolangBackend backend) {
+        var modules = ModuleRegistry.builder().approximateEasing(true).build();
+        assertSame(MolangMath.module(true, false), modules.module("math"));
+        assertSame(MolangMath.module(true, false), modules.module("m"));
+        assertSame(MolangMath.MODULE.function("sin"), modules.function("m", "sin"));
+        assertSame(MolangMath.MODULE, ModuleRegistry.builder().approximateEasing(false).build().module("math"));
+
+        var expr = MolangExpr.parseOrThrow("math.ease_out_elastic(0, 10, v.t)");
+        var runtime = new MolangRuntime(Map.of(), new SlotLayout(), Map.of(), modules);
+        var frame = runtime.newFrame();
+        frame.setVariable("t", new MolangValue.Num(0.3));
+        var approximate = (MolangValue.Function3) MolangMath.module(true, false).get("ease_out_elastic");
+        double expected = approximate.applyAsDouble(0, 10, 0.3);
+        assertEquals(expected, frame.eval(expr));
+        assertEquals(expected, backend.compile(expr, runtime).eval(frame));
+
+        var cache = new MolangCache(16, source -> 1, backend, runtime);
+        assertEquals(expected, cache.compile("math.ease_out_elastic(0, 10, v.t)").eval(frame));
+        assertEquals(new MolangExpr.Num(approximate.applyAsDouble(0, 10, 0.7)),
+                cache.parse("math.ease_out_elastic(0, 10, 0.7)"));
+
+        // Compiling without the runtime would resolve the exact curve, which the runtime rejects.
+        var unlinked = backend.compile(expr);
+        if (backend == MolangBackend.INTERPRETER)
+            assertEquals(expected, unlinked.eval(frame));
+        else
+            assertThrows(IllegalArgumentException.class, () -> unlinked.eval(frame));
+    }
+
+    private static Stream<String> easings() {
+        return MolangMath.MODULE.functions().stream()
+                .map(ModuleFunction::name)
+                .filter(name -> name.startsWith("ease_"))
+                .sorted();
+    }
+}
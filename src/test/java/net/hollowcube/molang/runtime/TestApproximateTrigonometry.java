@@ -0,0 +1,157 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.MolangCache;
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.MolangOptimizer;
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangRuntime;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.eval.SlotLayout;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestApproximateTrigonometry {
+    private static final MolangModule APPROXIMATE = MolangMath.module(false, true);
+    private static final double ERROR = MolangMath.APPROXIMATE_TRIGONOMETRY_ERROR;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sin", "cos"})
+    public void testSinCosWithinError(String name) {
+        var approximate = function1(name);
+        // Reduced exactly before converting to radians, Math.toRadians alone is off by more than the error for large
+        // angles.
+        DoubleUnaryOperator exact = name.equals("sin")
+                ? degrees -> Math.sin(Math.toRadians(Math.IEEEremainder(degrees, 360)))
+                : degrees -> Math.cos(Math.toRadians(Math.IEEEremainder(degrees, 360)));
+        for (int i = -1_000_000; i <= 1_000_000; i++) {
+            double degrees = i * 0.0036;
+            assertEquals(exact.applyAsDouble(degrees), approximate.applyAsDouble(degrees), ERROR, "x = " + degrees);
+        }
+        for (double scale = 1e3; scale < 1e18; scale *= 3.7) {
+            for (double degrees : new double[]{scale + 0.3, -scale - 45.7, scale * 1.1}) {
+                assertEquals(exact.applyAsDouble(degrees), approximate.applyAsDouble(degrees), ERROR,
+                        "x = " + degrees);
+            }
+        }
+    }
+
+    @Test
+    public void testAtanWithinError() {
+        var approximate = function1("atan");
+        for (int i = -1_000_000; i <= 1_000_000; i++) {
+            // Evenly spaced angles rather than values, so that large values are covered too.
+            double value = Math.tan(i * (Math.PI / 2_000_002));
+            assertEquals(Math.toDegrees(Math.atan(value)), approximate.applyAsDouble(value), ERROR, "x = " + value);
+        }
+        for (double value = 1e-300; value < 1e300; value *= 11.3) {
+            assertEquals(Math.toDegrees(Math.atan(value)), approximate.applyAsDouble(value), ERROR, "x = " + value);
+            assertEquals(Math.toDegrees(Math.atan(-value)), approximate.applyAsDouble(-value), ERROR, "x = " + value);
+        }
+    }
+
+    @Test
+    public void testAtan2WithinError() {
+        var approximate = (MolangValue.Function2) APPROXIMATE.get("atan2");
+        for (double radius : new double[]{1e-200, 1e-3, 1, 17.5, 1e6, 1e200}) {
+            for (int i = 0; i < 200_000; i++) {
+                double angle = i * (2 * Math.PI / 200_000);
+                double y = radius * Math.sin(angle), x = radius * Math.cos(angle);
+                assertEquals(Math.toDegrees(Math.atan2(y, x)), approximate.applyAsDouble(y, x), ERROR,
+                        "y = " + y + ", x = " + x);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asin", "acos"})
+    public void testAsinAcosWithinError(String name) {
+        var approximate = function1(name);
+        var exact = function1(MolangMath.MODULE, name);
+        for (int i = -1_000_000; i <= 1_000_000; i++) {
+            double value = i / 1_000_000.0;
+            assertEquals(exact.applyAsDouble(value), approximate.applyAsDouble(value), ERROR, "x = " + value);
+        }
+        for (double value : new double[]{Math.nextUp(-1.0), Math.nextDown(1.0), 1e-300, -1e-300})
+            assertEquals(exact.applyAsDouble(value), approximate.applyAsDouble(value), ERROR, "x = " + value);
+        assertThrows(MolangContentException.class, () -> approximate.applyAsDouble(1.5));
+        assertThrows(MolangContentException.class, () -> approximate.applyAsDouble(Double.NaN));
+    }
+
+    @Test
+    public void testExactValues() {
+        var sin = function1("sin");
+        var cos = function1("cos");
+        for (int quarter = -8; quarter <= 8; quarter++) {
+            double degrees = quarter * 90;
+            assertEquals(Math.rint(Math.sin(Math.toRadians(degrees))), sin.applyAsDouble(degrees), 0, "x = " + degrees);
+            assertEquals(Math.rint(Math.cos(Math.toRadians(degrees))), cos.applyAsDouble(degrees), 0, "x = " + degrees);
+        }
+
+        var atan2 = (MolangValue.Function2) APPROXIMATE.get("atan2");
+        assertEquals(90.0, function1("atan").applyAsDouble(Double.POSITIVE_INFINITY));
+        assertEquals(45.0, function1("atan").applyAsDouble(1));
+        assertEquals(90.0, function1("asin").applyAsDouble(1));
+        assertEquals(180.0, function1("acos").applyAsDouble(-1));
+        assertEquals(0.0, function1("acos").applyAsDouble(1));
+        assertEquals(-135.0, atan2.applyAsDouble(-2, -2));
+        assertEquals(180.0, atan2.applyAsDouble(0, -1));
+        assertEquals(Math.toDegrees(Math.atan2(-0.0, -0.0)), atan2.applyAsDouble(-0.0, -0.0));
+
+        for (String name : new String[]{"sin", "cos", "atan"}) {
+            var exact = function1(MolangMath.MODULE, name);
+            for (double value : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0, -0.0}) {
+                // Compared numerically, the sign of zero results may differ.
+                assertEquals(exact.applyAsDouble(value), function1(name).applyAsDouble(value), 0,
+                        name + "(" + value + ")");
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testRegistrySwitch(MolangBackend backend) {
+        var modules = ModuleRegistry.builder().approximateTrigonometry(true).build();
+        assertSame(APPROXIMATE, modules.module("math"));
+        assertSame(APPROXIMATE, modules.module("m"));
+        assertSame(MolangMath.MODULE.function("ease_in_sine"), modules.function("m", "ease_in_sine"));
+        assertSame(MolangMath.module(true, true),
+                ModuleRegistry.builder().approximateTrigonometry(true).approximateEasing(true).build().module("m"));
+
+        // Evaluated and folded with the approximation, rather than a mix of both.
+        double expected = function1("sin").applyAsDouble(37) + function1("cos").applyAsDouble(37);
+        var runtime = new MolangRuntime(Map.of(), new SlotLayout(), Map.of(), modules);
+        var frame = runtime.newFrame();
+        frame.setVariable("x", new MolangValue.Num(37));
+        var expr = MolangExpr.parseOrThrow("math.sin(v.x) + m.cos(v.x)");
+        assertEquals(expected, backend.compile(expr, runtime).eval(frame));
+
+        var folded = MolangOptimizer.optimizeAst(MolangExpr.parseOrThrow("math.sin(37) + m.cos(37)"), modules);
+        assertEquals(new MolangExpr.Num(expected), folded);
+
+        var cache = new MolangCache(16, source -> 1, backend, runtime);
+        assertEquals(expected, cache.compile("math.sin(v.x) + m.cos(v.x)").eval(frame));
+        assertEquals(new MolangExpr.Num(expected), cache.parse("math.sin(37) + m.cos(37)"));
+
+        // Compiling without the runtime would resolve the exact functions, which the runtime rejects.
+        var unlinked = backend.compile(expr);
+        if (backend == MolangBackend.INTERPRETER)
+            assertEquals(expected, unlinked.eval(frame));
+        else
+            assertThrows(IllegalArgumentException.class, () -> unlinked.eval(frame));
+    }
+
+    private static MolangValue.Function1 function1(String name) {
+        return function1(APPROXIMATE, name);
+    }
+
+    private static MolangValue.Function1 function1(MolangModule module, String name) {
+        return (MolangValue.Function1) module.get(name);
+    }
+}
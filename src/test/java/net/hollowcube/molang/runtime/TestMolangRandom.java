@@ -0,0 +1,236 @@
+package net.hollowcube.molang.runtime;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.eval.MolangBackend;
+import net.hollowcube.molang.eval.MolangEvaluator;
+import net.hollowcube.molang.eval.MolangRuntime;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.eval.SlotLayout;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangRandom {
+    private static final String DRAWS = "math.random(0, 10) + math.random_integer(1, 6) * 100"
+            + " + math.die_roll(3, 0, 1) * 1000 + math.die_roll_integer(40, 1, 6) * 10000";
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testSeededEvaluationIsReproducible(MolangBackend backend) {
+        var runtime = new MolangRuntime(Map.of());
+        var compiled = backend.compile(MolangExpr.parseOrThrow(DRAWS), runtime);
+        var first = runtime.newFrame();
+        var second = runtime.newFrame();
+        first.setRandom(MolangRandom.seeded(42));
+        second.setRandom(MolangRandom.seeded(42));
+
+        // The interpreter draws the same numbers in the same order.
+        var interpreted = runtime.newFrame();
+        interpreted.setRandom(MolangRandom.seeded(42));
+        var expr = MolangExpr.parseOrThrow(DRAWS);
+
+        for (int i = 0; i < 10; i++) {
+            double result = compiled.eval(first);
+            assertFalse(first.hasErrors());
+            assertEquals(result, compiled.eval(second));
+            assertEquals(result, interpreted.eval(expr));
+        }
+
+        var other = runtime.newFrame();
+        other.setRandom(MolangRandom.seeded(43));
+        assertNotEquals(compiled.eval(first), compiled.eval(other));
+    }
+
+    @Test
+    public void testStreamsAreIndependentOfOrder() {
+        var one = MolangRandom.stream(7, 1);
+        var two = MolangRandom.stream(7, 2);
+        double oneFirst = one.nextDouble();
+        assertNotEquals(oneFirst, two.nextDouble());
+
+        // Recreated in another order, a stream draws the same sequence.
+        MolangRandom.stream(7, 2).nextDouble();
+        assertEquals(oneFirst, MolangRandom.stream(7, 1).nextDouble());
+        assertNotEquals(oneFirst, MolangRandom.stream(8, 1).nextDouble());
+        assertNotEquals(MolangRandom.stream(7, 0).nextLong(), MolangRandom.stream(7, 1).nextLong());
+    }
+
+    @Test
+    public void testUnseededFunctionsStillWork() {
+        var random = (MolangValue.Function2) MolangMath.MODULE.get("random");
+        for (int i = 0; i < 100; i++) {
+            double value = random.applyAsDouble(2, 3);
+            assertTrue(value >= 2 && value < 3, "value = " + value);
+        }
+        var frame = new MolangEvaluator(Map.of());
+        double value = frame.eval(MolangExpr.parseOrThrow("math.die_roll_integer(30, 1, 6)"));
+        assertTrue(value >= 30 && value <= 180 && value == Math.rint(value), "value = " + value);
+    }
+
+    @Test
+    public void testUnseededEvaluatorDrawsOnEvaluatingThread() throws Exception {
+        var frame = new MolangEvaluator(Map.of());
+        var generators = new RandomGenerator[2];
+        var thread = new Thread(() -> {
+            generators[0] = frame.getRandom();
+            generators[1] = ThreadLocalRandom.current();
+            frame.eval(MolangExpr.parseOrThrow("math.random(0, 1)"));
+        });
+        thread.start();
+        thread.join();
+
+        assertSame(generators[1], generators[0]);
+        assertSame(ThreadLocalRandom.current(), frame.getRandom());
+        assertFalse(frame.hasErrors());
+
+        var seeded = MolangRandom.seeded(1);
+        frame.setRandom(seeded);
+        assertSame(seeded, frame.getRandom());
+        frame.setRandom(null);
+        assertSame(ThreadLocalRandom.current(), frame.getRandom());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 16, 17, 40, 100})
+    public void testDieRollDistribution(int dice) {
+        var random = MolangRandom.seeded(dice);
+        double low = -2, high = 3;
+        int samples = 200_000;
+        double sum = 0, sumOfSquares = 0;
+        for (int i = 0; i < samples; i++) {
+            double value = MolangMath.dieRoll(random, dice, low, high);
+            assertTrue(value >= dice * low && value <= dice * high, "value = " + value);
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        assertMoments(dice * (low + high) / 2, dice * (high - low) * (high - low) / 12, sum, sumOfSquares, samples);
+    }
+
+    @MethodSource("integerDice")
+    @ParameterizedTest(name = "{0}d{1}")
+    public void testDieRollIntegerDistribution(int dice, int faces) {
+        var random = MolangRandom.seeded(dice * 31L + faces);
+        int samples = 200_000;
+        double sum = 0, sumOfSquares = 0;
+        for (int i = 0; i < samples; i++) {
+            double value = MolangMath.dieRollInteger(random, dice, 1, faces);
+            assertTrue(value >= dice && value <= dice * faces && value == Math.rint(value), "value = " + value);
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        assertMoments(dice * (1 + faces) / 2.0, dice * (faces * faces - 1) / 12.0, sum, sumOfSquares, samples);
+    }
+
+    @Test
+    public void testDieRollIntegerFrequencies() {
+        // The sums of 2d3 have odds 1:2:3:2:1.
+        var random = MolangRandom.seeded(11);
+        int samples = 90_000;
+        int[] counts = new int[7];
+        for (int i = 0; i < samples; i++)
+            counts[(int) MolangMath.dieRollInteger(random, 2, 1, 3)]++;
+        int[] odds = {0, 0, 1, 2, 3, 2, 1};
+        for (int sum = 2; sum <= 6; sum++) {
+            double expected = samples * odds[sum] / 9.0;
+            assertEquals(expected, counts[sum], 5 * Math.sqrt(expected), "sum = " + sum);
+        }
+    }
+
+    @Test
+    public void testDieRollIntegerRejectsBiasedDraws() {
+        // 2^64 mod 3 = 1, so a draw of 0 would make the first face slightly more likely and is drawn again.
+        var draws = new long[]{0, -1};
+        var index = new int[1];
+        RandomGenerator random = () -> draws[index[0]++];
+        assertEquals(3, MolangMath.dieRollInteger(random, 1, 1, 3));
+        assertEquals(2, index[0]);
+    }
+
+    @Test
+    public void testDieRollCounts() {
+        var random = RandomGenerator.of("L64X128MixRandom");
+        // Fractional counts roll ceil(num) dice, up to the iteration limit.
+        assertEquals(3, MolangMath.dieRollInteger(random, 2.5, 1, 1));
+        assertEquals(0, MolangMath.dieRollInteger(random, -4, 1, 1));
+        assertEquals(0, MolangMath.dieRollInteger(random, Double.NaN, 1, 1));
+        assertEquals(100, MolangMath.dieRollInteger(random, 1e9, 1, 1));
+        assertEquals(0, MolangMath.dieRoll(random, 0, 5, 1));
+
+        for (double dice : new double[]{2, 20}) {
+            assertThrows(MolangContentException.class, () -> MolangMath.dieRoll(random, dice, 5, 1));
+            assertThrows(MolangContentException.class, () -> MolangMath.dieRollInteger(random, dice, 5, 1));
+        }
+    }
+
+    @Test
+    public void testRandomFunctionValidation() {
+        var function = new RandomFn() {
+            @Override
+            public double applyAsDouble(RandomGenerator random, double a, double b, double c) {
+                return a;
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> ModuleFunction.pure("f", function));
+        assertTrue(ModuleFunction.nondeterministic("f", function).pure());
+    }
+
+    @ParameterizedTest
+    @EnumSource(MolangBackend.class)
+    public void testCustomRandomFunction(MolangBackend backend) {
+        var modules = ModuleRegistry.builder()
+                .module(MolangModule.builder("noise")
+                        .nondeterministic("jitter", new RandomFn() {
+                            @Override
+                            public double applyAsDouble(RandomGenerator random, double a, double b, double c) {
+                                return a + random.nextDouble(-1, 1);
+                            }
+                        })
+                        .build(), "noise", "n")
+                .build();
+        var runtime = new MolangRuntime(Map.of(), new SlotLayout(), Map.of(), modules);
+        var compiled = backend.compile(MolangExpr.parseOrThrow("n.jitter(10)"), runtime);
+        var frame = runtime.newFrame();
+        frame.setRandom(MolangRandom.seeded(5));
+        assertEquals(10 + MolangRandom.seeded(5).nextDouble(-1, 1), compiled.eval(frame));
+    }
+
+    private static void assertMoments(double mean, double variance, double sum, double sumOfSquares, int samples) {
+        double sampleMean = sum / samples;
+        double sampleVariance = sumOfSquares / samples - sampleMean * sampleMean;
+        // At least 5 standard errors of either estimate.
+        assertEquals(mean, sampleMean, 5 * Math.sqrt(variance / samples) + 1e-9);
+        assertEquals(variance, sampleVariance, variance * 0.02);
+    }
+
+    private static Stream<Arguments> integerDice() {
+        return Stream.of(
+                Arguments.of(1, 2),
+                Arguments.of(3, 6),
+                Arguments.of(16, 6),
+                Arguments.of(17, 2),
+                Arguments.of(17, 6),
+                Arguments.of(24, 6),
+                Arguments.of(25, 6),
+                Arguments.of(40, 20),
+                Arguments.of(100, 6),
+                Arguments.of(100, 1_000)
+        );
+    }
+
+    private abstract static class RandomFn implements MolangValue.Function1, RandomFunction {
+        @Override
+        public double applyAsDouble(double a) {
+            throw new AssertionError("called without a generator");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+plugins {
+    `java-library`
+
+    `maven-publish`
+    signing
+}
+
+group = "dev.hollowcube"
+version = rootProject.version
+description = "SIMD batch evaluation of Molang expressions"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    api(rootProject)
+    implementation("org.jetbrains:annotations:26.0.2")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.0"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+java {
+    withSourcesJar()
+    withJavadocJar()
+
+    toolchain.languageVersion = JavaLanguageVersion.of(25)
+}
+
+// The Vector API is still incubating, consumers must also run with `--add-modules jdk.incubator.vector`.
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.withType<Javadoc> {
+    (options as StandardJavadocDocletOptions).addStringOption("-add-modules", "jdk.incubator.vector")
+}
+
+tasks.test {
+    useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+publishing.publications.create<MavenPublication>("maven") {
+    groupId = "dev.hollowcube"
+    artifactId = "molang-vector"
+    version = project.version.toString()
+
+    from(project.components["java"])
+
+    pom {
+        name.set(artifactId)
+        description.set(project.description)
+        url.set("https://github.com/hollow-cube/molang")
+
+        licenses {
+            license {
+                name.set("MIT")
+                url.set("https://github.com/hollow-cube/molang/blob/main/LICENSE")
+            }
+        }
+
+        developers {
+            developer {
+                id.set("mworzala")
+                name.set("Matt Worzala")
+                email.set("matt@hollowcube.dev")
+            }
+        }
+
+        scm {
+            connection.set("scm:git:git://github.com/hollow-cube/molang.git")
+            developerConnection.set("scm:git:git@github.com:hollow-cube/molang.git")
+            url.set("https://github.com/hollow-cube/molang")
+            tag.set(System.getenv("TAG_VERSION") ?: "HEAD")
+        }
+    }
+}
+
+signing {
+    isRequired = System.getenv("CI") != null
+
+    val privateKey = System.getenv("GPG_PRIVATE_KEY")
+    val keyPassphrase = System.getenv()["GPG_PASSPHRASE"]
+    useInMemoryPgpKeys(privateKey, keyPassphrase)
+
+    sign(publishing.publications)
+}
@@ -0,0 +1,422 @@
+package net.hollowcube.molang.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.eval.MolangEvaluator;
+import net.hollowcube.molang.eval.MolangValue;
+import net.hollowcube.molang.eval.SlotLayout;
+import net.hollowcube.molang.runtime.ModuleFunction;
+import net.hollowcube.molang.runtime.MolangMath;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/// Evaluates one expression across many lanes (typically one per entity) at once using the Vector API.
+///
+/// Inputs are supplied as struct-of-arrays columns, one `double[]` for each `query.*` or `variable.*` field
+/// referenced by the expression, in the order given by [#inputs()]. Arithmetic, comparisons, ternaries and the
+/// pure math functions which have a vector equivalent are evaluated [DoubleVector#SPECIES_PREFERRED] lanes at a
+/// time. Any other subexpression falls back to the scalar interpreter, once per lane.
+///
+/// Each lane has the same result as [MolangEvaluator#eval(MolangExpr)] with the lane's inputs, except that
+/// trigonometric, exponential and logarithmic functions may differ in the last bit and content errors are not
+/// reported. Batches are immutable and may be shared between threads.
+public final class MolangBatch {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector ZERO = DoubleVector.zero(SPECIES);
+    private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1.0);
+
+    // Identical to the constants used by Math#toRadians and Math#toDegrees.
+    private static final double DEGREES_TO_RADIANS = 0.017453292519943295;
+    private static final double RADIANS_TO_DEGREES = 57.29577951308232;
+
+    // Control flow cannot be evaluated per subexpression, any of these force the whole expression to fall back.
+    private static final Set<String> CONTROL_FLOW_IDENTS = Set.of("continue", "break", "return", "loop", "for_each", "this");
+
+    public static MolangBatch compile(MolangExpr expr) {
+        return compile(expr, Map.of());
+    }
+
+    /// Compiles the expression for batch evaluation.
+    ///
+    /// The given globals are only visible to subexpressions which fall back to the scalar interpreter, they
+    /// must not contain `query` or `q` which are always backed by the input columns.
+    public static MolangBatch compile(MolangExpr expr, Map<String, MolangValue> globals) {
+        return new MolangBatch(expr, globals);
+    }
+
+    private final MolangExpr source;
+    private final Map<String, MolangValue> globals;
+    private final SlotLayout layout;
+
+    private final List<String> inputs;
+    private final Map<String, Integer> queries = new HashMap<>();
+    private final Map<String, Integer> variables = new LinkedHashMap<>();
+
+    private final Node root;
+    private int fallbacks = 0;
+
+    private MolangBatch(MolangExpr source, Map<String, MolangValue> globals) {
+        this.source = source;
+        this.globals = Map.copyOf(globals);
+        this.layout = SlotLayout.resolve(source);
+
+        final List<String> inputs = new ArrayList<>();
+        collectInputs(source, inputs);
+        this.inputs = List.copyOf(inputs);
+
+        this.root = containsControlFlow(source) ? fallback(source) : node(source);
+    }
+
+    /// The expression this batch was compiled from.
+    public MolangExpr source() {
+        return source;
+    }
+
+    /// The fields read by the expression, for example `query.anim_time` or `variable.speed`.
+    ///
+    /// Columns passed to [#eval(double[][], int, double[])] must be in this order.
+    public List<String> inputs() {
+        return inputs;
+    }
+
+    /// Returns true if no part of the expression falls back to the scalar interpreter.
+    public boolean isFullyVectorized() {
+        return fallbacks == 0;
+    }
+
+    /// Evaluates the first `count` lanes, writing the result of each lane to `out`.
+    ///
+    /// `columns[i]` holds the values of `inputs().get(i)` for every lane.
+    public void eval(double[][] columns, int count, double[] out) {
+        if (columns.length != inputs.size())
+            throw new IllegalArgumentException("expected " + inputs.size() + " input columns, got " + columns.length);
+        for (double[] column : columns) {
+            if (column.length < count)
+                throw new IllegalArgumentException("input column is shorter than the lane count");
+        }
+        if (out.length < count)
+            throw new IllegalArgumentException("output is shorter than the lane count");
+
+        final Lanes lanes = new Lanes(columns, count);
+        final int bound = SPECIES.loopBound(count);
+        for (; lanes.offset < bound; lanes.offset += SPECIES.length())
+            root.eval(lanes).intoArray(out, lanes.offset);
+        if (lanes.offset < count) {
+            lanes.mask = SPECIES.indexInRange(lanes.offset, count);
+            root.eval(lanes).intoArray(out, lanes.offset, lanes.mask);
+        }
+    }
+
+    /// Evaluates the first `count` lanes, reading each input column by name.
+    public void eval(Map<String, double[]> columns, int count, double[] out) {
+        final double[][] ordered = new double[inputs.size()][];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = columns.get(inputs.get(i));
+            if (ordered[i] == null)
+                throw new IllegalArgumentException("missing input column: " + inputs.get(i));
+        }
+        eval(ordered, count, out);
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    // Compilation
+
+    @FunctionalInterface
+    private interface Node {
+        DoubleVector eval(Lanes lanes);
+    }
+
+    private static @Nullable String inputNamespace(MolangExpr expr) {
+        if (!(expr instanceof MolangExpr.Ident(String ident))) return null;
+        return switch (ident) {
+            case "query", "q" -> "query";
+            case "variable", "v" -> "variable";
+            default -> null;
+        };
+    }
+
+    private void collectInputs(MolangExpr expr, List<String> inputs) {
+        switch (expr) {
+            case MolangExpr.Num num -> {
+            }
+            case MolangExpr.Str str -> {
+            }
+            case MolangExpr.Ident ident -> {
+            }
+            case MolangExpr.Unary unary -> collectInputs(unary.rhs(), inputs);
+            case MolangExpr.Binary binary -> {
+                collectInputs(binary.lhs(), inputs);
+                collectInputs(binary.rhs(), inputs);
+            }
+            case MolangExpr.Ternary ternary -> {
+                collectInputs(ternary.cond(), inputs);
+                collectInputs(ternary.thenExpr(), inputs);
+                collectInputs(ternary.elseExpr(), inputs);
+            }
+            case MolangExpr.Access access -> {
+                final String namespace = inputNamespace(access.lhs());
+                if (namespace == null) {
+                    collectInputs(access.lhs(), inputs);
+                    return;
+                }
+                final Map<String, Integer> fields = namespace.equals("query") ? queries : variables;
+                if (!fields.containsKey(access.field())) {
+                    fields.put(access.field(), inputs.size());
+                    inputs.add(namespace + "." + access.field());
+                }
+            }
+            case MolangExpr.Call call -> {
+                // Functions in an input namespace are not inputs themselves.
+                if (!(call.lhs() instanceof MolangExpr.Access access && inputNamespace(access.lhs()) != null))
+                    collectInputs(call.lhs(), inputs);
+                for (MolangExpr arg : call.args()) collectInputs(arg, inputs);
+            }
+            case MolangExpr.Block block -> {
+                for (MolangExpr subExpr : block.exprs()) collectInputs(subExpr, inputs);
+            }
+            case MolangExpr.Shared shared -> collectInputs(shared.expr(), inputs);
+            case MolangExpr.Unrolled unrolled -> collectInputs(unrolled.loop(), inputs);
+        }
+    }
+
+    private static boolean containsControlFlow(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num num -> false;
+            case MolangExpr.Str str -> false;
+            case MolangExpr.Ident(String ident) -> CONTROL_FLOW_IDENTS.contains(ident);
+            case MolangExpr.Unary unary -> containsControlFlow(unary.rhs());
+            case MolangExpr.Binary binary -> containsControlFlow(binary.lhs()) || containsControlFlow(binary.rhs());
+            case MolangExpr.Ternary ternary -> containsControlFlow(ternary.cond())
+                    || containsControlFlow(ternary.thenExpr()) || containsControlFlow(ternary.elseExpr());
+            case MolangExpr.Access access -> containsControlFlow(access.lhs());
+            case MolangExpr.Call call -> containsControlFlow(call.lhs())
+                    || call.args().stream().anyMatch(MolangBatch::containsControlFlow);
+            case MolangExpr.Block block -> block.exprs().stream().anyMatch(MolangBatch::containsControlFlow);
+            case MolangExpr.Shared shared -> containsControlFlow(shared.expr());
+            case MolangExpr.Unrolled unrolled -> true;
+        };
+    }
+
+    private Node node(MolangExpr expr) {
+        final Node node = vector(expr);
+        return node != null ? node : fallback(expr);
+    }
+
+    private Node fallback(MolangExpr expr) {
+        fallbacks++;
+        return lanes -> lanes.fallback(expr);
+    }
+
+    /// Returns a vectorized node for the expression, or null if it must fall back to the interpreter.
+    private @Nullable Node vector(MolangExpr expr) {
+        return switch (expr) {
+            case MolangExpr.Num(double value) -> {
+                final DoubleVector constant = DoubleVector.broadcast(SPECIES, value);
+                yield lanes -> constant;
+            }
+            case MolangExpr.Access access -> access(access);
+            case MolangExpr.Unary unary -> unary(unary);
+            case MolangExpr.Binary binary -> binary(binary);
+            case MolangExpr.Ternary ternary -> {
+                final Node cond = node(ternary.cond());
+                final Node thenExpr = node(ternary.thenExpr());
+                final Node elseExpr = node(ternary.elseExpr());
+                // Both branches are evaluated for every lane, which is fine as vectorized nodes have no side effects.
+                yield lanes -> elseExpr.eval(lanes).blend(thenExpr.eval(lanes), cond.eval(lanes).compare(VectorOperators.NE, 0.0));
+            }
+            case MolangExpr.Call call -> call(call);
+            // Every lane is computed at once anyway, so a shared subexpression is simply evaluated in place.
+            case MolangExpr.Shared shared -> vector(shared.expr());
+            default -> null;
+        };
+    }
+
+    private @Nullable Node access(MolangExpr.Access access) {
+        final String namespace = inputNamespace(access.lhs());
+        if (namespace != null) {
+            final int input = (namespace.equals("query") ? queries : variables).get(access.field());
+            return lanes -> lanes.load(input);
+        }
+        if (isMath(access.lhs()) && access.field().equals("pi")) {
+            final DoubleVector pi = DoubleVector.broadcast(SPECIES, Math.PI);
+            return lanes -> pi;
+        }
+        return null;
+    }
+
+    private Node unary(MolangExpr.Unary unary) {
+        final Node rhs = node(unary.rhs());
+        return switch (unary.op()) {
+            case NEGATE -> lanes -> rhs.eval(lanes).neg();
+            case NOT -> lanes -> ZERO.blend(ONE, rhs.eval(lanes).compare(VectorOperators.EQ, 0.0));
+        };
+    }
+
+    private @Nullable Node binary(MolangExpr.Binary binary) {
+        final int fallbacksBefore = fallbacks;
+        if (binary.op() == MolangExpr.Binary.Op.NULL_COALESCE) {
+            // Inputs and vectorized nodes are never nil, so `??` only needs its lhs unless part of that falls back.
+            final Node lhs = vector(binary.lhs());
+            if (lhs != null && fallbacks == fallbacksBefore) return lhs;
+            fallbacks = fallbacksBefore;
+            return null;
+        }
+
+        final Node lhs = node(binary.lhs());
+        final Node rhs = node(binary.rhs());
+        final boolean equality = binary.op() == MolangExpr.Binary.Op.EQ || binary.op() == MolangExpr.Binary.Op.NEQ;
+        if (equality && fallbacks != fallbacksBefore) {
+            // Equality is defined between non-numbers too, which a fallback would have flattened to zero.
+            fallbacks = fallbacksBefore;
+            return null;
+        }
+
+        return switch (binary.op()) {
+            case PLUS -> lanes -> lhs.eval(lanes).add(rhs.eval(lanes));
+            case MINUS -> lanes -> lhs.eval(lanes).sub(rhs.eval(lanes));
+            case MUL -> lanes -> lhs.eval(lanes).mul(rhs.eval(lanes));
+            case DIV -> lanes -> {
+                final DoubleVector divisor = rhs.eval(lanes);
+                return lhs.eval(lanes).div(divisor).blend(ZERO, divisor.compare(VectorOperators.EQ, 0.0));
+            };
+            case GTE -> compare(VectorOperators.GE, lhs, rhs);
+            case GT -> compare(VectorOperators.GT, lhs, rhs);
+            case LTE -> compare(VectorOperators.LE, lhs, rhs);
+            case LT -> compare(VectorOperators.LT, lhs, rhs);
+            case EQ -> compare(VectorOperators.EQ, lhs, rhs);
+            case NEQ -> compare(VectorOperators.NE, lhs, rhs);
+            case AND -> lanes -> ZERO.blend(ONE, lhs.eval(lanes).compare(VectorOperators.NE, 0.0)
+                    .and(rhs.eval(lanes).compare(VectorOperators.NE, 0.0)));
+            case OR -> lanes -> ZERO.blend(ONE, lhs.eval(lanes).compare(VectorOperators.NE, 0.0)
+                    .or(rhs.eval(lanes).compare(VectorOperators.NE, 0.0)));
+            case NULL_COALESCE -> throw new UnsupportedOperationException("unreachable");
+        };
+    }
+
+    private static Node compare(VectorOperators.Comparison op, Node lhs, Node rhs) {
+        return lanes -> ZERO.blend(ONE, lhs.eval(lanes).compare(op, rhs.eval(lanes)));
+    }
+
+    private static boolean isMath(MolangExpr expr) {
+        return expr instanceof MolangExpr.Ident(String ident) && (ident.equals("math") || ident.equals("m"));
+    }
+
+    /// The arity of math functions with a vector implementation, or -1.
+    ///
+    /// Impure functions and functions which report content errors (eg `acos` or `mod`) always fall back.
+    private static int vectorArity(String function) {
+        return switch (function) {
+            case "pi" -> 0;
+            case "abs", "sqrt", "sin", "cos", "exp", "ln", "atan", "sign", "hermite_blend" -> 1;
+            case "min", "max", "pow", "atan2" -> 2;
+            case "clamp", "lerp" -> 3;
+            default -> -1;
+        };
+    }
+
+    private @Nullable Node call(MolangExpr.Call call) {
+        if (!(call.lhs() instanceof MolangExpr.Access(MolangExpr lhs, String function)) || !isMath(lhs))
+            return null;
+        final ModuleFunction info = MolangMath.MODULE.function(function);
+        if (info == null || !info.deterministic() || vectorArity(function) != call.args().size())
+            return null;
+
+        final Node[] args = new Node[call.args().size()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = node(call.args().get(i));
+
+        return switch (function) {
+            case "pi" -> {
+                final DoubleVector pi = DoubleVector.broadcast(SPECIES, Math.PI);
+                yield lanes -> pi;
+            }
+            case "abs" -> lanes -> args[0].eval(lanes).abs();
+            case "sqrt" -> lanes -> args[0].eval(lanes).sqrt();
+            case "sin" -> lanes -> args[0].eval(lanes).mul(DEGREES_TO_RADIANS).lanewise(VectorOperators.SIN);
+            case "cos" -> lanes -> args[0].eval(lanes).mul(DEGREES_TO_RADIANS).lanewise(VectorOperators.COS);
+            case "exp" -> lanes -> args[0].eval(lanes).lanewise(VectorOperators.EXP);
+            case "ln" -> lanes -> args[0].eval(lanes).lanewise(VectorOperators.LOG);
+            case "atan" -> lanes -> args[0].eval(lanes).lanewise(VectorOperators.ATAN).mul(RADIANS_TO_DEGREES);
+            case "sign" -> lanes -> ONE.neg().blend(ONE, args[0].eval(lanes).compare(VectorOperators.GT, 0.0));
+            case "hermite_blend" -> lanes -> {
+                // Same operation order as MolangMath#hermiteBlend so results are identical.
+                final DoubleVector value = args[0].eval(lanes);
+                return value.mul(3).mul(value).sub(value.mul(2).mul(value).mul(value));
+            };
+            case "min" -> lanes -> args[0].eval(lanes).min(args[1].eval(lanes));
+            case "max" -> lanes -> args[0].eval(lanes).max(args[1].eval(lanes));
+            case "pow" -> lanes -> args[0].eval(lanes).lanewise(VectorOperators.POW, args[1].eval(lanes));
+            case "atan2" -> lanes -> args[0].eval(lanes).lanewise(VectorOperators.ATAN2, args[1].eval(lanes)).mul(RADIANS_TO_DEGREES);
+            case "clamp" -> lanes -> args[0].eval(lanes).max(args[1].eval(lanes)).min(args[2].eval(lanes));
+            case "lerp" -> lanes -> {
+                final DoubleVector t = args[2].eval(lanes).max(0.0).min(1.0);
+                return args[0].eval(lanes).mul(t).add(args[1].eval(lanes).mul(ONE.sub(t)));
+            };
+            default -> throw new UnsupportedOperationException("unreachable");
+        };
+    }
+
+    // Evaluation
+
+    /// Per-call evaluation state, also the `query` holder seen by scalar fallbacks.
+    private final class Lanes implements MolangValue.Holder {
+        private final double[][] columns;
+        private final int count;
+
+        private int offset = 0;
+        private @Nullable VectorMask<Double> mask = null; // Only set for the trailing partial chunk
+
+        private @Nullable MolangEvaluator evaluator = null;
+        private double @Nullable [] scratch = null;
+        private int lane = 0;
+
+        Lanes(double[][] columns, int count) {
+            this.columns = columns;
+            this.count = count;
+        }
+
+        DoubleVector load(int input) {
+            return mask == null
+                    ? DoubleVector.fromArray(SPECIES, columns[input], offset)
+                    : DoubleVector.fromArray(SPECIES, columns[input], offset, mask);
+        }
+
+        DoubleVector fallback(MolangExpr expr) {
+            if (evaluator == null) {
+                final Map<String, MolangValue> root = new HashMap<>(globals);
+                root.put("query", this);
+                root.put("q", this);
+                evaluator = new MolangEvaluator(root, layout);
+                scratch = new double[SPECIES.length()];
+            }
+
+            final int end = Math.min(SPECIES.length(), count - offset);
+            for (int i = 0; i < end; i++) {
+                lane = offset + i;
+                for (var variable : variables.entrySet())
+                    evaluator.setVariable(variable.getKey(), new MolangValue.Num(columns[variable.getValue()][lane]));
+                scratch[i] = evaluator.eval(expr);
+            }
+            return DoubleVector.fromArray(SPECIES, scratch, 0);
+        }
+
+        @Override
+        public MolangValue get(String field) {
+            final Integer input = queries.get(field);
+            return input != null ? new MolangValue.Num(columns[input][lane]) : MolangValue.NIL;
+        }
+    }
+}
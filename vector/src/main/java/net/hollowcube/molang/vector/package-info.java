@@ -0,0 +1,4 @@
+@NotNullByDefault
+package net.hollowcube.molang.vector;
+
+import org.jetbrains.annotations.NotNullByDefault;
@@ -0,0 +1,89 @@
+package net.hollowcube.molang.vector;
+
+import net.hollowcube.molang.MolangExpr;
+import net.hollowcube.molang.eval.MolangEvaluator;
+import net.hollowcube.molang.eval.MolangValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMolangBatch {
+    // Not a multiple of any vector length, so the masked tail is always exercised.
+    private static final int COUNT = 37;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "1", "q.a", "q.a + v.b * 2", "(q.a - 1) / v.b", "q.a / 0", "-q.a", "!q.a", "!(q.a > 0)",
+            "q.a >= v.b", "q.a > v.b", "q.a <= v.b", "q.a < v.b", "q.a == v.b", "q.a != v.b",
+            "q.a && v.b", "q.a || v.b", "q.a > 0 ? q.a : v.b", "q.a ?? 3", "q.missing ?? 3",
+            "math.abs(q.a)", "math.sqrt(q.a)", "math.sign(q.a)", "math.hermite_blend(q.a)", "math.pi * q.a",
+            "math.min(q.a, v.b)", "math.max(q.a, v.b)", "math.clamp(q.a, -1, 1)", "math.lerp(q.a, v.b, 0.25)",
+            "math.lerp(0, 10, q.a)", "math.pow(math.abs(q.a), 0.5)", "math.exp(q.a)", "math.ln(math.abs(q.a))",
+            "math.sin(q.a * 90)", "math.cos(q.a * 90)", "math.atan(q.a)", "math.atan2(q.a, v.b)",
+            "math.floor(q.a) + v.b", "math.mod(q.a, v.b)", "math.ease_in_out_cubic(0, 1, q.a) * 2",
+            "c.x + q.a", "q.a > 0 ? c.x : 1", "c.x == c.y", "(q.a > 0 ? c.missing : 1) ?? 5",
+            "loop(3, {break;}) + q.a", "{q.a; v.b;}"
+    })
+    public void testMatchesInterpreter(String input) {
+        var random = new Random(input.hashCode());
+        var expr = MolangExpr.parseOrThrow(input);
+        var globals = Map.<String, MolangValue>of("c", MolangValue.Holder.holder(Map.of("x", new MolangValue.Num(4))));
+        var batch = MolangBatch.compile(expr, globals);
+
+        var columns = new double[batch.inputs().size()][COUNT];
+        for (double[] column : columns) {
+            for (int i = 0; i < COUNT; i++)
+                column[i] = i % 5 == 0 ? 0 : random.nextDouble(-2, 2);
+        }
+        var out = new double[COUNT];
+        batch.eval(columns, COUNT, out);
+
+        for (int lane = 0; lane < COUNT; lane++) {
+            var query = new HashMap<String, MolangValue>();
+            var variables = new HashMap<String, MolangValue>();
+            for (int i = 0; i < columns.length; i++) {
+                var name = batch.inputs().get(i);
+                var field = name.substring(name.indexOf('.') + 1);
+                (name.startsWith("query.") ? query : variables).put(field, new MolangValue.Num(columns[i][lane]));
+            }
+
+            var root = new HashMap<>(globals);
+            root.put("q", MolangValue.Holder.holder(query));
+            var evaluator = new MolangEvaluator(root);
+            variables.forEach(evaluator::setVariable);
+
+            var expected = evaluator.eval(expr);
+            assertEquals(expected, out[lane], Math.abs(expected) * 1e-12, "lane " + lane);
+        }
+    }
+
+    @Test
+    public void testInputsInOrder() {
+        var batch = MolangBatch.compile(MolangExpr.parseOrThrow("v.speed * q.anim_time + variable.speed + q.func(t.x)"));
+        assertEquals(List.of("variable.speed", "query.anim_time"), batch.inputs());
+    }
+
+    @Test
+    public void testFullyVectorized() {
+        assertTrue(MolangBatch.compile(MolangExpr.parseOrThrow("math.clamp(q.a * 2, 0, 1) > 0.5 ? v.b : -v.b")).isFullyVectorized());
+        assertFalse(MolangBatch.compile(MolangExpr.parseOrThrow("q.a + math.random(0, 1)")).isFullyVectorized());
+        assertFalse(MolangBatch.compile(MolangExpr.parseOrThrow("math.acos(q.a)")).isFullyVectorized());
+    }
+
+    @Test
+    public void testNamedColumns() {
+        var batch = MolangBatch.compile(MolangExpr.parseOrThrow("q.a * v.b"));
+        var out = new double[3];
+        batch.eval(Map.of("query.a", new double[]{1, 2, 3}, "variable.b", new double[]{4, 5, 6}), 3, out);
+        assertArrayEquals(new double[]{4, 10, 18}, out);
+
+        assertThrows(IllegalArgumentException.class, () -> batch.eval(Map.of("query.a", new double[3]), 3, out));
+    }
+}